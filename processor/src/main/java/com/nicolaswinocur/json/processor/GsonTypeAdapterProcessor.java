@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a TypeAdapter for each concrete class implementing
+ * {@code com.nicolaswinocur.json.GsonSerializable}, so that Gson doesn't have to bind its fields
+ * reflectively. The adapter for {@code com.example.Outer.Value} is
+ * {@code com.example.Outer_Value_GsonTypeAdapter}; GsonUtils and every GsonCodec find it by that
+ * name, and fall back to reflection for classes without one.
+ *
+ * <p>Generated adapters read and write exactly what Gson's reflective adapter would: the same
+ * fields (every non-static, non-transient field of the class and of its superclasses), under the
+ * same names (honoring {@code @SerializedName} and its alternates) and in the same order. Each
+ * field goes through the adapter Gson has for its declared type, so Guava immutable collection
+ * fields use gson-utils' adapters. Like Gson, the adapter creates each instance with the class's
+ * no-argument constructor and then assigns the fields it read, and it writes the fields
+ * themselves, never calling any other constructor or accessor; so a class only gets an adapter if
+ * it has a non-private no-argument constructor and all of its fields can be assigned from its
+ * package. Classes which don't, or which are generic, private, inner (non-static) or annotated
+ * with {@code @JsonAdapter} (on themselves or any field), are left to reflection, with a note
+ * saying why.
+ */
+@SupportedAnnotationTypes("*")
+public final class GsonTypeAdapterProcessor extends AbstractProcessor {
+
+  private static final String GSON_SERIALIZABLE = "com.nicolaswinocur.json.GsonSerializable";
+  private static final String FACTORY = "com.nicolaswinocur.json.GeneratedTypeAdapterFactory";
+  private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+  private static final String JSON_ADAPTER = "com.google.gson.annotations.JsonAdapter";
+  /** Must match GeneratedTypeAdapterFactory.SUFFIX. */
+  private static final String SUFFIX = "_GsonTypeAdapter";
+
+  /**
+   * A field Gson would bind.
+   */
+  private static final class Property {
+    final VariableElement field;
+    /** The field's type as a member of the class being generated for. */
+    final TypeMirror type;
+    final String name;
+    final List<String> alternates;
+
+    Property(VariableElement field, TypeMirror type, String name, List<String> alternates) {
+      this.field = field;
+      this.type = type;
+      this.name = name;
+      this.alternates = alternates;
+    }
+
+    String javaName() {
+      return field.getSimpleName().toString();
+    }
+  }
+
+  /**
+   * Explains why a class is left to reflection.
+   */
+  private static final class UnsupportedClassException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedClassException(String message) {
+      super(message);
+    }
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement serializable = elements().getTypeElement(GSON_SERIALIZABLE);
+    if (serializable != null) {
+      for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+        visit(type, serializable.asType());
+      }
+    }
+    // Never claim any annotations: this processor looks at every class, and other processors
+    // (such as JMH's) still need to see theirs
+    return false;
+  }
+
+  private void visit(TypeElement type, TypeMirror serializable) {
+    if (type.getKind() == ElementKind.CLASS
+        && types().isAssignable(types().erasure(type.asType()), serializable)) {
+      try {
+        generate(type);
+      } catch (UnsupportedClassException e) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+            "No TypeAdapter generated for " + type.getQualifiedName() + ", which will be bound by "
+                + "reflection instead, because it " + e.getMessage(),
+            type);
+      } catch (IOException e) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+            "Unable to write TypeAdapter for " + type.getQualifiedName() + ": " + e, type);
+      }
+    }
+    for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+      visit(member, serializable);
+    }
+  }
+
+  private void generate(TypeElement type) throws UnsupportedClassException, IOException {
+    checkClass(type);
+    String packageName = elements().getPackageOf(type).getQualifiedName().toString();
+    List<Property> properties = properties(type);
+    if (!canAssignFields(type, properties, packageName)) {
+      throw new UnsupportedClassException("doesn't have a no-argument constructor and fields "
+          + "that can all be assigned from its package");
+    }
+
+    String binaryName = elements().getBinaryName(type).toString();
+    String adapterName = binaryName.replace('$', '_') + SUFFIX;
+    try (Writer out = processingEnv.getFiler().createSourceFile(adapterName, type).openWriter()) {
+      out.write(new AdapterSource(type, packageName, adapterName, properties).toString());
+    }
+  }
+
+  private void checkClass(TypeElement type) throws UnsupportedClassException {
+    if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+      throw new UnsupportedClassException("is abstract");
+    }
+    if (!type.getTypeParameters().isEmpty()) {
+      throw new UnsupportedClassException("is generic");
+    }
+    if (annotation(type, JSON_ADAPTER) != null) {
+      throw new UnsupportedClassException("has @JsonAdapter");
+    }
+    for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+      TypeElement enclosing = (TypeElement) e;
+      if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+        throw new UnsupportedClassException("is private, or nested in a private class");
+      }
+      if (enclosing.getNestingKind() == NestingKind.MEMBER
+          && enclosing.getEnclosingElement().getKind() == ElementKind.CLASS
+          && !enclosing.getModifiers().contains(Modifier.STATIC)) {
+        throw new UnsupportedClassException("is an inner class, or nested in one");
+      }
+    }
+  }
+
+  /**
+   * @return the fields Gson would bind, in the order it would write them: the class's own fields
+   *         first, then those of each superclass in turn.
+   */
+  private List<Property> properties(TypeElement type) throws UnsupportedClassException {
+    List<Property> toReturn = new ArrayList<>();
+    Set<String> javaNames = new HashSet<>();
+    Set<String> names = new HashSet<>();
+    DeclaredType declaredType = (DeclaredType) type.asType();
+    TypeMirror current = declaredType;
+    while (current.getKind() == TypeKind.DECLARED) {
+      TypeElement declaring = (TypeElement) ((DeclaredType) current).asElement();
+      if (declaring.getQualifiedName().contentEquals("java.lang.Object")) {
+        break;
+      }
+      for (VariableElement field : ElementFilter.fieldsIn(declaring.getEnclosedElements())) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+          continue;
+        }
+        String javaName = field.getSimpleName().toString();
+        if (annotation(field, JSON_ADAPTER) != null) {
+          throw new UnsupportedClassException("has @JsonAdapter on field " + javaName);
+        }
+        if (!javaNames.add(javaName)) {
+          throw new UnsupportedClassException("has a field, " + javaName
+              + ", which hides a superclass field");
+        }
+        TypeMirror fieldType = types().asMemberOf(declaredType, field);
+        if (fieldType.getKind() == TypeKind.ERROR || hasTypeVariable(fieldType)) {
+          throw new UnsupportedClassException("has a field, " + javaName
+              + ", whose type isn't fully known");
+        }
+        Property property = serializedNames(field, fieldType);
+        List<String> allNames = new ArrayList<>(property.alternates);
+        allNames.add(property.name);
+        for (String name : allNames) {
+          if (!names.add(name)) {
+            // Gson refuses such classes, so leave it to do so
+            throw new UnsupportedClassException("declares multiple JSON fields named " + name);
+          }
+        }
+        toReturn.add(property);
+      }
+      current = declaring.getSuperclass();
+    }
+    return toReturn;
+  }
+
+  private Property serializedNames(VariableElement field, TypeMirror fieldType) {
+    String name = field.getSimpleName().toString();
+    List<String> alternates = new ArrayList<>();
+    AnnotationMirror serializedName = annotation(field, SERIALIZED_NAME);
+    if (serializedName != null) {
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : serializedName
+          .getElementValues().entrySet()) {
+        String key = entry.getKey().getSimpleName().toString();
+        if (key.equals("value")) {
+          name = (String) entry.getValue().getValue();
+        } else if (key.equals("alternate")) {
+          @SuppressWarnings("unchecked")
+          List<? extends AnnotationValue> values =
+              (List<? extends AnnotationValue>) entry.getValue().getValue();
+          for (AnnotationValue value : values) {
+            alternates.add((String) value.getValue());
+          }
+        }
+      }
+    }
+    return new Property(field, fieldType, name, alternates);
+  }
+
+  private boolean canAssignFields(TypeElement type, List<Property> properties,
+      String packageName) {
+    boolean hasConstructor = false;
+    for (ExecutableElement constructor : ElementFilter
+        .constructorsIn(type.getEnclosedElements())) {
+      hasConstructor |= constructor.getParameters().isEmpty()
+          && !constructor.getModifiers().contains(Modifier.PRIVATE);
+    }
+    if (!hasConstructor) {
+      return false;
+    }
+    for (Property property : properties) {
+      if (property.field.getModifiers().contains(Modifier.FINAL)
+          || !accessible(property.field, packageName)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return whether a field or method can be used from another class in the given package.
+   */
+  private boolean accessible(Element member, String packageName) {
+    TypeElement owner = (TypeElement) member.getEnclosingElement();
+    boolean samePackage =
+        elements().getPackageOf(owner).getQualifiedName().contentEquals(packageName);
+    for (Element e = member; e instanceof TypeElement || e == member; e = e.getEnclosingElement()) {
+      Set<Modifier> modifiers = e.getModifiers();
+      if (modifiers.contains(Modifier.PRIVATE)
+          || (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean hasTypeVariable(TypeMirror type) {
+    switch (type.getKind()) {
+      case TYPEVAR:
+        return true;
+      case ARRAY:
+        return hasTypeVariable(((ArrayType) type).getComponentType());
+      case WILDCARD:
+        WildcardType wildcard = (WildcardType) type;
+        return (wildcard.getExtendsBound() != null && hasTypeVariable(wildcard.getExtendsBound()))
+            || (wildcard.getSuperBound() != null && hasTypeVariable(wildcard.getSuperBound()));
+      case DECLARED:
+        DeclaredType declared = (DeclaredType) type;
+        for (TypeMirror argument : declared.getTypeArguments()) {
+          if (hasTypeVariable(argument)) {
+            return true;
+          }
+        }
+        return hasTypeVariable(declared.getEnclosingType());
+      default:
+        return false;
+    }
+  }
+
+  private static AnnotationMirror annotation(Element element, String annotationType) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName()
+          .contentEquals(annotationType)) {
+        return mirror;
+      }
+    }
+    return null;
+  }
+
+  private Elements elements() {
+    return processingEnv.getElementUtils();
+  }
+
+  private Types types() {
+    return processingEnv.getTypeUtils();
+  }
+
+  /**
+   * Source of one generated adapter. Every name is written out in full, so that nothing in the
+   * class being adapted can clash with an import.
+   */
+  private final class AdapterSource {
+    private final StringBuilder source = new StringBuilder();
+
+    AdapterSource(TypeElement type, String packageName, String adapterName,
+        List<Property> properties) {
+      String typeName = type.getQualifiedName().toString();
+      String simpleName = adapterName.substring(adapterName.lastIndexOf('.') + 1);
+      boolean isFinal = type.getModifiers().contains(Modifier.FINAL);
+
+      line(0, "// Generated by " + GsonTypeAdapterProcessor.class.getName() + ". Do not edit.");
+      if (!packageName.isEmpty()) {
+        line(0, "package " + packageName + ";");
+      }
+      line(0, "");
+      line(0, "/** Reads and writes {@link " + typeName + "} without reflection. */");
+      line(0, "@SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+      line(0, "public final class " + simpleName + " extends com.google.gson.TypeAdapter<"
+          + typeName + "> {");
+      if (!isFinal) {
+        line(1, "private final com.google.gson.Gson gson;");
+      }
+      for (Property property : properties) {
+        line(1, "private final com.google.gson.TypeAdapter<" + boxed(property.type) + "> "
+            + adapter(property) + ";");
+      }
+      line(0, "");
+      line(1, "public " + simpleName + "(com.google.gson.Gson gson) {");
+      if (!isFinal) {
+        line(2, "this.gson = gson;");
+      }
+      for (Property property : properties) {
+        line(2, "this." + adapter(property) + " = " + FACTORY + ".fieldAdapter(gson, "
+            + typeToken(property.type) + ");");
+      }
+      line(1, "}");
+      line(0, "");
+
+      line(1, "@Override");
+      line(1, "public void write(com.google.gson.stream.JsonWriter out, " + typeName
+          + " value) throws java.io.IOException {");
+      line(2, "if (value == null) {");
+      line(3, "out.nullValue();");
+      line(3, "return;");
+      line(2, "}");
+      if (!isFinal) {
+        // As Gson would when a field or element of a supertype holds an instance of a subclass
+        line(2, "if (value.getClass() != " + typeName + ".class) {");
+        line(3, "gson.getAdapter((java.lang.Class) value.getClass()).write(out, value);");
+        line(3, "return;");
+        line(2, "}");
+      }
+      line(2, "out.beginObject();");
+      for (Property property : properties) {
+        int indent = 2;
+        if (types().isAssignable(type.asType(), property.type)) {
+          // Gson skips fields referring back to the instance itself
+          line(indent++, "if (value." + property.javaName() + " != value) {");
+        }
+        line(indent, "out.name(" + literal(property.name) + ");");
+        line(indent, adapter(property) + ".write(out, value." + property.javaName() + ");");
+        if (indent > 2) {
+          line(2, "}");
+        }
+      }
+      line(2, "out.endObject();");
+      line(1, "}");
+      line(0, "");
+
+      line(1, "@Override");
+      line(1, "public " + typeName + " read(com.google.gson.stream.JsonReader in)"
+          + " throws java.io.IOException {");
+      line(2, "if (in.peek() == com.google.gson.stream.JsonToken.NULL) {");
+      line(3, "in.nextNull();");
+      line(3, "return null;");
+      line(2, "}");
+      line(2, typeName + " toReturn = new " + typeName + "();");
+      line(2, "try {");
+      line(3, "in.beginObject();");
+      line(3, "while (in.hasNext()) {");
+      line(4, "switch (in.nextName()) {");
+      for (Property property : properties) {
+        boolean primitive = property.type.getKind().isPrimitive();
+        List<String> labels = new ArrayList<>(property.alternates);
+        labels.add(0, property.name);
+        for (int i = 0; i < labels.size(); i++) {
+          line(5, "case " + literal(labels.get(i)) + ":"
+              + (primitive && i == labels.size() - 1 ? " {" : ""));
+        }
+        String target = "toReturn." + property.javaName();
+        if (primitive) {
+          // Gson leaves a primitive field alone when its value is null
+          line(6, boxed(property.type) + " read = " + adapter(property) + ".read(in);");
+          line(6, "if (read != null) {");
+          line(7, target + " = read;");
+          line(6, "}");
+          line(6, "break;");
+          line(5, "}");
+        } else {
+          line(6, target + " = " + adapter(property) + ".read(in);");
+          line(6, "break;");
+        }
+      }
+      line(5, "default:");
+      line(6, "in.skipValue();");
+      line(4, "}");
+      line(3, "}");
+      line(3, "in.endObject();");
+      line(2, "} catch (java.lang.IllegalStateException e) {");
+      line(3, "throw new com.google.gson.JsonSyntaxException(e);");
+      line(2, "}");
+      line(2, "return toReturn;");
+      line(1, "}");
+      line(0, "}");
+    }
+
+    private void line(int indent, String text) {
+      for (int i = 0; i < indent; i++) {
+        source.append("  ");
+      }
+      source.append(text).append('\n');
+    }
+
+    private String adapter(Property property) {
+      return property.javaName() + "Adapter";
+    }
+
+    private String literal(String name) {
+      return elements().getConstantExpression(name);
+    }
+
+    private String boxed(TypeMirror type) {
+      return type.getKind().isPrimitive()
+          ? types().boxedClass(types().getPrimitiveType(type.getKind())).getQualifiedName()
+              .toString()
+          : type.toString();
+    }
+
+    /**
+     * @return an expression for the TypeToken Gson's reflective adapter would use for a field of
+     *         the given type.
+     */
+    private String typeToken(TypeMirror type) {
+      TypeMirror erasure = types().erasure(type);
+      return type.getKind().isPrimitive() || types().isSameType(type, erasure)
+          ? "com.google.gson.reflect.TypeToken.get(" + erasure + ".class)"
+          : "new com.google.gson.reflect.TypeToken<" + type + ">() {}";
+    }
+
+    @Override
+    public String toString() {
+      return source.toString();
+    }
+  }
+}
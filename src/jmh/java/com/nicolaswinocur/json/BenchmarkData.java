@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Generates the collections the benchmarks serialize and deserialize.
+ */
+public final class BenchmarkData {
+
+  /** Number of elements in each collection nested inside the outermost one. */
+  static final int INNER_SIZE = 4;
+
+  private BenchmarkData() {}
+
+  /**
+   * The kinds of leaf element benchmarked. Every element created is distinct and, for a given
+   * type, elements sort in the order they're created.
+   */
+  public enum ElementType {
+    INTEGER(Integer.class) {
+      @Override
+      Object create(int i) {
+        return i;
+      }
+    },
+    STRING(String.class) {
+      @Override
+      Object create(int i) {
+        return key(i);
+      }
+    },
+    RECORD(Record.class) {
+      @Override
+      Object create(int i) {
+        return new Record(i);
+      }
+    };
+
+    private final Class<?> type;
+
+    ElementType(Class<?> type) {
+      this.type = type;
+    }
+
+    Class<?> type() {
+      return type;
+    }
+
+    abstract Object create(int i);
+  }
+
+  /**
+   * A small value class, standing in for the records real callers store in collections.
+   */
+  static final class Record implements GsonSerializable, Comparable<Record> {
+    private final int id;
+    private final String name;
+    private final double score;
+    private final boolean active;
+
+    Record(int id) {
+      this.id = id;
+      this.name = "record-" + id;
+      this.score = id / 7.0;
+      this.active = id % 2 == 0;
+    }
+
+    @Override
+    public int compareTo(Record other) {
+      return Integer.compare(id, other.id);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Record)) {
+        return false;
+      }
+      Record other = (Record) obj;
+      return id == other.id && name.equals(other.name) && score == other.score
+          && active == other.active;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(id, name, score, active);
+    }
+  }
+
+  /**
+   * @return a map key which sorts in the same order as {@code i}.
+   */
+  static String key(int i) {
+    return String.format("key-%08d", i);
+  }
+
+  /**
+   * @param elementType is the kind of leaf element to create.
+   * @param size is the number of elements in the outermost collection.
+   * @param depth is the number of levels of collections; 1 means a flat collection of leaves, and
+   *        each further level wraps collections of {@link #INNER_SIZE} elements.
+   * @param collect turns the elements of one level into a collection.
+   * @return the outermost collection.
+   */
+  static Object nested(ElementType elementType, int size, int depth,
+      Function<List<Object>, Object> collect) {
+    return nested(elementType, size, depth, collect, new int[1]);
+  }
+
+  private static Object nested(ElementType elementType, int size, int depth,
+      Function<List<Object>, Object> collect, int[] nextId) {
+    List<Object> elements = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      elements.add(depth == 1 ? elementType.create(nextId[0]++)
+          : nested(elementType, INNER_SIZE, depth - 1, collect, nextId));
+    }
+    return collect.apply(elements);
+  }
+
+  /**
+   * @return {@code map}, after putting each of {@code elements} in it under the {@link #key} of its
+   *         index.
+   */
+  static <M extends Map<String, Object>> M toMap(List<Object> elements, M map) {
+    for (int i = 0; i < elements.size(); i++) {
+      map.put(key(i), elements.get(i));
+    }
+    return map;
+  }
+
+  /**
+   * @return a multimap holding {@code elements}, {@link #INNER_SIZE} of them under each key.
+   */
+  static ImmutableMultimap<String, Object> toMultimap(List<Object> elements,
+      ImmutableMultimap.Builder<String, Object> builder) {
+    for (int i = 0; i < elements.size(); i++) {
+      builder.put(key(i / INNER_SIZE), elements.get(i));
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return a map holding the same keys and values {@link #toMultimap} would.
+   */
+  static Map<String, Collection<Object>> toMapOfCollections(List<Object> elements,
+      Supplier<Collection<Object>> newCollection) {
+    Map<String, Collection<Object>> map = new LinkedHashMap<>();
+    for (int i = 0; i < elements.size(); i++) {
+      map.computeIfAbsent(key(i / INNER_SIZE), k -> newCollection.get()).add(elements.get(i));
+    }
+    return map;
+  }
+
+  /**
+   * @param leafType is the type of the innermost elements.
+   * @param depth is the number of levels of collections, as for {@link #nested}.
+   * @param wrap gives the type of a collection of elements of the given type.
+   * @return the type of the outermost collection.
+   */
+  static Type nestedType(Type leafType, int depth, Function<Type, Type> wrap) {
+    Type type = leafType;
+    for (int i = 0; i < depth; i++) {
+      type = wrap.apply(type);
+    }
+    return type;
+  }
+
+  /**
+   * @return the type {@code rawType<typeArguments...>}.
+   */
+  static Type parameterized(Class<?> rawType, Type... typeArguments) {
+    return TypeToken.getParameterized(rawType, typeArguments).getType();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.nicolaswinocur.json;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.gson.Gson;
+
+/**
+ * Measures one of this library's TypeAdapterFactories against a baseline: plain Gson handling the
+ * matching mutable collection, holding the same elements and written as the same JSON. Each
+ * subclass chooses the collection types; {@link #write()} and {@link #read()} exercise the factory,
+ * while {@link #writeBaseline()} and {@link #readBaseline()} exercise the baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class CollectionBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int size;
+
+  @Param({"INTEGER", "STRING", "RECORD"})
+  public BenchmarkData.ElementType elementType;
+
+  private final Gson gson = GsonCodec.getCompact().gson();
+  private final Gson baselineGson = new Gson();
+
+  private Type type;
+  private Object value;
+  private String json;
+  private Type baselineType;
+  private Object baselineValue;
+  private String baselineJson;
+
+  @Setup
+  public void setUp() {
+    type = BenchmarkData.nestedType(elementType.type(), depth(), this::wrapType);
+    value = BenchmarkData.nested(elementType, size, depth(), this::collect);
+    json = gson.toJson(value, type);
+    baselineType = BenchmarkData.nestedType(elementType.type(), depth(), this::wrapBaselineType);
+    baselineValue = BenchmarkData.nested(elementType, size, depth(), this::collectBaseline);
+    baselineJson = baselineGson.toJson(baselineValue, baselineType);
+  }
+
+  /**
+   * @return the number of levels of collections, as for {@link BenchmarkData#nested}.
+   */
+  int depth() {
+    return 1;
+  }
+
+  /**
+   * @return the type of the collection under test, holding elements of {@code elementType}.
+   */
+  abstract Type wrapType(Type elementType);
+
+  /**
+   * @return a collection of the type under test, holding {@code elements}.
+   */
+  abstract Object collect(List<Object> elements);
+
+  /**
+   * @return the type of the matching mutable collection, holding elements of {@code elementType}.
+   */
+  abstract Type wrapBaselineType(Type elementType);
+
+  /**
+   * @return a matching mutable collection, holding {@code elements}.
+   */
+  abstract Object collectBaseline(List<Object> elements);
+
+  @Benchmark
+  public String write() {
+    return gson.toJson(value, type);
+  }
+
+  @Benchmark
+  public Object read() {
+    return gson.fromJson(json, type);
+  }
+
+  @Benchmark
+  public String writeBaseline() {
+    return baselineGson.toJson(baselineValue, baselineType);
+  }
+
+  @Benchmark
+  public Object readBaseline() {
+    return baselineGson.fromJson(baselineJson, baselineType);
+  }
+}
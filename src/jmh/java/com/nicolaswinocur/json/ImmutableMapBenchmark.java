@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.nicolaswinocur.json;
+
+import java.lang.reflect.Type;
+import java.util.LinkedHashMap;
+import java.util.List;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Measures {@link ImmutableMapTypeAdapterFactory} against plain Gson with {@link LinkedHashMap}.
+ */
+public class ImmutableMapBenchmark extends NestedCollectionBenchmark {
+
+  @Override
+  Type wrapType(Type elementType) {
+    return BenchmarkData.parameterized(ImmutableMap.class, String.class, elementType);
+  }
+
+  @Override
+  Object collect(List<Object> elements) {
+    return ImmutableMap.copyOf(BenchmarkData.toMap(elements, new LinkedHashMap<>()));
+  }
+
+  @Override
+  Type wrapBaselineType(Type elementType) {
+    return BenchmarkData.parameterized(LinkedHashMap.class, String.class, elementType);
+  }
+
+  @Override
+  Object collectBaseline(List<Object> elements) {
+    return BenchmarkData.toMap(elements, new LinkedHashMap<>());
+  }
+}
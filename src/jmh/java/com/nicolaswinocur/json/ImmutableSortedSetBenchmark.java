@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.nicolaswinocur.json;
+
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * Measures {@link ImmutableSortedSetTypeAdapterFactory} against plain Gson with {@link TreeSet}.
+ * Sorted sets can't hold further sorted sets, so are only measured flat.
+ */
+public class ImmutableSortedSetBenchmark extends CollectionBenchmark {
+
+  @Override
+  Type wrapType(Type elementType) {
+    return BenchmarkData.parameterized(ImmutableSortedSet.class, elementType);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"}) // every element type benchmarked is Comparable
+  @Override
+  Object collect(List<Object> elements) {
+    return ImmutableSortedSet.copyOf((Collection) elements);
+  }
+
+  @Override
+  Type wrapBaselineType(Type elementType) {
+    return BenchmarkData.parameterized(TreeSet.class, elementType);
+  }
+
+  @Override
+  Object collectBaseline(List<Object> elements) {
+    return new TreeSet<>(elements);
+  }
+}
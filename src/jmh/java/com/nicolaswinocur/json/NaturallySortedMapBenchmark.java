@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.nicolaswinocur.json;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Measures {@link NaturallySortedMapTypeAdapterFactory} against plain Gson, both handling the same
+ * {@link TreeMap}.
+ */
+public class NaturallySortedMapBenchmark extends NestedCollectionBenchmark {
+
+  @Override
+  Type wrapType(Type elementType) {
+    return BenchmarkData.parameterized(TreeMap.class, String.class, elementType);
+  }
+
+  @Override
+  Object collect(List<Object> elements) {
+    return BenchmarkData.toMap(elements, new TreeMap<>());
+  }
+
+  @Override
+  Type wrapBaselineType(Type elementType) {
+    return BenchmarkData.parameterized(TreeMap.class, String.class, elementType);
+  }
+
+  @Override
+  Object collectBaseline(List<Object> elements) {
+    return BenchmarkData.toMap(elements, new TreeMap<>());
+  }
+}
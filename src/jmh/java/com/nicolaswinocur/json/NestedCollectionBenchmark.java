@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.nicolaswinocur.json;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * A {@link CollectionBenchmark} for collections which can hold further collections of their own
+ * type, and so are also measured nested.
+ */
+public abstract class NestedCollectionBenchmark extends CollectionBenchmark {
+
+  @Param({"1", "3"})
+  public int depth;
+
+  @Override
+  int depth() {
+    return depth;
+  }
+}
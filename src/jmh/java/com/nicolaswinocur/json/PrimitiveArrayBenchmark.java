@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.ImmutableLongArray;
+import com.google.gson.Gson;
+
+/**
+ * Measures {@link ImmutablePrimitiveArrayTypeAdapterFactory} and the opt-in primitive-backed
+ * {@code List<Long>} against an {@code ImmutableList<Long>} of the same numbers, all written as the
+ * same JSON. Run with {@code -prof gc} to compare allocation rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimitiveArrayBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int size;
+
+  private final Gson gson = GsonCodec.getCompact().gson();
+  private final Gson primitiveListGson =
+      GsonCodec.builder().compact().setPrimitiveBackedNumberLists(true).build().gson();
+  private final Type listType = BenchmarkData.parameterized(List.class, Long.class);
+  private final Type immutableListType =
+      BenchmarkData.parameterized(ImmutableList.class, Long.class);
+
+  private ImmutableLongArray array;
+  private ImmutableList<Long> list;
+  private String json;
+
+  @Setup
+  public void setUp() {
+    ImmutableLongArray.Builder builder = ImmutableLongArray.builder(size);
+    for (int i = 0; i < size; i++) {
+      builder.add(i * 1_000_003L);
+    }
+    array = builder.build();
+    list = ImmutableList.copyOf(array.asList());
+    json = gson.toJson(array);
+  }
+
+  @Benchmark
+  public String writeArray() {
+    return gson.toJson(array);
+  }
+
+  @Benchmark
+  public Object readArray() {
+    return gson.fromJson(json, ImmutableLongArray.class);
+  }
+
+  @Benchmark
+  public Object readPrimitiveBackedList() {
+    return primitiveListGson.fromJson(json, listType);
+  }
+
+  @Benchmark
+  public String writeImmutableList() {
+    return gson.toJson(list, immutableListType);
+  }
+
+  @Benchmark
+  public Object readImmutableList() {
+    return gson.fromJson(json, immutableListType);
+  }
+}
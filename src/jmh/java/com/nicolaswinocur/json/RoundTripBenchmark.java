@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.nicolaswinocur.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Measures writing and reading whole files of records through each of the {@link GsonUtils} and
+ * {@link GsonCodec} paths, against a baseline of plain Gson writing and reading a List of records
+ * whose fields are the matching mutable collections.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+  /**
+   * A record like those this library's callers stream to and from files.
+   */
+  static final class Event implements GsonSerializable {
+    long id;
+    String name;
+    ImmutableList<String> tags;
+    ImmutableMap<String, Integer> counters;
+  }
+
+  /**
+   * The same record as {@link Event}, with mutable collections Gson can handle unaided.
+   */
+  static final class MutableEvent {
+    long id;
+    String name;
+    ArrayList<String> tags;
+    LinkedHashMap<String, Integer> counters;
+  }
+
+  @Param({"1000", "100000"})
+  public int count;
+
+  private final Gson baselineGson = new Gson();
+  private final Type baselineType = BenchmarkData.parameterized(List.class, MutableEvent.class);
+  private final ParallelOptions parallel = ParallelOptions.commonPool();
+  private final ReadProjection projection = ReadProjection.builder().fields("id", "name")
+      .filter("id", id -> id.getAsLong() % 10 == 0).build();
+
+  private List<Event> events;
+  private List<MutableEvent> mutableEvents;
+  private byte[] json;
+  private byte[] baselineJson;
+  private byte[] binary;
+  private byte[] gzip;
+  private List<Event> updatedEvents;
+  private byte[] delta;
+  private Path file;
+  private Path indexedFile;
+  private Path ndjsonFile;
+
+  @Setup
+  public void setUp() throws IOException {
+    events = new ArrayList<>(count);
+    mutableEvents = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Event event = new Event();
+      event.id = i;
+      event.name = "event-" + i;
+      event.tags = ImmutableList.of("tag-" + i % 3, "tag-" + i % 5, "tag-" + i % 7);
+      event.counters = ImmutableMap.of("reads", i, "writes", i / 2, "errors", i % 11);
+      events.add(event);
+
+      MutableEvent mutableEvent = new MutableEvent();
+      mutableEvent.id = event.id;
+      mutableEvent.name = event.name;
+      mutableEvent.tags = new ArrayList<>(event.tags);
+      mutableEvent.counters = new LinkedHashMap<>(event.counters);
+      mutableEvents.add(mutableEvent);
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GsonUtils.writeJsonStream(out, events);
+    json = out.toByteArray();
+    baselineJson = writeBaseline();
+    binary = writeBinaryStream();
+    gzip = writeGzipJsonStream();
+
+    // The next snapshot changes one event in a hundred, and drops and adds one
+    updatedEvents = new ArrayList<>(events);
+    for (int i = 0; i < count; i += 100) {
+      Event event = new Event();
+      event.id = i;
+      event.name = events.get(i).name;
+      event.tags = events.get(i).tags;
+      event.counters = ImmutableMap.of("reads", i + 1, "writes", i / 2, "errors", i % 11);
+      updatedEvents.set(i, event);
+    }
+    updatedEvents.add(updatedEvents.remove(count / 2));
+    delta = writeJsonStreamDelta();
+
+    file = Files.createTempFile("round-trip", ".json");
+    GsonUtils.writeJsonStream(file, events);
+    indexedFile = Files.createTempFile("round-trip-indexed", ".json");
+    GsonUtils.writeIndexedJsonStream(indexedFile, events);
+    ndjsonFile = Files.createTempFile("round-trip", ".ndjson");
+    GsonCodec.getDefault().writeNdjsonStream(ndjsonFile, events);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(indexedFile);
+    Files.deleteIfExists(JsonArrayIndex.sidecarFor(indexedFile));
+    Files.deleteIfExists(ndjsonFile);
+  }
+
+  @Benchmark
+  public byte[] writeJsonStream() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+    GsonUtils.writeJsonStream(out, events);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] writeJsonStreamParallel() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+    GsonCodec.getDefault().writeJsonStreamParallel(out, events, parallel);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public Object readJsonFrom() throws IOException {
+    return GsonUtils.readJsonFrom(new ByteArrayInputStream(json), Event.class);
+  }
+
+  @Benchmark
+  public Object readJsonFromParallel() throws IOException {
+    return GsonCodec.getDefault().readJsonFromParallel(new ByteArrayInputStream(json), Event.class,
+        parallel);
+  }
+
+  @Benchmark
+  public Object readJsonFromProjected() throws IOException {
+    return GsonUtils.readJsonFrom(new ByteArrayInputStream(json), Event.class, projection);
+  }
+
+  @Benchmark
+  public void streamJsonFrom(Blackhole blackhole) {
+    try (Stream<Event> stream = GsonUtils.streamJsonFrom(new ByteArrayInputStream(json),
+        Event.class)) {
+      stream.forEach(blackhole::consume);
+    }
+  }
+
+  @Benchmark
+  public void writeJsonStreamToPath() throws IOException {
+    GsonUtils.writeJsonStream(file, events);
+  }
+
+  @Benchmark
+  public Object readJsonFromPath() throws IOException {
+    return GsonUtils.readJsonFrom(file, Event.class);
+  }
+
+  @Benchmark
+  public Object readIndexedMiddleElement() throws IOException {
+    try (IndexedJsonArray<Event> array = GsonUtils.openIndexed(indexedFile, Event.class)) {
+      return array.get(count / 2);
+    }
+  }
+
+  @Benchmark
+  public void readJsonOffHeap(Blackhole blackhole) throws IOException {
+    try (OffHeapJsonList<Event> list =
+        GsonUtils.readJsonOffHeap(new ByteArrayInputStream(json), Event.class, 0)) {
+      list.forEach(blackhole::consume);
+    }
+  }
+
+  @Benchmark
+  public Object readOffHeapMiddleElement() throws IOException {
+    try (OffHeapJsonList<Event> list = GsonUtils.openOffHeap(indexedFile, Event.class, 0)) {
+      return list.get(count / 2);
+    }
+  }
+
+  @Benchmark
+  public void writeNdjson() throws IOException {
+    GsonCodec.getDefault().writeNdjsonStream(ndjsonFile, events);
+  }
+
+  @Benchmark
+  public void readNdjson(Blackhole blackhole) throws IOException {
+    try (NdjsonReader<Event> reader = GsonUtils.readNdjsonFrom(ndjsonFile, Event.class, 0)) {
+      reader.forEachRemaining(blackhole::consume);
+    }
+  }
+
+  @Benchmark
+  public byte[] writeBinaryStream() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(binary == null ? 32 : binary.length);
+    GsonUtils.writeBinaryStream(out, events);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public Object readBinaryFrom() throws IOException {
+    return GsonUtils.readBinaryFrom(new ByteArrayInputStream(binary), Event.class);
+  }
+
+  @Benchmark
+  public byte[] writeGzipJsonStream() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(gzip == null ? 32 : gzip.length);
+    GsonCodec.getDefault().writeGzipJsonStream(out, events, parallel);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public Object readGzipJsonFrom() throws IOException {
+    return GsonCodec.getDefault().readGzipJsonFrom(new ByteArrayInputStream(gzip), Event.class,
+        parallel);
+  }
+
+  @Benchmark
+  public byte[] writeJsonStreamDelta() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(delta == null ? 32 : delta.length);
+    GsonUtils.writeJsonStreamDelta(out, events, updatedEvents);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public Object readJsonFromDeltas() throws IOException {
+    return GsonUtils.readJsonFromDeltas(events, Event.class,
+        ImmutableList.of(new ByteArrayInputStream(delta)));
+  }
+
+  @Benchmark
+  public byte[] writeBaseline() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(json == null ? 32 : json.length);
+    try (JsonWriter writer =
+        new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+      writer.setIndent(GsonCodec.DEFAULT_INDENT);
+      baselineGson.toJson(mutableEvents, baselineType, writer);
+    }
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public Object readBaseline() throws IOException {
+    try (JsonReader reader = new JsonReader(
+        new InputStreamReader(new ByteArrayInputStream(baselineJson), StandardCharsets.UTF_8))) {
+      return baselineGson.fromJson(reader, baselineType);
+    }
+  }
+}
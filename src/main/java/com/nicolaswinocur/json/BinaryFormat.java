@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+/**
+ * Constants of the binary encoding written by {@link BinaryJsonWriter} and read by
+ * {@link BinaryJsonReader}.
+ *
+ * <p>A stream starts with the four bytes {@link #MAGIC}, the last of which is the format version,
+ * followed by any number of values. Every token is a one-byte tag, followed for some tags by a
+ * payload:
+ * <ul>
+ * <li>{@link #INT}: a signed long, zigzag-encoded as an unsigned LEB128 varint.
+ * <li>{@link #DOUBLE}: eight bytes, big-endian IEEE 754. {@link #FLOAT} holds a double that's
+ * exactly representable as a float in four bytes instead.
+ * <li>{@link #NUMBER}: a number's decimal text, for numbers (such as BigDecimals) which are
+ * neither longs nor doubles. Encoded like a string.
+ * <li>{@link #STRING}: the length in bytes as a varint, then the UTF-8 bytes.
+ * <li>{@link #NAME}: a member name encoded like a string, which is also given the next id in the
+ * stream's name dictionary. {@link #NAME_REF} then refers to it again by its id, as a varint.
+ * Once the dictionary holds {@link #MAX_NAMES} names, new names are written as
+ * {@link #NAME_LITERAL}, which is encoded like a string but not added to the dictionary.
+ * <li>Nulls, booleans and the ends of arrays and objects have no payload.
+ * </ul>
+ */
+final class BinaryFormat {
+
+  /**
+   * Intentionally private constructor so people don't try to instantiate what is currently designed
+   * as a non-instantiable constants class
+   */
+  private BinaryFormat() {}
+
+  static final byte[] MAGIC = {'G', 'J', 'B', 1};
+
+  static final int NULL = 0;
+  static final int FALSE = 1;
+  static final int TRUE = 2;
+  static final int BEGIN_ARRAY = 3;
+  static final int END_ARRAY = 4;
+  static final int BEGIN_OBJECT = 5;
+  static final int END_OBJECT = 6;
+  static final int INT = 7;
+  static final int DOUBLE = 8;
+  static final int FLOAT = 9;
+  static final int NUMBER = 10;
+  static final int STRING = 11;
+  static final int NAME = 12;
+  static final int NAME_REF = 13;
+  static final int NAME_LITERAL = 14;
+
+  /**
+   * Most names a stream's dictionary holds. This bounds the memory used by each reader and writer
+   * when maps with many distinct keys are written, since map keys are names too.
+   */
+  static final int MAX_NAMES = 1 << 12;
+}
@@ -0,0 +1,621 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import com.google.common.base.Preconditions;
+import com.google.gson.internal.JsonReaderInternalAccess;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * A {@link JsonReader} which reads the binary encoding written by {@link BinaryJsonWriter}, so that
+ * every TypeAdapter (Gson's own, and all of the Immutable* ones in this package) can read it
+ * unchanged, for example through
+ * {@link com.google.gson.Gson#fromJson(JsonReader, java.lang.reflect.Type)}.
+ *
+ * <p>Values convert between types the way JsonReader's do: numbers can be read as strings (giving
+ * the text JsonWriter would have written for them), strings holding numbers can be read as
+ * numbers, and so on. Names can be read as values, which is how map keys are read.
+ *
+ * <p>Maps read by this package's adapters (Guava's immutable maps and multimaps, and sorted maps)
+ * work as is. Gson's own Map adapter, used for fields declared as {@code Map}, {@code HashMap} and
+ * the like, only works once {@link #enableGsonMapAdapter()} has been called.
+ *
+ * <p>Instances are not thread-safe.
+ *
+ * @see GsonCodec#readBinaryFrom(InputStream, Class)
+ */
+public final class BinaryJsonReader extends JsonReader {
+
+  /**
+   * Passed to the superclass, which only gets to use it if asked to read its own internal state,
+   * as Gson's Map adapter does unless {@link #enableGsonMapAdapter()} has been called.
+   */
+  private static final Reader UNREADABLE_READER = new Reader() {
+    @Override
+    public int read(char[] buffer, int offset, int count) throws IOException {
+      throw new IOException("Gson's own Map adapter can't read the binary encoding unless "
+          + "BinaryJsonReader.enableGsonMapAdapter() has been called");
+    }
+
+    @Override
+    public void close() {
+      throw new AssertionError();
+    }
+  };
+
+  /** No tag has been peeked. */
+  private static final int PEEKED_NONE = -1;
+  /** A name has been promoted to a string value, held in {@link #peekedString}. */
+  private static final int PEEKED_PROMOTED_NAME = -2;
+  /** The end of the stream has been reached outside of any array or object. */
+  private static final int PEEKED_EOF = -3;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  /** Guarded by the class. */
+  private static boolean gsonMapAdapterEnabled = false;
+
+  private final InputStream in;
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  private int pos = 0;
+  private int limit = 0;
+  /** Number of bytes consumed before buffer[0]. */
+  private long bufferStart = 0;
+  private boolean headerRead = false;
+  private final List<String> names = new ArrayList<>();
+
+  /** Tag of the next token, whose payload has already been decoded into one of the fields below. */
+  private int peeked = PEEKED_NONE;
+  private long peekedLong;
+  private double peekedDouble;
+  private String peekedString;
+
+  /** Whether each open array or object is an object, with the path to the current value. */
+  private boolean[] objectStack = new boolean[32];
+  private int[] pathIndices = new int[32];
+  private String[] pathNames = new String[32];
+  private int stackSize = 0;
+
+  /**
+   * Lets Gson's own Map adapter read map keys from instances of this class. That adapter reads
+   * each key by asking {@code com.google.gson.internal.JsonReaderInternalAccess} to turn the next
+   * name into a value, which only works on JsonReader's own internal state, so this replaces
+   * Gson's shared instance, for the whole JVM, with one which also handles this class and defers
+   * to the previous one otherwise. Call it once while setting up, before reading any such map; it
+   * isn't needed for the maps this package's adapters read.
+   */
+  public static synchronized void enableGsonMapAdapter() {
+    if (gsonMapAdapterEnabled) {
+      return;
+    }
+    final JsonReaderInternalAccess previous = JsonReaderInternalAccess.INSTANCE;
+    JsonReaderInternalAccess.INSTANCE = new JsonReaderInternalAccess() {
+      @Override
+      public void promoteNameToValue(JsonReader reader) throws IOException {
+        if (reader instanceof BinaryJsonReader) {
+          ((BinaryJsonReader) reader).promoteNameToValue();
+        } else {
+          previous.promoteNameToValue(reader);
+        }
+      }
+    };
+    gsonMapAdapterEnabled = true;
+  }
+
+  /**
+   * @param in holds the encoded bytes. It is closed when this reader is closed.
+   */
+  public BinaryJsonReader(InputStream in) {
+    super(UNREADABLE_READER);
+    this.in = Preconditions.checkNotNull(in);
+  }
+
+  /**
+   * @return the number of bytes consumed so far.
+   */
+  public long bytesRead() {
+    return bufferStart + pos;
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    expect(BinaryFormat.BEGIN_ARRAY, JsonToken.BEGIN_ARRAY);
+    push(false);
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    expect(BinaryFormat.END_ARRAY, JsonToken.END_ARRAY);
+    stackSize--;
+    valueConsumed();
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    expect(BinaryFormat.BEGIN_OBJECT, JsonToken.BEGIN_OBJECT);
+    push(true);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    expect(BinaryFormat.END_OBJECT, JsonToken.END_OBJECT);
+    pathNames[--stackSize] = null;
+    valueConsumed();
+  }
+
+  private void expect(int tag, JsonToken token) throws IOException {
+    if (peekTag() != tag) {
+      throw unexpected(token);
+    }
+    peeked = PEEKED_NONE;
+  }
+
+  private void push(boolean object) {
+    if (stackSize == objectStack.length) {
+      objectStack = Arrays.copyOf(objectStack, stackSize * 2);
+      pathIndices = Arrays.copyOf(pathIndices, stackSize * 2);
+      pathNames = Arrays.copyOf(pathNames, stackSize * 2);
+    }
+    objectStack[stackSize] = object;
+    pathIndices[stackSize] = 0;
+    pathNames[stackSize] = null;
+    stackSize++;
+  }
+
+  /**
+   * Consumes the peeked token, moving the path on to the next value.
+   */
+  private void valueConsumed() {
+    peeked = PEEKED_NONE;
+    if (stackSize > 0) {
+      pathIndices[stackSize - 1]++;
+    }
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    int tag = peekTag();
+    return tag != BinaryFormat.END_ARRAY && tag != BinaryFormat.END_OBJECT && tag != PEEKED_EOF;
+  }
+
+  @Override
+  public JsonToken peek() throws IOException {
+    switch (peekTag()) {
+      case BinaryFormat.NULL:
+        return JsonToken.NULL;
+      case BinaryFormat.FALSE:
+      case BinaryFormat.TRUE:
+        return JsonToken.BOOLEAN;
+      case BinaryFormat.BEGIN_ARRAY:
+        return JsonToken.BEGIN_ARRAY;
+      case BinaryFormat.END_ARRAY:
+        return JsonToken.END_ARRAY;
+      case BinaryFormat.BEGIN_OBJECT:
+        return JsonToken.BEGIN_OBJECT;
+      case BinaryFormat.END_OBJECT:
+        return JsonToken.END_OBJECT;
+      case BinaryFormat.INT:
+      case BinaryFormat.DOUBLE:
+      case BinaryFormat.FLOAT:
+      case BinaryFormat.NUMBER:
+        return JsonToken.NUMBER;
+      case BinaryFormat.STRING:
+      case PEEKED_PROMOTED_NAME:
+        return JsonToken.STRING;
+      case BinaryFormat.NAME:
+      case BinaryFormat.NAME_REF:
+      case BinaryFormat.NAME_LITERAL:
+        return JsonToken.NAME;
+      case PEEKED_EOF:
+        return JsonToken.END_DOCUMENT;
+      default:
+        throw new AssertionError(peeked);
+    }
+  }
+
+  /**
+   * @return the tag of the next token, reading it and decoding its payload if that hasn't been done
+   *         already.
+   */
+  private int peekTag() throws IOException {
+    if (peeked != PEEKED_NONE) {
+      return peeked;
+    }
+    if (!headerRead) {
+      readHeader();
+    }
+    if (pos == limit && !fill(1)) {
+      if (stackSize > 0) {
+        throw new EOFException("End of input" + locationString());
+      }
+      return peeked = PEEKED_EOF;
+    }
+    int tag = buffer[pos++];
+    switch (tag) {
+      case BinaryFormat.NULL:
+      case BinaryFormat.FALSE:
+      case BinaryFormat.TRUE:
+      case BinaryFormat.BEGIN_ARRAY:
+      case BinaryFormat.END_ARRAY:
+      case BinaryFormat.BEGIN_OBJECT:
+      case BinaryFormat.END_OBJECT:
+        break;
+      case BinaryFormat.INT:
+        long zigzag = readVarint();
+        peekedLong = (zigzag >>> 1) ^ -(zigzag & 1);
+        break;
+      case BinaryFormat.DOUBLE:
+        long high = readInt() & 0xFFFFFFFFL;
+        peekedDouble = Double.longBitsToDouble((high << 32) | (readInt() & 0xFFFFFFFFL));
+        break;
+      case BinaryFormat.FLOAT:
+        peekedDouble = Float.intBitsToFloat(readInt());
+        break;
+      case BinaryFormat.NUMBER:
+      case BinaryFormat.STRING:
+        peekedString = readUtf8();
+        break;
+      case BinaryFormat.NAME:
+      case BinaryFormat.NAME_REF:
+      case BinaryFormat.NAME_LITERAL:
+        if (stackSize == 0 || !objectStack[stackSize - 1]) {
+          throw syntaxError("Unexpected name");
+        }
+        peekedString = readName(tag);
+        break;
+      default:
+        throw syntaxError("Unknown tag " + tag);
+    }
+    return peeked = tag;
+  }
+
+  private void readHeader() throws IOException {
+    if (!fill(BinaryFormat.MAGIC.length)) {
+      if (limit == 0) {
+        throw new EOFException("End of input" + locationString());
+      }
+      throw syntaxError("Not a binary JSON stream");
+    }
+    for (int i = 0; i < BinaryFormat.MAGIC.length; i++) {
+      if (buffer[pos + i] != BinaryFormat.MAGIC[i]) {
+        throw syntaxError(i == BinaryFormat.MAGIC.length - 1
+            ? "Unsupported binary JSON version " + buffer[pos + i]
+            : "Not a binary JSON stream");
+      }
+    }
+    pos += BinaryFormat.MAGIC.length;
+    headerRead = true;
+  }
+
+  /**
+   * Reads a name's payload, adding it to the dictionary if it's new.
+   */
+  private String readName(int tag) throws IOException {
+    if (tag == BinaryFormat.NAME_REF) {
+      long id = readVarint();
+      if (id < 0 || id >= names.size()) {
+        throw syntaxError("Unknown name id " + id);
+      }
+      return names.get((int) id);
+    }
+    String name = readUtf8();
+    if (tag == BinaryFormat.NAME) {
+      names.add(name);
+    }
+    return name;
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    if (peek() != JsonToken.NAME) {
+      throw unexpected(JsonToken.NAME);
+    }
+    peeked = PEEKED_NONE;
+    pathNames[stackSize - 1] = peekedString;
+    return peekedString;
+  }
+
+  /**
+   * Turns the next name into a string value, so that it can be read as a map key.
+   */
+  void promoteNameToValue() throws IOException {
+    if (peek() != JsonToken.NAME) {
+      throw unexpected(JsonToken.NAME);
+    }
+    peeked = PEEKED_PROMOTED_NAME;
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    String toReturn;
+    switch (peekTag()) {
+      case BinaryFormat.STRING:
+      case BinaryFormat.NUMBER:
+      case PEEKED_PROMOTED_NAME:
+        toReturn = peekedString;
+        break;
+      case BinaryFormat.INT:
+        toReturn = Long.toString(peekedLong);
+        break;
+      case BinaryFormat.DOUBLE:
+      case BinaryFormat.FLOAT:
+        toReturn = Double.toString(peekedDouble);
+        break;
+      default:
+        throw unexpected(JsonToken.STRING);
+    }
+    valueConsumed();
+    return toReturn;
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    int tag = peekTag();
+    if (tag != BinaryFormat.TRUE && tag != BinaryFormat.FALSE) {
+      throw unexpected(JsonToken.BOOLEAN);
+    }
+    valueConsumed();
+    return tag == BinaryFormat.TRUE;
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    if (peekTag() != BinaryFormat.NULL) {
+      throw unexpected(JsonToken.NULL);
+    }
+    valueConsumed();
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    double toReturn;
+    switch (peekTag()) {
+      case BinaryFormat.INT:
+        toReturn = peekedLong;
+        break;
+      case BinaryFormat.DOUBLE:
+      case BinaryFormat.FLOAT:
+        toReturn = peekedDouble;
+        break;
+      case BinaryFormat.NUMBER:
+      case BinaryFormat.STRING:
+      case PEEKED_PROMOTED_NAME:
+        toReturn = Double.parseDouble(peekedString); // don't catch this NumberFormatException.
+        break;
+      default:
+        throw unexpected(JsonToken.NUMBER);
+    }
+    if (!isLenient() && (Double.isNaN(toReturn) || Double.isInfinite(toReturn))) {
+      throw syntaxError("JSON forbids NaN and infinities: " + toReturn);
+    }
+    valueConsumed();
+    return toReturn;
+  }
+
+  /**
+   * Reads a number that must be integral, failing as JsonReader does if it isn't, or if it's not
+   * between {@code min} and {@code max}. Nothing is consumed if it fails.
+   */
+  private long nextIntegral(long min, long max, String expected) throws IOException {
+    long toReturn;
+    String was;
+    switch (peekTag()) {
+      case BinaryFormat.INT:
+        toReturn = peekedLong;
+        was = Long.toString(peekedLong);
+        break;
+      case BinaryFormat.DOUBLE:
+      case BinaryFormat.FLOAT:
+        toReturn = (long) peekedDouble;
+        was = Double.toString(peekedDouble);
+        if (toReturn != peekedDouble) {
+          throw numberFormat(expected, was);
+        }
+        break;
+      case BinaryFormat.NUMBER:
+      case BinaryFormat.STRING:
+      case PEEKED_PROMOTED_NAME:
+        was = peekedString;
+        try {
+          toReturn = Long.parseLong(peekedString);
+        } catch (NumberFormatException e) {
+          double asDouble = Double.parseDouble(peekedString); // don't catch this exception.
+          toReturn = (long) asDouble;
+          if (toReturn != asDouble) {
+            throw numberFormat(expected, was);
+          }
+        }
+        break;
+      default:
+        throw unexpected(JsonToken.NUMBER);
+    }
+    if (toReturn < min || toReturn > max) {
+      throw numberFormat(expected, was);
+    }
+    valueConsumed();
+    return toReturn;
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    return nextIntegral(Long.MIN_VALUE, Long.MAX_VALUE, "a long");
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    return (int) nextIntegral(Integer.MIN_VALUE, Integer.MAX_VALUE, "an int");
+  }
+
+  private NumberFormatException numberFormat(String expected, String was) {
+    return new NumberFormatException("Expected " + expected + " but was " + was + locationString());
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    int depth = 0;
+    do {
+      switch (peekTag()) {
+        case BinaryFormat.BEGIN_ARRAY:
+          beginArray();
+          depth++;
+          break;
+        case BinaryFormat.BEGIN_OBJECT:
+          beginObject();
+          depth++;
+          break;
+        case BinaryFormat.END_ARRAY:
+          if (depth == 0) {
+            throw unexpected(JsonToken.NULL);
+          }
+          endArray();
+          depth--;
+          break;
+        case BinaryFormat.END_OBJECT:
+          if (depth == 0) {
+            throw unexpected(JsonToken.NULL);
+          }
+          endObject();
+          depth--;
+          break;
+        case BinaryFormat.NAME:
+        case BinaryFormat.NAME_REF:
+        case BinaryFormat.NAME_LITERAL:
+          nextName();
+          break;
+        case PEEKED_EOF:
+          throw new EOFException("End of input" + locationString());
+        default:
+          valueConsumed();
+      }
+    } while (depth != 0);
+    if (stackSize > 0) {
+      pathNames[stackSize - 1] = "null";
+    }
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (pos == limit && !fill(1)) {
+        throw new EOFException("End of input" + locationString());
+      }
+      byte b = buffer[pos++];
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw syntaxError("Malformed varint");
+  }
+
+  private int readInt() throws IOException {
+    if (limit - pos < 4 && !fill(4)) {
+      throw new EOFException("End of input" + locationString());
+    }
+    int toReturn = ((buffer[pos] & 0xFF) << 24) | ((buffer[pos + 1] & 0xFF) << 16)
+        | ((buffer[pos + 2] & 0xFF) << 8) | (buffer[pos + 3] & 0xFF);
+    pos += 4;
+    return toReturn;
+  }
+
+  private String readUtf8() throws IOException {
+    long length = readVarint();
+    if (length > Integer.MAX_VALUE - BUFFER_SIZE) {
+      throw syntaxError("String too long: " + length);
+    }
+    if (limit - pos < length && !fill((int) length)) {
+      throw new EOFException("End of input" + locationString());
+    }
+    String toReturn = new String(buffer, pos, (int) length, StandardCharsets.UTF_8);
+    pos += (int) length;
+    return toReturn;
+  }
+
+  /**
+   * Reads until at least {@code minimum} unconsumed bytes are buffered, growing the buffer if it's
+   * too small to hold them.
+   *
+   * @return false if the stream ended first.
+   */
+  private boolean fill(int minimum) throws IOException {
+    if (pos > 0) {
+      System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+      bufferStart += pos;
+      limit -= pos;
+      pos = 0;
+    }
+    if (minimum > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(minimum, buffer.length * 2));
+    }
+    while (limit < minimum) {
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read < 0) {
+        return false;
+      }
+      limit += read;
+    }
+    return true;
+  }
+
+  private IllegalStateException unexpected(JsonToken expected) throws IOException {
+    return new IllegalStateException(
+        "Expected " + expected + " but was " + peek() + locationString());
+  }
+
+  private MalformedJsonException syntaxError(String message) {
+    return new MalformedJsonException(message + locationString());
+  }
+
+  private String locationString() {
+    return " at byte " + bytesRead() + " path " + getPath();
+  }
+
+  @Override
+  public String getPath() {
+    StringBuilder result = new StringBuilder().append('$');
+    for (int i = 0; i < stackSize; i++) {
+      if (objectStack[i]) {
+        if (pathNames[i] != null) {
+          result.append('.').append(pathNames[i]);
+        }
+      } else {
+        result.append('[').append(pathIndices[i]).append(']');
+      }
+    }
+    return result.toString();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + locationString();
+  }
+
+  @Override
+  public void close() throws IOException {
+    peeked = PEEKED_NONE;
+    stackSize = 0;
+    in.close();
+  }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import com.google.common.base.Preconditions;
+import com.google.gson.JsonParser;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A {@link JsonWriter} which writes a compact binary encoding instead of JSON text: numbers are
+ * written as varints or raw IEEE 754 bits rather than formatted, strings are length-prefixed
+ * rather than quoted and escaped, and each distinct member name is written once and referred to
+ * by a small id afterwards. See {@link BinaryFormat} for the encoding itself.
+ *
+ * <p>Since it's a JsonWriter, every TypeAdapter (Gson's own, and all of the Immutable* ones in this
+ * package) writes to it unchanged, for example through
+ * {@link com.google.gson.Gson#toJson(Object, java.lang.reflect.Type, JsonWriter)}. Indentation and
+ * HTML-safety settings have no effect. Output can only be read back by {@link BinaryJsonReader}.
+ *
+ * <p>Instances are not thread-safe.
+ *
+ * @see GsonCodec#writeBinaryStream(OutputStream, java.util.Collection)
+ */
+public final class BinaryJsonWriter extends JsonWriter {
+
+  /** Passed to the superclass, which never gets to use it. */
+  private static final Writer UNWRITABLE_WRITER = new Writer() {
+    @Override
+    public void write(char[] buffer, int offset, int counter) {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void flush() {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void close() {
+      throw new AssertionError();
+    }
+  };
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count = 0;
+  private long flushedCount = 0;
+  private final Map<String, Integer> names = new HashMap<>();
+
+  /** Whether each open array or object is an object. */
+  private boolean[] objectStack = new boolean[32];
+  private int stackSize = 0;
+  /** Name of the member whose value is about to be written, held back in case it's null. */
+  private String deferredName;
+
+  /**
+   * @param out receives the encoded bytes. It is closed when this writer is closed.
+   */
+  public BinaryJsonWriter(OutputStream out) {
+    super(UNWRITABLE_WRITER);
+    this.out = Preconditions.checkNotNull(out);
+    System.arraycopy(BinaryFormat.MAGIC, 0, buffer, 0, BinaryFormat.MAGIC.length);
+    count = BinaryFormat.MAGIC.length;
+  }
+
+  /**
+   * @return the number of bytes written so far, including any not yet flushed to the stream.
+   */
+  public long bytesWritten() {
+    return flushedCount + count;
+  }
+
+  @Override
+  public JsonWriter beginArray() throws IOException {
+    beforeValue();
+    push(false);
+    writeByte(BinaryFormat.BEGIN_ARRAY);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endArray() throws IOException {
+    pop(false);
+    writeByte(BinaryFormat.END_ARRAY);
+    return this;
+  }
+
+  @Override
+  public JsonWriter beginObject() throws IOException {
+    beforeValue();
+    push(true);
+    writeByte(BinaryFormat.BEGIN_OBJECT);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endObject() throws IOException {
+    if (deferredName != null) {
+      throw new IllegalStateException("Dangling name: " + deferredName);
+    }
+    pop(true);
+    writeByte(BinaryFormat.END_OBJECT);
+    return this;
+  }
+
+  private void push(boolean object) {
+    if (stackSize == objectStack.length) {
+      objectStack = Arrays.copyOf(objectStack, stackSize * 2);
+    }
+    objectStack[stackSize++] = object;
+  }
+
+  private void pop(boolean object) {
+    if (stackSize == 0 || objectStack[stackSize - 1] != object) {
+      throw new IllegalStateException("Nesting problem.");
+    }
+    stackSize--;
+  }
+
+  @Override
+  public JsonWriter name(String name) throws IOException {
+    Preconditions.checkNotNull(name, "name == null");
+    if (deferredName != null || stackSize == 0 || !objectStack[stackSize - 1]) {
+      throw new IllegalStateException();
+    }
+    deferredName = name;
+    return this;
+  }
+
+  /**
+   * Writes the deferred name, if there is one, and checks that a value may be written here.
+   */
+  private void beforeValue() throws IOException {
+    if (deferredName != null) {
+      writeName(deferredName);
+      deferredName = null;
+    } else if (stackSize > 0 && objectStack[stackSize - 1]) {
+      throw new IllegalStateException("Nesting problem.");
+    }
+  }
+
+  private void writeName(String name) throws IOException {
+    Integer id = names.get(name);
+    if (id != null) {
+      writeByte(BinaryFormat.NAME_REF);
+      writeVarint(id);
+    } else if (names.size() < BinaryFormat.MAX_NAMES) {
+      names.put(name, names.size());
+      writeByte(BinaryFormat.NAME);
+      writeUtf8(name);
+    } else {
+      writeByte(BinaryFormat.NAME_LITERAL);
+      writeUtf8(name);
+    }
+  }
+
+  @Override
+  public JsonWriter value(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    writeByte(BinaryFormat.STRING);
+    writeUtf8(value);
+    return this;
+  }
+
+  /**
+   * Writes the given JSON text as the equivalent binary tokens, since the binary encoding can't
+   * hold JSON text as-is.
+   */
+  @Override
+  public JsonWriter jsonValue(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    TypeAdapters.JSON_ELEMENT.write(this, new JsonParser().parse(value));
+    return this;
+  }
+
+  @Override
+  public JsonWriter nullValue() throws IOException {
+    if (deferredName != null) {
+      if (!getSerializeNulls()) {
+        // Skip the name and the value, as JsonWriter does
+        deferredName = null;
+        return this;
+      }
+    }
+    beforeValue();
+    writeByte(BinaryFormat.NULL);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) throws IOException {
+    beforeValue();
+    writeByte(value ? BinaryFormat.TRUE : BinaryFormat.FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Boolean value) throws IOException {
+    return value == null ? nullValue() : value(value.booleanValue());
+  }
+
+  @Override
+  public JsonWriter value(double value) throws IOException {
+    if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    beforeValue();
+    float asFloat = (float) value;
+    if (asFloat == value) {
+      writeByte(BinaryFormat.FLOAT);
+      writeInt(Float.floatToRawIntBits(asFloat));
+    } else {
+      long bits = Double.doubleToRawLongBits(value);
+      writeByte(BinaryFormat.DOUBLE);
+      writeInt((int) (bits >>> 32));
+      writeInt((int) bits);
+    }
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) throws IOException {
+    beforeValue();
+    writeByte(BinaryFormat.INT);
+    writeVarint((value << 1) ^ (value >> 63));
+    return this;
+  }
+
+  /**
+   * Writes integral boxed primitives as {@link #value(long)} and floating point ones as
+   * {@link #value(double)}, reading back as the same doubles their JSON text would; any other
+   * Number is kept as its decimal text, as JsonWriter would write it.
+   */
+  @Override
+  public JsonWriter value(Number value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    if (value instanceof Integer || value instanceof Long || value instanceof Short
+        || value instanceof Byte) {
+      return value(value.longValue());
+    }
+    if (value instanceof Double) {
+      return value(value.doubleValue());
+    }
+    if (value instanceof Float) {
+      // JSON text holds the float's shortest decimal form, which reads back as a different double
+      // than the float's exact value does
+      return value(Double.parseDouble(value.toString()));
+    }
+    String string = value.toString();
+    if (!isLenient()
+        && (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN"))) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    beforeValue();
+    writeByte(BinaryFormat.NUMBER);
+    writeUtf8(string);
+    return this;
+  }
+
+  private void writeByte(int b) throws IOException {
+    if (count == buffer.length) {
+      drain();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  private void writeInt(int value) throws IOException {
+    if (buffer.length - count < 4) {
+      drain();
+    }
+    buffer[count++] = (byte) (value >>> 24);
+    buffer[count++] = (byte) (value >>> 16);
+    buffer[count++] = (byte) (value >>> 8);
+    buffer[count++] = (byte) value;
+  }
+
+  /**
+   * Writes an unsigned LEB128 varint: seven bits per byte, least significant first, with the high
+   * bit set on every byte but the last.
+   */
+  private void writeVarint(long value) throws IOException {
+    if (buffer.length - count < 10) {
+      drain();
+    }
+    while ((value & ~0x7FL) != 0) {
+      buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[count++] = (byte) value;
+  }
+
+  /**
+   * Writes the length of the string's UTF-8 encoding, then the encoding itself. Unpaired
+   * surrogates are written as '?', as the UTF-8 encoder behind JSON text output does.
+   */
+  private void writeUtf8(String value) throws IOException {
+    int length = value.length();
+    int utf8Length = length;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+        if (c < 0x800) {
+          utf8Length += 1;
+        } else if (Character.isHighSurrogate(c) && i + 1 < length
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          utf8Length += 2;
+          i++;
+        } else if (Character.isSurrogate(c)) {
+          // Written as '?'
+        } else {
+          utf8Length += 2;
+        }
+      }
+    }
+    writeVarint(utf8Length);
+    for (int i = 0; i < length; i++) {
+      if (buffer.length - count < 4) {
+        drain();
+      }
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[count++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[count++] = (byte) (0xC0 | (c >> 6));
+        buffer[count++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        buffer[count++] = '?';
+      } else {
+        buffer[count++] = (byte) (0xE0 | (c >> 12));
+        buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[count++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private void drain() throws IOException {
+    out.write(buffer, 0, count);
+    flushedCount += count;
+    count = 0;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+    out.flush();
+  }
+
+  /**
+   * Writes out anything still buffered and closes the underlying stream.
+   *
+   * @throws IOException if the document is incomplete, or if unable to write to the stream.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      drain();
+    } finally {
+      out.close();
+    }
+    if (stackSize > 0 || deferredName != null) {
+      throw new IOException("Incomplete document");
+    }
+  }
+}
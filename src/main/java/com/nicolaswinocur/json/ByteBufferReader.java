@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes UTF-8 straight from a {@link ByteBuffer} (typically a direct or memory-mapped one) into
+ * the caller's char array, without the intermediate byte array and extra copy an
+ * {@link java.io.InputStreamReader} needs. Malformed input is replaced the same way
+ * InputStreamReader replaces it.
+ *
+ * <p>A reader can also move on through a sequence of buffers, which is how {@link #mapping} reads
+ * files larger than a single mapping can cover. Instances are not thread-safe.
+ */
+class ByteBufferReader extends Reader {
+
+  /** Largest region of a file mapped at once. */
+  static final long MAX_REGION_SIZE = 1L << 28;
+
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final char[] pair = new char[2];
+  private ByteBuffer buffer;
+  private boolean flushed = false;
+  private boolean hasLeftoverChar = false;
+  private char leftoverChar;
+
+  /**
+   * @param buffer holds the bytes to decode, from its position to its limit. The reader advances
+   *        its position but never modifies its content.
+   */
+  ByteBufferReader(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * @return a reader over bytes {@code [position, position + size)} of the file, mapping no more
+   *         than {@link #MAX_REGION_SIZE} bytes of it at a time.
+   */
+  static ByteBufferReader mapping(final FileChannel channel, final long position, final long size)
+      throws IOException {
+    final long end = position + size;
+    return new ByteBufferReader(map(channel, position, end)) {
+      private long regionStart = position;
+
+      @Override
+      ByteBuffer nextBuffer(ByteBuffer exhausted) throws IOException {
+        if (regionStart + exhausted.limit() >= end) {
+          return null;
+        }
+        // Remap from the first unconsumed byte, which carries over any partial character
+        regionStart += exhausted.position();
+        return map(channel, regionStart, end);
+      }
+    };
+  }
+
+  private static MappedByteBuffer map(FileChannel channel, long from, long end)
+      throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(MAX_REGION_SIZE, end - from));
+  }
+
+  /**
+   * @param exhausted is the buffer just decoded, which may still hold the first few bytes of a
+   *        character continued in the next one.
+   * @return the buffer to carry on decoding from, including those carried-over bytes; or null if
+   *         there are no more bytes to decode.
+   */
+  ByteBuffer nextBuffer(ByteBuffer exhausted) throws IOException {
+    return null;
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (buffer == null) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (hasLeftoverChar) {
+      cbuf[off] = leftoverChar;
+      hasLeftoverChar = false;
+      return 1;
+    }
+    if (len == 1) {
+      // A supplementary character decodes to two chars, which won't fit in a one-char read
+      int read = read(pair, 0, 2);
+      if (read < 0) {
+        return -1;
+      }
+      if (read == 2) {
+        leftoverChar = pair[1];
+        hasLeftoverChar = true;
+      }
+      cbuf[off] = pair[0];
+      return 1;
+    }
+
+    CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+    while (!flushed) {
+      decoder.decode(buffer, out, false);
+      if (out.position() != off) {
+        return out.position() - off;
+      }
+      // Nothing decoded, so whatever bytes remain are at most the start of one character
+      ByteBuffer next = nextBuffer(buffer);
+      if (next != null) {
+        buffer = next;
+        continue;
+      }
+      if (!decoder.decode(buffer, out, true).isOverflow()) {
+        decoder.flush(out);
+        flushed = true;
+      }
+      if (out.position() != off) {
+        return out.position() - off;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void close() {
+    buffer = null;
+  }
+}
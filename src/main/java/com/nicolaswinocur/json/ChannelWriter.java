@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffers chars, encodes them as UTF-8 straight into a single reused direct {@link ByteBuffer}, and
+ * hands that buffer to a channel whenever it fills. This replaces the
+ * {@link java.io.BufferedWriter}, {@link java.io.OutputStreamWriter} and stream layers (and the
+ * heap-to-native copy a channel makes of a heap buffer) with one char buffer and one byte buffer.
+ * Unencodable chars are replaced the same way OutputStreamWriter replaces them.
+ *
+ * <p>Closing the writer flushes it but leaves the channel open. Instances are not thread-safe.
+ */
+final class ChannelWriter extends Writer {
+
+  private final WritableByteChannel channel;
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final char[] chars;
+  private final CharBuffer charBuffer;
+  private final ByteBuffer bytes;
+  private int charCount = 0;
+  private long bytesWritten = 0;
+  private boolean closed = false;
+
+  /**
+   * @param channel receives the encoded bytes.
+   * @param bufferSize is the size of both the char buffer, in chars, and the direct byte buffer, in
+   *        bytes.
+   */
+  ChannelWriter(WritableByteChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.chars = new char[bufferSize];
+    this.charBuffer = CharBuffer.wrap(chars);
+    this.bytes = ByteBuffer.allocateDirect(bufferSize);
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    if (charCount == chars.length) {
+      encodeChars(false);
+    }
+    chars[charCount++] = (char) c;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    while (len > 0) {
+      if (charCount == chars.length) {
+        encodeChars(false);
+      }
+      int n = Math.min(len, chars.length - charCount);
+      System.arraycopy(cbuf, off, chars, charCount, n);
+      charCount += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    while (len > 0) {
+      if (charCount == chars.length) {
+        encodeChars(false);
+      }
+      int n = Math.min(len, chars.length - charCount);
+      str.getChars(off, off + n, chars, charCount);
+      charCount += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Encodes every buffered char except, unless this is the end of input, a trailing high surrogate
+   * whose low surrogate hasn't been written yet.
+   */
+  private void encodeChars(boolean endOfInput) throws IOException {
+    // Casts keep these calls to Buffer's own methods, which also exist on Java 8
+    ((Buffer) charBuffer).limit(charCount).position(0);
+    while (encoder.encode(charBuffer, bytes, endOfInput).isOverflow()) {
+      drainBytes();
+    }
+    int leftover = charBuffer.remaining();
+    System.arraycopy(chars, charBuffer.position(), chars, 0, leftover);
+    charCount = leftover;
+  }
+
+  private void drainBytes() throws IOException {
+    ((Buffer) bytes).flip();
+    bytesWritten += bytes.remaining();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    ((Buffer) bytes).clear();
+  }
+
+  /**
+   * @return the number of bytes handed to the channel so far.
+   */
+  long bytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Writes everything buffered so far to the channel.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (closed) {
+      return;
+    }
+    encodeChars(false);
+    drainBytes();
+  }
+
+  /**
+   * Writes everything buffered so far to the channel, without closing the channel.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    encodeChars(true);
+    while (encoder.flush(bytes).isOverflow()) {
+      drainBytes();
+    }
+    drainBytes();
+    closed = true;
+  }
+}
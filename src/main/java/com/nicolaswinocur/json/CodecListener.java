@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Receives measurements of what a {@link GsonCodec} reads and writes, for feeding into a metrics
+ * system. Every method does nothing by default, so implementations only override what they need.
+ *
+ * <p>A codec is shared between threads, and its parallel paths bind and serialize elements on
+ * worker threads, so implementations must be thread-safe. They should also be cheap: every method
+ * is called synchronously from the thread doing the work.
+ *
+ * <p>A codec built with the default listener, {@link #NONE}, skips every measurement, including
+ * reading the clock, so it costs nothing.
+ *
+ * @see GsonCodec.Builder#setListener(CodecListener)
+ */
+public interface CodecListener {
+
+  /** The default listener, which ignores everything. */
+  CodecListener NONE = new CodecListener() {};
+
+  /**
+   * Called after each top-level element has been deserialized.
+   *
+   * @param type is the type the element was read as.
+   * @param nanos is the time spent reading and binding it.
+   */
+  default void elementRead(Class<?> type, long nanos) {}
+
+  /**
+   * Called after each top-level element has been serialized.
+   *
+   * @param type is the element's runtime class, or null for a null element.
+   * @param nanos is the time spent serializing and writing it.
+   */
+  default void elementWritten(Class<?> type, long nanos) {}
+
+  /**
+   * Called once a read has consumed all of its input, or has been closed.
+   *
+   * @param elements is the number of top-level elements read, including any which a
+   *        {@link ReadProjection} rejected rather than binding.
+   * @param bytes is the number of bytes of input consumed.
+   */
+  default void readFinished(long elements, long bytes) {}
+
+  /**
+   * Called once a write has finished, when its output is closed.
+   *
+   * @param elements is the number of top-level elements written.
+   * @param bytes is the number of bytes of output produced.
+   */
+  default void writeFinished(long elements, long bytes) {}
+
+  /**
+   * Called when a top-level element can't be read, before the problem is thrown (or, for
+   * {@link GsonCodec#readJsonFrom(java.io.InputStream, Class)}, logged).
+   *
+   * @param index is the position of the element within the array, or within the lines read so far
+   *        for a newline-delimited file.
+   * @param cause is the problem.
+   */
+  default void readFailed(long index, Exception cause) {}
+
+  /**
+   * Called when a top-level element can't be written, before the problem is thrown.
+   *
+   * @param index is the position of the element within the array, or within the lines written so
+   *        far for a newline-delimited file.
+   * @param cause is the problem.
+   */
+  default void writeFailed(long index, Exception cause) {}
+
+  /**
+   * Called each time one of the codec's TypeAdapterFactories creates an adapter. Gson caches
+   * adapters, so this normally happens once per type.
+   *
+   * @param factory is the factory, as registered with the codec.
+   * @param type is the type the adapter was created for.
+   */
+  default void adapterCreated(TypeAdapterFactory factory, TypeToken<?> type) {}
+
+  /**
+   * Called after an adapter created by one of the codec's TypeAdapterFactories reads a value.
+   * Times are inclusive: an adapter for a collection of collections reports time also reported by
+   * the adapters of the inner collections.
+   *
+   * @param factory is the factory, as registered with the codec.
+   * @param type is the type the adapter was created for.
+   * @param nanos is the time spent reading the value.
+   */
+  default void adapterRead(TypeAdapterFactory factory, TypeToken<?> type, long nanos) {}
+
+  /**
+   * Called after an adapter created by one of the codec's TypeAdapterFactories writes a value.
+   * Times are inclusive, as for {@link #adapterRead}.
+   *
+   * @param factory is the factory, as registered with the codec.
+   * @param type is the type the adapter was created for.
+   * @param nanos is the time spent writing the value.
+   */
+  default void adapterWritten(TypeAdapterFactory factory, TypeToken<?> type, long nanos) {}
+
+  /**
+   * Called each time a codec built with
+   * {@link GsonCodec.Builder#setDeduplicationCacheSize(int)} replaces a value it just read with an
+   * equal one it read earlier, so that the two share an instance.
+   *
+   * @param type is the class of the value.
+   * @param bytesSaved is a rough estimate of the heap no longer retained by the duplicate.
+   */
+  default void valueDeduplicated(Class<?> type, long bytesSaved) {}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.primitives.ImmutableDoubleArray;
+import com.google.common.primitives.ImmutableIntArray;
+import com.google.common.primitives.ImmutableLongArray;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Wraps the adapters other factories create for strings and small immutable collections, so that
+ * equal values read during the same read share a single instance rather than each being kept on
+ * the heap. That includes map keys, which are read with the String adapter too.
+ *
+ * <p>Values are only deduplicated while a {@link GsonCodec} read is binding an element, within
+ * that read's {@link Deduplicator} (see {@link OperationMetrics#beginBinding()}); using the
+ * codec's Gson directly reads them as usual. Writing is unaffected.
+ *
+ * <p>Must be registered ahead of every other factory, and without an
+ * {@link InstrumentedTypeAdapterFactory} around it, since it finds the adapter it wraps through
+ * {@link Gson#getDelegateAdapter}.
+ */
+final class DeduplicatingTypeAdapterFactory implements TypeAdapterFactory {
+
+  private static final ImmutableSet<Class<?>> DEDUPLICATED_TYPES =
+      ImmutableSet.of(String.class, ImmutableList.class, ImmutableSet.class,
+          ImmutableSortedSet.class, ImmutableMap.class, ImmutableSortedMap.class,
+          ImmutableIntArray.class, ImmutableLongArray.class, ImmutableDoubleArray.class);
+
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    if (!DEDUPLICATED_TYPES.contains(typeToken.getRawType())) {
+      return null;
+    }
+    final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, typeToken);
+    return new TypeAdapter<T>() {
+      @Override
+      public void write(JsonWriter out, T value) throws IOException {
+        delegate.write(out, value);
+      }
+
+      @Override
+      public T read(JsonReader in) throws IOException {
+        T value = delegate.read(in);
+        Deduplicator deduplicator = OperationMetrics.currentDeduplicator();
+        return deduplicator == null ? value : deduplicator.canonicalize(value);
+      }
+    };
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Canonicalizes the values read during a single read: the first of several equal values is
+ * remembered, and every later one is replaced by it, so that they all share one instance. Holds at
+ * most a fixed number of values, forgetting the least recently used one first.
+ *
+ * <p>Two collections are only considered equal here if they're of the same class and hold equal
+ * elements in the same order, recursively, since substituting a set which iterates in a different
+ * order (as {@link Object#equals} allows) would change the order values are written in later.
+ *
+ * <p>Instances are not thread-safe, like the {@link OperationMetrics} which owns each one.
+ */
+final class Deduplicator {
+
+  /** Longest string which is canonicalized. Longer ones are rarely repeated. */
+  static final int MAX_STRING_LENGTH = 256;
+  /** Largest collection which is canonicalized. Larger ones are rarely repeated. */
+  static final int MAX_COLLECTION_SIZE = 32;
+
+  private final CodecListener listener;
+  private final Map<Key, Object> canonical;
+
+  /**
+   * @param listener is told about every value replaced by an equal one.
+   * @param maxEntries is the most values to remember at once.
+   */
+  Deduplicator(CodecListener listener, final int maxEntries) {
+    this.listener = listener;
+    this.canonical = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @return the first equal value seen, or {@code value} itself if it's the first.
+   */
+  @SuppressWarnings("unchecked")
+  <T> T canonicalize(T value) {
+    if (!isCandidate(value)) {
+      return value;
+    }
+    Key key = new Key(value);
+    Object existing = canonical.get(key);
+    if (existing == null) {
+      canonical.put(key, value);
+      return value;
+    }
+    listener.valueDeduplicated(value.getClass(), estimatedSize(value));
+    return (T) existing;
+  }
+
+  private static boolean isCandidate(Object value) {
+    if (value instanceof String) {
+      return ((String) value).length() <= MAX_STRING_LENGTH;
+    }
+    if (value instanceof Collection) {
+      int size = ((Collection<?>) value).size();
+      return size > 0 && size <= MAX_COLLECTION_SIZE;
+    }
+    if (value instanceof Map) {
+      int size = ((Map<?, ?>) value).size();
+      return size > 0 && size <= MAX_COLLECTION_SIZE;
+    }
+    return value != null;
+  }
+
+  /**
+   * @return a rough estimate, assuming compressed object pointers, of the bytes no longer retained
+   *         once a duplicate of {@code value} is dropped: the value itself and its internal arrays,
+   *         but not its elements, which are either shared already or canonicalized separately.
+   */
+  static long estimatedSize(Object value) {
+    if (value instanceof String) {
+      // The String object, then its char array
+      return 24 + align(16 + 2L * ((String) value).length());
+    }
+    if (value instanceof Collection) {
+      // The collection object, its elements array and (for sets) its hash table
+      return 32 + 2 * align(16 + 4L * ((Collection<?>) value).size());
+    }
+    if (value instanceof Map) {
+      // The map object, its entries and its hash table
+      return 32 + 24L * ((Map<?, ?>) value).size()
+          + 2 * align(16 + 4L * ((Map<?, ?>) value).size());
+    }
+    return 16;
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  /**
+   * @return whether {@code a} and {@code b} are equal, and would also iterate in the same order
+   *         and sort the same way if they're collections.
+   */
+  static boolean sameContents(Object a, Object b) {
+    if (a == b) {
+      return true;
+    }
+    if (a == null || b == null || a.getClass() != b.getClass()) {
+      return false;
+    }
+    if (a instanceof Map) {
+      Map<?, ?> mapA = (Map<?, ?>) a;
+      Map<?, ?> mapB = (Map<?, ?>) b;
+      if (mapA.size() != mapB.size() || (a instanceof SortedMap && !Objects
+          .equals(((SortedMap<?, ?>) a).comparator(), ((SortedMap<?, ?>) b).comparator()))) {
+        return false;
+      }
+      Iterator<? extends Map.Entry<?, ?>> entriesB = mapB.entrySet().iterator();
+      for (Map.Entry<?, ?> entryA : mapA.entrySet()) {
+        Map.Entry<?, ?> entryB = entriesB.next();
+        if (!sameContents(entryA.getKey(), entryB.getKey())
+            || !sameContents(entryA.getValue(), entryB.getValue())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (a instanceof Collection) {
+      Collection<?> collectionA = (Collection<?>) a;
+      Collection<?> collectionB = (Collection<?>) b;
+      if (collectionA.size() != collectionB.size() || (a instanceof SortedSet && !Objects
+          .equals(((SortedSet<?>) a).comparator(), ((SortedSet<?>) b).comparator()))) {
+        return false;
+      }
+      Iterator<?> elementsB = collectionB.iterator();
+      for (Object elementA : collectionA) {
+        if (!sameContents(elementA, elementsB.next())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return a.equals(b);
+  }
+
+  /**
+   * Wraps a value so that it's looked up by {@link #sameContents} rather than by equals.
+   */
+  private static final class Key {
+    private final Object value;
+    private final int hash;
+
+    Key(Object value) {
+      this.value = value;
+      // Consistent with sameContents, which implies equals
+      this.hash = value.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key && sameContents(value, ((Key) obj).value);
+    }
+  }
+}
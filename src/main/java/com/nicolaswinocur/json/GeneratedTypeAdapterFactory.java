@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Picks up the TypeAdapters generated at compile time for {@link GsonSerializable} classes by the
+ * gson-utils annotation processor ({@code com.nicolaswinocur.json.processor}), so those classes
+ * are bound without reflection. The adapter for {@code com.example.Outer.Value} is looked up as
+ * {@code com.example.Outer_Value_GsonTypeAdapter}; classes without one are left to Gson's
+ * reflective adapter, as before.
+ *
+ * <p>Generated adapters are found once per class and shared by every Gson object, so the only
+ * reflection left is creating each adapter.
+ */
+public final class GeneratedTypeAdapterFactory implements TypeAdapterFactory {
+
+  /** Appended to a class's binary name, with '$' replaced by '_', to name its adapter. */
+  static final String SUFFIX = "_GsonTypeAdapter";
+
+  /** Constructor of each class's generated adapter, or null if it doesn't have one. */
+  private static final ClassValue<Constructor<?>> adapterConstructors =
+      new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type) {
+          if (!GsonSerializable.class.isAssignableFrom(type)) {
+            return null;
+          }
+          try {
+            Class<?> adapterClass = Class.forName(type.getName().replace('$', '_') + SUFFIX, true,
+                type.getClassLoader());
+            return TypeAdapter.class.isAssignableFrom(adapterClass)
+                ? adapterClass.getConstructor(Gson.class)
+                : null;
+          } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+          }
+        }
+      };
+
+  GeneratedTypeAdapterFactory() {}
+
+  @SuppressWarnings("unchecked")
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    // Generated adapters only exist for non-generic classes
+    if (!(typeToken.getType() instanceof Class)) {
+      return null;
+    }
+    Constructor<?> constructor = adapterConstructors.get(typeToken.getRawType());
+    if (constructor == null) {
+      return null;
+    }
+    try {
+      return (TypeAdapter<T>) constructor.newInstance(gson);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new JsonIOException("Unable to create " + constructor.getDeclaringClass(), e);
+    } catch (ReflectiveOperationException e) {
+      throw new JsonIOException("Unable to create " + constructor.getDeclaringClass(), e);
+    }
+  }
+
+  /**
+   * Used by generated adapters to get the adapter for each field, which is the one Gson's
+   * reflective adapter would use: it picks a more specific adapter from each value's runtime type
+   * where there is one.
+   *
+   * @param gson is the Gson object the generated adapter was created for.
+   * @param fieldType is the declared type of the field.
+   * @return the adapter to read and write the field's values with.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> TypeAdapter<T> fieldAdapter(Gson gson, TypeToken<T> fieldType) {
+    return (TypeAdapter<T>) JsonMaps.valueAdapter(gson, fieldType.getType());
+  }
+}
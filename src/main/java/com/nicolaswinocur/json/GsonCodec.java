@@ -0,0 +1,1209 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A reusable, immutable, thread-safe combination of a {@link Gson} instance (already registered
+ * with every TypeAdapterFactory known to {@link GsonUtils}) and the stream settings used when
+ * writing with it.
+ *
+ * <p>Gson caches every TypeAdapter it creates, so building a codec once and sharing it between
+ * threads means each TypeAdapterFactory lookup only happens the first time a given type is seen.
+ * The static methods of {@link GsonUtils} delegate to {@link #getDefault()}.
+ */
+public final class GsonCodec {
+
+  private static final Logger logger = LoggerFactory.getLogger(GsonCodec.class);
+
+  /** Indentation used by {@link GsonUtils#writeJsonStream} before codecs existed. */
+  static final String DEFAULT_INDENT = "  ";
+
+  /** Size in chars of the buffer placed in front of each output stream's encoder. */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Gson gson;
+  private final String indent;
+  private final CodecListener listener;
+  private final int deduplicationCacheSize;
+
+  private GsonCodec(Gson gson, String indent, CodecListener listener,
+      int deduplicationCacheSize) {
+    this.gson = gson;
+    this.indent = indent;
+    this.listener = listener;
+    this.deduplicationCacheSize = deduplicationCacheSize;
+  }
+
+  /**
+   * Lazily-initialized holder, so that simply loading this class doesn't build a Gson object.
+   */
+  private static final class DefaultHolder {
+    static final GsonCodec INSTANCE = builder().build();
+  }
+
+  /**
+   * @return the shared codec with default settings: two-space indentation, nulls omitted, no
+   *         TypeAdapterFactories beyond those known to {@link GsonUtils}, and no listener.
+   */
+  public static GsonCodec getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  /**
+   * @return a new builder for a codec with non-default settings.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the Gson object backing this codec. Like the codec itself it is immutable and may be
+   *         shared between threads.
+   */
+  public Gson gson() {
+    return gson;
+  }
+
+  /**
+   * @return the indentation this codec writes with, or an empty string if it writes compact
+   *         output.
+   */
+  public String indent() {
+    return indent;
+  }
+
+  /**
+   * @return the listener this codec reports measurements to, which is {@link CodecListener#NONE}
+   *         unless another was set.
+   */
+  public CodecListener listener() {
+    return listener;
+  }
+
+  /**
+   * @return the metrics of a new read, which also deduplicates the values it reads if this codec
+   *         does.
+   */
+  private OperationMetrics readMetrics() {
+    return new OperationMetrics(listener, 0, deduplicationCacheSize);
+  }
+
+  /**
+   * @return a shared codec like {@link #getDefault()}, except that it writes compact output with no
+   *         indentation or line breaks.
+   */
+  public static GsonCodec getCompact() {
+    return CompactHolder.INSTANCE;
+  }
+
+  private static final class CompactHolder {
+    static final GsonCodec INSTANCE = builder().compact().build();
+  }
+
+  /**
+   * @param out is the output stream to which this codec will send serialized data.
+   * @param messages is the collection of Objects to write to that output stream.
+   * @throws IOException if unable to write to the stream.
+   * @see GsonUtils#writeJsonStream(OutputStream, Collection)
+   */
+  public void writeJsonStream(OutputStream out, Collection<? extends Object> messages)
+      throws IOException {
+    Preconditions.checkNotNull(messages);
+    writeJsonStream(out, messages.iterator());
+  }
+
+  /**
+   * Writes elements as the iterator produces them, so they never need to be held in memory all at
+   * once.
+   *
+   * @param out is the output stream to which this codec will send serialized data. It is closed
+   *        once the array has been written.
+   * @param messages produces the Objects to write to that output stream, in order.
+   * @throws IOException if unable to write to the stream.
+   */
+  public void writeJsonStream(OutputStream out, Iterator<? extends Object> messages)
+      throws IOException {
+    Preconditions.checkNotNull(out);
+    Preconditions.checkNotNull(messages);
+    try (JsonArrayWriter writer = openJsonWriter(out)) {
+      while (messages.hasNext()) {
+        writer.write(messages.next());
+      }
+    }
+  }
+
+  /**
+   * @param out is the output stream to which this codec will send serialized data. It is closed
+   *        once the array has been written.
+   * @param messages produces the Objects to write to that output stream. It is consumed in
+   *        encounter order, but is not closed.
+   * @throws IOException if unable to write to the stream.
+   * @see #writeJsonStream(OutputStream, Iterator)
+   */
+  public void writeJsonStream(OutputStream out, Stream<? extends Object> messages)
+      throws IOException {
+    Preconditions.checkNotNull(messages);
+    writeJsonStream(out, messages.iterator());
+  }
+
+  /**
+   * Serializes batches of elements on several threads at once, then writes them to the stream in
+   * their original order. The bytes written are exactly those
+   * {@link #writeJsonStream(OutputStream, Iterator)} would write.
+   *
+   * @param out is the output stream to which this codec will send serialized data. It is closed
+   *        once the array has been written.
+   * @param messages produces the Objects to write to that output stream, in order. It is only ever
+   *        consumed from the calling thread.
+   * @param options chooses the executor, the number of workers and the number of elements each
+   *        worker serializes at a time.
+   * @throws IOException if unable to write to the stream.
+   */
+  public void writeJsonStreamParallel(OutputStream out, Iterator<? extends Object> messages,
+      ParallelOptions options) throws IOException {
+    Preconditions.checkNotNull(out);
+    Preconditions.checkNotNull(messages);
+    Preconditions.checkNotNull(options);
+    ParallelJsonWriter.write(this, out, messages, options);
+  }
+
+  /**
+   * @param out is the output stream to which this codec will send serialized data. It is closed
+   *        once the array has been written.
+   * @param messages is the collection of Objects to write to that output stream.
+   * @param options chooses the executor, the number of workers and the number of elements each
+   *        worker serializes at a time.
+   * @throws IOException if unable to write to the stream.
+   * @see #writeJsonStreamParallel(OutputStream, Iterator, ParallelOptions)
+   */
+  public void writeJsonStreamParallel(OutputStream out, Collection<? extends Object> messages,
+      ParallelOptions options) throws IOException {
+    Preconditions.checkNotNull(messages);
+    writeJsonStreamParallel(out, messages.iterator(), options);
+  }
+
+  /**
+   * Writes a gzip-compressed top-level JSON array, serializing and compressing on several threads
+   * at once. The output is a standard gzip file, which decompresses to exactly the bytes
+   * {@link #writeJsonStream(OutputStream, Iterator)} would write.
+   *
+   * @param out is the output stream to which this codec will send compressed data. It is closed
+   *        once the array has been written.
+   * @param messages produces the Objects to write to that output stream, in order. It is only ever
+   *        consumed from the calling thread.
+   * @param options chooses the executor, the number of workers and the number of elements each
+   *        worker serializes at a time.
+   * @throws IOException if unable to write to the stream.
+   * @see ParallelGzipOutputStream
+   * @see #readGzipJsonFrom(InputStream, Class, ParallelOptions)
+   */
+  public void writeGzipJsonStream(OutputStream out, Iterator<? extends Object> messages,
+      ParallelOptions options) throws IOException {
+    Preconditions.checkNotNull(out);
+    writeJsonStreamParallel(new ParallelGzipOutputStream(out, options), messages, options);
+  }
+
+  /**
+   * @param out is the output stream to which this codec will send compressed data. It is closed
+   *        once the array has been written.
+   * @param messages is the collection of Objects to write to that output stream.
+   * @param options chooses the executor, the number of workers and the number of elements each
+   *        worker serializes at a time.
+   * @throws IOException if unable to write to the stream.
+   * @see #writeGzipJsonStream(OutputStream, Iterator, ParallelOptions)
+   */
+  public void writeGzipJsonStream(OutputStream out, Collection<? extends Object> messages,
+      ParallelOptions options) throws IOException {
+    Preconditions.checkNotNull(messages);
+    writeGzipJsonStream(out, messages.iterator(), options);
+  }
+
+  /**
+   * Opens a push-style sink for callers which produce elements one at a time (for example from
+   * callbacks) rather than through an Iterator.
+   *
+   * @param out is the output stream to which this codec will send serialized data. It is closed
+   *        when the returned writer is closed.
+   * @return a writer which has already opened the top-level array.
+   * @throws IOException if unable to write to the stream.
+   */
+  public JsonArrayWriter openJsonWriter(OutputStream out) throws IOException {
+    Preconditions.checkNotNull(out);
+    OperationMetrics metrics = new OperationMetrics(listener);
+    if (!metrics.enabled()) {
+      return new JsonArrayWriter(gson, newJsonWriter(bufferedWriter(out)), metrics, null);
+    }
+    CountingOutputStream counting = new CountingOutputStream(out);
+    return new JsonArrayWriter(gson, newJsonWriter(bufferedWriter(counting)), metrics,
+        counting::getCount);
+  }
+
+  private static Writer bufferedWriter(OutputStream out) {
+    return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+  }
+
+  /**
+   * Writes to a file without the stream layers {@link #writeJsonStream(OutputStream, Collection)}
+   * goes through: chars are encoded as UTF-8 straight into a reused direct buffer, which is handed
+   * to the file's channel whenever it fills.
+   *
+   * @param path is the file to write, which is created or truncated first.
+   * @param messages is the collection of Objects to write to that file.
+   * @throws IOException if unable to write to the file.
+   */
+  public void writeJsonStream(Path path, Collection<? extends Object> messages)
+      throws IOException {
+    Preconditions.checkNotNull(path);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeJsonStream(channel, messages);
+    }
+  }
+
+  /**
+   * Writes to a file as {@link #writeJsonStream(Path, Collection)} does, and also saves the byte
+   * offsets of every element to a sidecar file, so that {@link #openIndexed(Path, Class)} can read
+   * any element directly. The offsets are found by scanning the bytes as they're written, so the
+   * data file is exactly what writing it without an index would produce.
+   *
+   * @param path is the file to write, which is created or truncated first. The index is written to
+   *        {@link JsonArrayIndex#sidecarFor(Path)}.
+   * @param messages is the collection of Objects to write to that file.
+   * @return the index which was saved.
+   * @throws IOException if unable to write either file.
+   */
+  public JsonArrayIndex writeIndexedJsonStream(Path path, Collection<? extends Object> messages)
+      throws IOException {
+    Preconditions.checkNotNull(path);
+    JsonArrayIndex.Builder index = new JsonArrayIndex.Builder();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeJsonStream(index.scanning(channel), messages);
+    }
+    JsonArrayIndex toReturn = index.build(JsonArrayIndex.lastModified(path));
+    toReturn.writeTo(JsonArrayIndex.sidecarFor(path));
+    return toReturn;
+  }
+
+  /**
+   * @param channel receives the serialized data from its current position onwards. It is left open,
+   *        positioned just past the end of the array.
+   * @param messages is the collection of Objects to write to that channel.
+   * @throws IOException if unable to write to the channel.
+   * @see #writeJsonStream(Path, Collection)
+   */
+  public void writeJsonStream(WritableByteChannel channel, Collection<? extends Object> messages)
+      throws IOException {
+    Preconditions.checkNotNull(messages);
+    try (JsonArrayWriter writer = openJsonWriter(channel)) {
+      for (Object message : messages) {
+        writer.write(message);
+      }
+    }
+  }
+
+  /**
+   * @param channel receives the serialized data from its current position onwards. It is left open
+   *        when the returned writer is closed.
+   * @return a push-style sink which encodes straight into a reused direct buffer.
+   * @throws IOException if unable to write to the channel.
+   * @see #openJsonWriter(OutputStream)
+   */
+  public JsonArrayWriter openJsonWriter(WritableByteChannel channel) throws IOException {
+    Preconditions.checkNotNull(channel);
+    ChannelWriter writer = new ChannelWriter(channel, BUFFER_SIZE);
+    return new JsonArrayWriter(gson, newJsonWriter(writer), new OperationMetrics(listener),
+        writer::bytesWritten);
+  }
+
+  /**
+   * Opens a push-style sink which writes each element as one line of newline-delimited JSON
+   * (NDJSON) rather than as part of an array. This codec's indentation is not used, since each
+   * element has to fit on one line.
+   *
+   * @param out is the output stream to which this codec will send serialized data. It is closed
+   *        when the returned writer is closed.
+   * @return a writer for NDJSON lines.
+   */
+  public NdjsonWriter openNdjsonWriter(OutputStream out) {
+    Preconditions.checkNotNull(out);
+    OperationMetrics metrics = new OperationMetrics(listener);
+    if (!metrics.enabled()) {
+      return new NdjsonWriter(gson, bufferedWriter(out), metrics, null);
+    }
+    CountingOutputStream counting = new CountingOutputStream(out);
+    return new NdjsonWriter(gson, bufferedWriter(counting), metrics, counting::getCount);
+  }
+
+  /**
+   * @param path is the file to write, which is created or truncated first.
+   * @param messages is the collection of Objects to write to that file, one per line. None of them
+   *        can be null.
+   * @throws IOException if unable to write to the file.
+   * @see #openNdjsonWriter(OutputStream)
+   */
+  public void writeNdjsonStream(Path path, Collection<? extends Object> messages)
+      throws IOException {
+    Preconditions.checkNotNull(messages);
+    try (NdjsonWriter writer = openNdjsonWriter(Files.newOutputStream(path))) {
+      for (Object message : messages) {
+        writer.write(message);
+      }
+    }
+  }
+
+  /**
+   * Opens an NDJSON file for adding lines to its end, without reading or rewriting the lines
+   * already there. If the file's last line was left without its '\n' (for example by a writer
+   * which crashed), one is added first so that the new lines don't run into it. Only one writer
+   * should append to a file at a time.
+   *
+   * @param path is the file to append to, which is created if it doesn't exist.
+   * @return a writer for NDJSON lines, which closes the file when closed.
+   * @throws IOException if unable to open the file.
+   */
+  public NdjsonWriter appendNdjson(Path path) throws IOException {
+    Preconditions.checkNotNull(path);
+    boolean missingNewline = false;
+    if (Files.exists(path)) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (size > 0) {
+          ByteBuffer last = ByteBuffer.allocate(1);
+          channel.read(last, size - 1);
+          missingNewline = last.get(0) != '\n';
+        }
+      }
+    }
+    OutputStream out =
+        Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    if (missingNewline) {
+      out.write('\n');
+    }
+    return openNdjsonWriter(out);
+  }
+
+  /**
+   * @param path is the file to append to, which is created if it doesn't exist.
+   * @param messages is the collection of Objects to add to the end of that file, one per line.
+   * @throws IOException if unable to write to the file.
+   * @see #appendNdjson(Path)
+   */
+  public void appendNdjson(Path path, Collection<? extends Object> messages) throws IOException {
+    Preconditions.checkNotNull(messages);
+    try (NdjsonWriter writer = appendNdjson(path)) {
+      for (Object message : messages) {
+        writer.write(message);
+      }
+    }
+  }
+
+  /**
+   * Writes a top-level array like {@link #writeJsonStream(OutputStream, Collection)} does, but in
+   * the compact binary encoding of {@link BinaryJsonWriter} instead of JSON text. Elements go
+   * through the same TypeAdapters either way; the codec's indentation is ignored.
+   *
+   * @param out is the output stream to which this codec will send serialized data. It is closed
+   *        once the array has been written.
+   * @param messages is the collection of Objects to write to that output stream.
+   * @throws IOException if unable to write to the stream.
+   * @see #readBinaryFrom(InputStream, Class)
+   */
+  public void writeBinaryStream(OutputStream out, Collection<? extends Object> messages)
+      throws IOException {
+    Preconditions.checkNotNull(messages);
+    writeBinaryStream(out, messages.iterator());
+  }
+
+  /**
+   * @param out is the output stream to which this codec will send serialized data. It is closed
+   *        once the array has been written.
+   * @param messages produces the Objects to write to that output stream, in order.
+   * @throws IOException if unable to write to the stream.
+   * @see #writeBinaryStream(OutputStream, Collection)
+   */
+  public void writeBinaryStream(OutputStream out, Iterator<? extends Object> messages)
+      throws IOException {
+    Preconditions.checkNotNull(messages);
+    try (JsonArrayWriter writer = openBinaryWriter(out)) {
+      while (messages.hasNext()) {
+        writer.write(messages.next());
+      }
+    }
+  }
+
+  /**
+   * @param out is the output stream to which this codec will send serialized data. It is closed
+   *        when the returned writer is closed.
+   * @return a push-style sink which writes the binary encoding, and has already opened the
+   *         top-level array.
+   * @throws IOException if unable to write to the stream.
+   * @see #writeBinaryStream(OutputStream, Collection)
+   */
+  public JsonArrayWriter openBinaryWriter(OutputStream out) throws IOException {
+    BinaryJsonWriter writer = new BinaryJsonWriter(out);
+    return new JsonArrayWriter(gson, writer, new OperationMetrics(listener),
+        writer::bytesWritten);
+  }
+
+  /**
+   * @param writer is the character stream the returned JsonWriter should write to.
+   * @return a JsonWriter configured with this codec's stream settings.
+   */
+  JsonWriter newJsonWriter(Writer writer) {
+    JsonWriter jsonWriter = new JsonWriter(writer);
+    jsonWriter.setIndent(indent);
+    return jsonWriter;
+  }
+
+  /**
+   * @param in is the intputStream accepting the data being deserialized
+   * @param type gives the reader a hint as to what data type is being read.
+   * @return gives an ImmutableList into which the now-deserialized data has been collected.
+   * @throws UnsupportedEncodingException if attempting to use UTF-8 to deserialize the data
+   *         encounters an issue.
+   * @see GsonUtils#readJsonFrom(InputStream, Class)
+   */
+  public <E extends GsonSerializable> ImmutableCollection<E> readJsonFrom(InputStream in,
+      Class<E> type) throws UnsupportedEncodingException {
+    Preconditions.checkNotNull(in);
+    Preconditions.checkNotNull(type);
+    ImmutableList.Builder<E> toReturn = ImmutableList.builder();
+    OperationMetrics metrics = readMetrics();
+    CountingInputStream counting = metrics.enabled() ? new CountingInputStream(in) : null;
+    JsonReader reader =
+        new JsonReader(new InputStreamReader(counting != null ? counting : in, "UTF-8"));
+    metrics.beginBinding();
+    try {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        long start = metrics.start();
+        E latest = gson.fromJson(reader, type);
+        metrics.elementRead(type, start);
+        toReturn.add(latest);
+      }
+    } catch (IOException e) {
+      // The index of the element which couldn't be read narrows down where a corrupt input is bad
+      metrics.readFailed(e);
+      logger.error("Failed to read element " + metrics.nextIndex(), e);
+    } catch (RuntimeException e) {
+      metrics.readFailed(e);
+      throw e;
+    } finally {
+      metrics.endBinding();
+    }
+    if (counting != null) {
+      metrics.readFinished(counting.getCount());
+    }
+    return toReturn.build();
+  }
+
+  /**
+   * Reads a file by memory-mapping it and decoding UTF-8 straight from the mapped bytes, without
+   * the stream layers {@link #readJsonFrom(InputStream, Class)} goes through. Unlike that method,
+   * problems are thrown to the caller rather than logged.
+   *
+   * @param path is the file holding the serialized array.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an ImmutableList of every element, in order.
+   * @throws IOException if unable to read the file.
+   */
+  public <E extends GsonSerializable> ImmutableList<E> readJsonFrom(Path path, Class<E> type)
+      throws IOException {
+    Preconditions.checkNotNull(path);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return readJsonFrom(channel, type);
+    }
+  }
+
+  /**
+   * @param channel holds the serialized array, from its current position to its end. Neither its
+   *        position nor whether it's open is changed.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an ImmutableList of every element, in order.
+   * @throws IOException if unable to read the file.
+   * @see #readJsonFrom(Path, Class)
+   */
+  public <E extends GsonSerializable> ImmutableList<E> readJsonFrom(FileChannel channel,
+      Class<E> type) throws IOException {
+    Preconditions.checkNotNull(channel);
+    Preconditions.checkNotNull(type);
+    long position = channel.position();
+    long size = channel.size() - position;
+    OperationMetrics metrics = readMetrics();
+    metrics.beginBinding();
+    try (JsonReader reader =
+        new JsonReader(ByteBufferReader.mapping(channel, position, size))) {
+      ImmutableList.Builder<E> toReturn = ImmutableList.builder();
+      reader.beginArray();
+      while (reader.hasNext()) {
+        long start = metrics.start();
+        toReturn.add(gson.<E>fromJson(reader, type));
+        metrics.elementRead(type, start);
+      }
+      reader.endArray();
+      metrics.readFinished(size);
+      return toReturn.build();
+    } catch (IOException | RuntimeException e) {
+      metrics.readFailed(e);
+      throw e;
+    } finally {
+      metrics.endBinding();
+    }
+  }
+
+  /**
+   * Opens a file for random access to the elements of the array it holds. The index saved next to
+   * it by {@link #writeIndexedJsonStream(Path, Collection)} is used if there is one and the file
+   * hasn't changed since (see {@link JsonArrayIndex#describes(Path)}); otherwise an index is built
+   * by scanning the file once, and can then be saved with
+   * {@code array.index().writeTo(JsonArrayIndex.sidecarFor(path))}.
+   *
+   * @param path is the file holding the serialized array.
+   * @param type is the type every element of the array is deserialized as.
+   * @return a view of the array which deserializes elements only when asked for them. It should be
+   *         closed once no longer needed.
+   * @throws IOException if unable to read the file.
+   */
+  public <E extends GsonSerializable> IndexedJsonArray<E> openIndexed(Path path, Class<E> type)
+      throws IOException {
+    Preconditions.checkNotNull(path);
+    Preconditions.checkNotNull(type);
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new IndexedJsonArray<E>(gson, channel, indexOf(path, channel), type, listener,
+          deduplicationCacheSize);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the index saved next to the file if it describes the file as it is now, or else a new
+   *         one built by scanning the file.
+   */
+  private static JsonArrayIndex indexOf(Path path, FileChannel channel) throws IOException {
+    Path sidecar = JsonArrayIndex.sidecarFor(path);
+    if (Files.isRegularFile(sidecar)) {
+      try {
+        JsonArrayIndex index = JsonArrayIndex.readFrom(sidecar);
+        if (index.describes(path)) {
+          return index;
+        }
+        logger.warn("Ignoring index {}, which doesn't match {}", sidecar, path);
+      } catch (IOException e) {
+        logger.warn("Ignoring index {}, which couldn't be read", sidecar, e);
+      }
+    }
+    return JsonArrayIndex.build(channel, path);
+  }
+
+  /**
+   * Reads a top-level JSON array into a List which keeps only the raw bytes of its elements,
+   * outside the Java heap, and deserializes each element only when it's asked for. The bytes are
+   * copied into a temporary file, in the directory named by the {@code java.io.tmpdir} system
+   * property, which is memory-mapped as by {@link #openOffHeap(Path, Class, int)} and deleted when
+   * the List is closed. The heap holds just twelve bytes per element to find it by, plus whichever
+   * elements are in use, so arrays larger than the heap can be read, without a long-lived object
+   * graph for the garbage collector to trace. Problems are thrown to the caller rather than logged.
+   *
+   * @param in is the inputStream holding the serialized array. It is closed once the array has
+   *        been read.
+   * @param type is the type every element of the array is deserialized as.
+   * @param cacheSize is how many of the most recently used elements to keep once deserialized, or
+   *        0 to deserialize an element every time it's asked for.
+   * @return an unmodifiable view of the array. It should be closed once no longer needed.
+   * @throws IOException if unable to read from the stream or to write the temporary file.
+   * @throws com.google.gson.JsonSyntaxException if the stream doesn't hold a complete array.
+   * @see OffHeapJsonList
+   */
+  public <E extends GsonSerializable> OffHeapJsonList<E> readJsonOffHeap(InputStream in,
+      Class<E> type, int cacheSize) throws IOException {
+    Preconditions.checkNotNull(in);
+    Preconditions.checkNotNull(type);
+    Preconditions.checkArgument(cacheSize >= 0, "Negative cache size: %s", cacheSize);
+    return OffHeapJsonList.copying(gson, in, type, listener, deduplicationCacheSize, cacheSize);
+  }
+
+  /**
+   * Memory-maps a file holding a top-level JSON array, for a List which deserializes each element
+   * only when it's asked for. Rather than being copied, the elements' bytes stay in the file,
+   * which the operating system pages in and out as needed. The index saved next to the file is
+   * used as by {@link #openIndexed(Path, Class)}.
+   *
+   * @param path is the file holding the serialized array.
+   * @param type is the type every element of the array is deserialized as.
+   * @param cacheSize is how many of the most recently used elements to keep once deserialized, or
+   *        0 to deserialize an element every time it's asked for.
+   * @return an unmodifiable view of the array. It should be closed once no longer needed, which
+   *         closes the file.
+   * @throws IOException if unable to read the file.
+   * @see #readJsonOffHeap(InputStream, Class, int)
+   */
+  public <E extends GsonSerializable> OffHeapJsonList<E> openOffHeap(Path path, Class<E> type,
+      int cacheSize) throws IOException {
+    Preconditions.checkNotNull(path);
+    Preconditions.checkNotNull(type);
+    Preconditions.checkArgument(cacheSize >= 0, "Negative cache size: %s", cacheSize);
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return OffHeapJsonList.mapping(gson, channel, indexOf(path, channel), type, listener,
+          deduplicationCacheSize, cacheSize);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @param path is the newline-delimited JSON (NDJSON) file to read.
+   * @param type is the type every line is deserialized as.
+   * @return a reader which decodes each line as it's reached, from the start of the file.
+   * @throws IOException if unable to open the file.
+   * @see #readNdjsonFrom(Path, Class, long)
+   */
+  public <E extends GsonSerializable> NdjsonReader<E> readNdjsonFrom(Path path, Class<E> type)
+      throws IOException {
+    return readNdjsonFrom(path, type, 0);
+  }
+
+  /**
+   * Opens a newline-delimited JSON (NDJSON) file for reading from a given line onwards, either up
+   * to its current end or, with {@link NdjsonReader#poll(long, java.util.concurrent.TimeUnit)},
+   * following lines as they're appended.
+   *
+   * @param path is the NDJSON file to read.
+   * @param type is the type every line is deserialized as.
+   * @param position is the byte offset of the line to start from, usually one returned by
+   *        {@link NdjsonReader#position()} earlier.
+   * @return a reader which decodes each line as it's reached.
+   * @throws IOException if unable to open the file.
+   */
+  public <E extends GsonSerializable> NdjsonReader<E> readNdjsonFrom(Path path, Class<E> type,
+      long position) throws IOException {
+    Preconditions.checkNotNull(path);
+    Preconditions.checkNotNull(type);
+    Preconditions.checkArgument(position >= 0, "position must not be negative: %s", position);
+    return new NdjsonReader<E>(gson, FileChannel.open(path, StandardOpenOption.READ), type,
+        position, readMetrics());
+  }
+
+  /**
+   * Reads a top-level JSON array using several threads: the calling thread reads the input and
+   * finds where each element starts and ends, while batches of elements are bound on the
+   * executor. The results are the same, and in the same order, as those of
+   * {@link #readJsonFrom(InputStream, Class)}.
+   *
+   * @param in is the inputStream holding the serialized array. It is not closed.
+   * @param type is the type every element of the array is deserialized as.
+   * @param options chooses the executor and batch sizes to use.
+   * @return an ImmutableList of every element, in order.
+   * @throws IOException if unable to read from the stream.
+   * @throws com.google.gson.JsonParseException naming the index of the first element which could
+   *         not be read.
+   */
+  public <E extends GsonSerializable> ImmutableList<E> readJsonFromParallel(InputStream in,
+      Class<E> type, ParallelOptions options) throws IOException {
+    Preconditions.checkNotNull(in);
+    Preconditions.checkNotNull(type);
+    Preconditions.checkNotNull(options);
+    return ParallelJsonReader.read(gson, in, type, options, listener, deduplicationCacheSize);
+  }
+
+  /**
+   * Opens a lazy, one-element-at-a-time view of a top-level JSON array. Unlike
+   * {@link #readJsonFrom(InputStream, Class)}, the elements are never collected in memory and
+   * errors are thrown to the caller rather than logged.
+   *
+   * @param in is the inputStream holding the serialized array. It is closed when the returned
+   *        iterator is closed.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an iterator which decodes each element as it's reached.
+   */
+  public <E extends GsonSerializable> JsonArrayIterator<E> iterateJsonFrom(InputStream in,
+      Class<E> type) {
+    return openIterator(in, type, null);
+  }
+
+  private <E> JsonArrayIterator<E> openIterator(InputStream in, Class<E> type,
+      ReadProjection projection) {
+    Preconditions.checkNotNull(in);
+    Preconditions.checkNotNull(type);
+    OperationMetrics metrics = readMetrics();
+    if (!metrics.enabled()) {
+      return new JsonArrayIterator<E>(gson,
+          new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)), type, metrics, null,
+          projection);
+    }
+    CountingInputStream counting = new CountingInputStream(in);
+    return new JsonArrayIterator<E>(gson,
+        new JsonReader(new InputStreamReader(counting, StandardCharsets.UTF_8)), type, metrics,
+        counting::getCount, projection);
+  }
+
+  /**
+   * Reads only the parts of a top-level JSON array which the projection asks for: its projected
+   * members are bound, the rest are skipped, and elements its filters reject are skipped entirely.
+   * Problems are thrown to the caller rather than logged.
+   *
+   * @param in is the inputStream holding the serialized array. It is closed once the array has
+   *        been read.
+   * @param type is the type every accepted element of the array is deserialized as.
+   * @param projection chooses the members and elements to bind.
+   * @return an ImmutableList of every accepted element, in order.
+   * @throws IOException if unable to read from the stream.
+   * @see ReadProjection
+   */
+  public <E extends GsonSerializable> ImmutableList<E> readJsonFrom(InputStream in, Class<E> type,
+      ReadProjection projection) throws IOException {
+    try (JsonArrayIterator<E> iterator = iterateJsonFrom(in, type, projection)) {
+      return ImmutableList.copyOf(iterator);
+    }
+  }
+
+  /**
+   * @param path is the file holding the serialized array, which is memory-mapped as for
+   *        {@link #readJsonFrom(Path, Class)}.
+   * @param type is the type every accepted element of the array is deserialized as.
+   * @param projection chooses the members and elements to bind.
+   * @return an ImmutableList of every accepted element, in order.
+   * @throws IOException if unable to read the file.
+   * @see #readJsonFrom(InputStream, Class, ReadProjection)
+   */
+  public <E extends GsonSerializable> ImmutableList<E> readJsonFrom(Path path, Class<E> type,
+      ReadProjection projection) throws IOException {
+    Preconditions.checkNotNull(path);
+    Preconditions.checkNotNull(type);
+    Preconditions.checkNotNull(projection);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      try (JsonArrayIterator<E> iterator = new JsonArrayIterator<E>(gson,
+          new JsonReader(ByteBufferReader.mapping(channel, 0, size)), type,
+          readMetrics(), () -> size, projection)) {
+        return ImmutableList.copyOf(iterator);
+      }
+    }
+  }
+
+  /**
+   * @param in is the inputStream holding the serialized array. It is closed when the returned
+   *        iterator is closed.
+   * @param type is the type every accepted element of the array is deserialized as.
+   * @param projection chooses the members and elements to bind.
+   * @return an iterator which decodes each accepted element as it's reached.
+   * @see #readJsonFrom(InputStream, Class, ReadProjection)
+   */
+  public <E extends GsonSerializable> JsonArrayIterator<E> iterateJsonFrom(InputStream in,
+      Class<E> type, ReadProjection projection) {
+    Preconditions.checkNotNull(projection);
+    return openIterator(in, type, projection);
+  }
+
+  /**
+   * @param in is the inputStream holding the serialized array. It is closed when the returned
+   *        stream is closed.
+   * @param type is the type every element of the array is deserialized as.
+   * @return a sequential Stream which decodes each element as it's reached. It should be closed,
+   *         for example with try-with-resources, once no longer needed.
+   * @see #iterateJsonFrom(InputStream, Class)
+   */
+  public <E extends GsonSerializable> Stream<E> streamJsonFrom(InputStream in, Class<E> type) {
+    return iterateJsonFrom(in, type).stream();
+  }
+
+  /**
+   * Reads a gzip-compressed top-level JSON array, decompressing on several threads ahead of the
+   * calling thread, which deserializes. Problems are thrown to the caller rather than logged.
+   *
+   * @param in is the inputStream holding the compressed array, for example as written by
+   *        {@link #writeGzipJsonStream(OutputStream, Collection, ParallelOptions)}. Any other gzip
+   *        file can be read too, but is decompressed on the calling thread. It is closed once the
+   *        array has been read.
+   * @param type is the type every element of the array is deserialized as.
+   * @param options chooses the executor and the number of members to decompress at once.
+   * @return an ImmutableList of every element, in order.
+   * @throws IOException if unable to read from the stream.
+   * @see ParallelGzipInputStream
+   */
+  public <E extends GsonSerializable> ImmutableList<E> readGzipJsonFrom(InputStream in,
+      Class<E> type, ParallelOptions options) throws IOException {
+    try (JsonArrayIterator<E> iterator = iterateGzipJsonFrom(in, type, options)) {
+      return ImmutableList.copyOf(iterator);
+    }
+  }
+
+  /**
+   * @param in is the inputStream holding the compressed array. It is closed when the returned
+   *        iterator is closed.
+   * @param type is the type every element of the array is deserialized as.
+   * @param options chooses the executor and the number of members to decompress at once.
+   * @return an iterator which decodes each element as it's reached.
+   * @see #readGzipJsonFrom(InputStream, Class, ParallelOptions)
+   * @see #iterateJsonFrom(InputStream, Class)
+   */
+  public <E extends GsonSerializable> JsonArrayIterator<E> iterateGzipJsonFrom(InputStream in,
+      Class<E> type, ParallelOptions options) {
+    return iterateJsonFrom(new ParallelGzipInputStream(in, options), type);
+  }
+
+  /**
+   * Reads a top-level array written by {@link #writeBinaryStream(OutputStream, Collection)}.
+   * Problems are thrown to the caller rather than logged.
+   *
+   * @param in is the inputStream holding the serialized array. It is closed once the array has
+   *        been read.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an ImmutableList of every element, in order.
+   * @throws IOException if unable to read from the stream.
+   */
+  public <E extends GsonSerializable> ImmutableList<E> readBinaryFrom(InputStream in,
+      Class<E> type) throws IOException {
+    try (JsonArrayIterator<E> iterator = iterateBinaryFrom(in, type)) {
+      return ImmutableList.copyOf(iterator);
+    }
+  }
+
+  /**
+   * @param in is the inputStream holding the serialized array. It is closed when the returned
+   *        iterator is closed.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an iterator which decodes each element as it's reached.
+   * @see #readBinaryFrom(InputStream, Class)
+   * @see #iterateJsonFrom(InputStream, Class)
+   */
+  public <E extends GsonSerializable> JsonArrayIterator<E> iterateBinaryFrom(InputStream in,
+      Class<E> type) {
+    Preconditions.checkNotNull(type);
+    BinaryJsonReader reader = new BinaryJsonReader(in);
+    return new JsonArrayIterator<E>(gson, reader, type, readMetrics(), reader::bytesRead);
+  }
+
+  /**
+   * Writes only the differences between two snapshots of a top-level array, as a delta which
+   * {@link #readJsonFromDeltas(Collection, Class, Iterable)} applies to the base snapshot. Elements
+   * are compared by their serialized form, except that unchanged elements at either end which are
+   * the same instance in both snapshots aren't serialized at all. Changes inside an element, such
+   * as to one entry of a map it holds, are written as nested deltas of just that entry. Element
+   * and member order are reproduced exactly.
+   *
+   * @param out is the output stream to which the delta is written. It is closed once the delta
+   *        has been written.
+   * @param base is the snapshot the delta will be applied to.
+   * @param updated is the snapshot the delta turns base into.
+   * @throws IOException if unable to write to the stream.
+   * @see JsonDelta
+   */
+  public void writeJsonStreamDelta(OutputStream out, Collection<? extends Object> base,
+      Collection<? extends Object> updated) throws IOException {
+    Preconditions.checkNotNull(out);
+    writeDelta(out, JsonDelta.diffArrays(new ArrayList<Object>(base),
+        new ArrayList<Object>(updated), this::treeOf, this::serializedOf));
+  }
+
+  /**
+   * Writes only the differences between two values, such as two versions of an ImmutableMap, as
+   * a delta which {@link #applyJsonDeltas(Object, Type, Iterable)} applies to the base value.
+   *
+   * @param out is the output stream to which the delta is written. It is closed once the delta
+   *        has been written.
+   * @param base is the value the delta will be applied to.
+   * @param updated is the value the delta turns base into.
+   * @param type is the declared type both values are serialized as.
+   * @throws IOException if unable to write to the stream.
+   * @see #writeJsonStreamDelta(OutputStream, Collection, Collection)
+   */
+  public void writeJsonDelta(OutputStream out, Object base, Object updated, Type type)
+      throws IOException {
+    Preconditions.checkNotNull(out);
+    Preconditions.checkNotNull(type);
+    writeDelta(out, JsonDelta.diff(gson.toJsonTree(base, type), gson.toJsonTree(updated, type)));
+  }
+
+  private void writeDelta(OutputStream out, JsonObject delta) throws IOException {
+    try (JsonWriter writer = newJsonWriter(bufferedWriter(out))) {
+      // A null in a delta is a value, not an absent member
+      writer.setSerializeNulls(true);
+      TypeAdapters.JSON_ELEMENT.write(writer, delta);
+    }
+  }
+
+  /**
+   * Rebuilds a snapshot of a top-level array by applying a chain of deltas to a base snapshot.
+   * Elements which no delta changes are the base's own instances; only changed and added elements
+   * are deserialized, and only once however many deltas change them. Problems are thrown to the
+   * caller rather than logged.
+   *
+   * @param base is the snapshot the first delta was written against.
+   * @param type is the type every changed or added element is deserialized as.
+   * @param deltas hold the deltas to apply, each written against the snapshot the ones before it
+   *        produce, as by {@link #writeJsonStreamDelta(OutputStream, Collection, Collection)}. Each
+   *        is closed once it has been read.
+   * @return an ImmutableList of every element of the resulting snapshot, in order.
+   * @throws IOException if unable to read a delta.
+   * @throws JsonSyntaxException if a delta is malformed, or doesn't fit what it's applied to.
+   */
+  public <E extends GsonSerializable> ImmutableList<E> readJsonFromDeltas(
+      Collection<? extends E> base, Class<E> type, Iterable<? extends InputStream> deltas)
+      throws IOException {
+    Preconditions.checkNotNull(type);
+    Preconditions.checkNotNull(deltas);
+    // Holds base elements as they are, and changed or added ones as trees until every delta is in
+    List<Object> elements = new ArrayList<>(base);
+    for (InputStream in : deltas) {
+      JsonDelta.applyToList(elements, readDelta(in),
+          (element, delta) -> new PendingElement(JsonDelta.apply(
+              element instanceof PendingElement ? ((PendingElement) element).tree
+                  : treeOf(element),
+              delta)),
+          PendingElement::new);
+    }
+    ImmutableList.Builder<E> toReturn = ImmutableList.builder();
+    for (Object element : elements) {
+      toReturn.add(element instanceof PendingElement
+          ? gson.fromJson(((PendingElement) element).tree, type) : type.cast(element));
+    }
+    return toReturn.build();
+  }
+
+  /**
+   * Rebuilds a value by applying a chain of deltas to a base value.
+   *
+   * @param base is the value the first delta was written against.
+   * @param type is the declared type of the value.
+   * @param deltas hold the deltas to apply, each written against the value the ones before it
+   *        produce, as by {@link #writeJsonDelta(OutputStream, Object, Object, Type)}. Each is
+   *        closed once it has been read.
+   * @return the resulting value, which is base itself if no delta changed it.
+   * @throws IOException if unable to read a delta.
+   * @throws JsonSyntaxException if a delta is malformed, or doesn't fit what it's applied to.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T applyJsonDeltas(T base, Type type, Iterable<? extends InputStream> deltas)
+      throws IOException {
+    Preconditions.checkNotNull(type);
+    Preconditions.checkNotNull(deltas);
+    JsonElement tree = null;
+    for (InputStream in : deltas) {
+      JsonObject delta = readDelta(in);
+      if (tree != null || !delta.get(JsonDelta.OP).getAsString().equals(JsonDelta.KEEP)) {
+        tree = JsonDelta.apply(tree != null ? tree : gson.toJsonTree(base, type), delta);
+      }
+    }
+    return tree == null ? base : (T) gson.fromJson(tree, type);
+  }
+
+  private JsonElement treeOf(Object message) {
+    return message == null ? JsonNull.INSTANCE : gson.toJsonTree(message, message.getClass());
+  }
+
+  /**
+   * @return the UTF-8 JSON of a message, which is far smaller than its tree, and which equals
+   *         another's exactly when their trees would be written the same.
+   */
+  private ByteBuffer serializedOf(Object message) {
+    String json = message == null ? "null" : gson.toJson(message, message.getClass());
+    return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static JsonObject readDelta(InputStream in) throws IOException {
+    Preconditions.checkNotNull(in);
+    try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      JsonElement delta = TypeAdapters.JSON_ELEMENT.read(reader);
+      if (!delta.isJsonObject() || !delta.getAsJsonObject().has(JsonDelta.OP)) {
+        throw new JsonSyntaxException("Not a delta");
+      }
+      return delta.getAsJsonObject();
+    }
+  }
+
+  /**
+   * An element which a delta changed or added, not yet deserialized.
+   */
+  private static final class PendingElement {
+    final JsonElement tree;
+
+    PendingElement(JsonElement tree) {
+      this.tree = tree;
+    }
+  }
+
+  /**
+   * Collects settings for a {@link GsonCodec}. Builders are not thread-safe, but the codecs they
+   * build are.
+   */
+  public static final class Builder {
+
+    private final ImmutableList.Builder<TypeAdapterFactory> extraFactories =
+        ImmutableList.builder();
+    private String indent = DEFAULT_INDENT;
+    private boolean serializeNulls = false;
+    private boolean primitiveBackedNumberLists = false;
+    private int deduplicationCacheSize = 0;
+    private CodecListener listener = CodecListener.NONE;
+
+    private Builder() {}
+
+    /**
+     * Registers a TypeAdapterFactory in addition to the ones {@link GsonUtils} already knows
+     * about. Factories registered here take precedence over the built-in ones, in registration
+     * order.
+     *
+     * @param factory is the factory to register.
+     * @return this builder.
+     */
+    public Builder registerTypeAdapterFactory(TypeAdapterFactory factory) {
+      extraFactories.add(Preconditions.checkNotNull(factory));
+      return this;
+    }
+
+    /**
+     * @param indent is the string written once per nesting level, such as two spaces. An empty
+     *        string produces compact output.
+     * @return this builder.
+     */
+    public Builder setIndent(String indent) {
+      this.indent = Preconditions.checkNotNull(indent);
+      return this;
+    }
+
+    /**
+     * Shorthand for {@code setIndent("")}, producing output with no whitespace between tokens.
+     *
+     * @return this builder.
+     */
+    public Builder compact() {
+      return setIndent("");
+    }
+
+    /**
+     * @param serializeNulls is whether fields whose value is null should be written as explicit
+     *        nulls rather than omitted.
+     * @return this builder.
+     */
+    public Builder setSerializeNulls(boolean serializeNulls) {
+      this.serializeNulls = serializeNulls;
+      return this;
+    }
+
+    /**
+     * @param primitiveBackedNumberLists is whether values declared as {@code List<Integer>},
+     *        {@code List<Long>} or {@code List<Double>} should be deserialized into immutable lists
+     *        backed by a single primitive array, rather than one boxed number per element. Such
+     *        lists can't hold nulls, so a null element fails to deserialize.
+     * @return this builder.
+     */
+    public Builder setPrimitiveBackedNumberLists(boolean primitiveBackedNumberLists) {
+      this.primitiveBackedNumberLists = primitiveBackedNumberLists;
+      return this;
+    }
+
+    /**
+     * Makes reads share a single instance between equal strings (including map keys) and equal
+     * small immutable collections, rather than keeping a copy of each on the heap. Each read
+     * remembers up to {@code maxEntries} of the values it has read, forgetting the least recently
+     * used first; reads on several threads, such as
+     * {@link GsonCodec#readJsonFromParallel(InputStream, Class, ParallelOptions)}, remember them
+     * separately for each batch, and the arrays opened by {@link GsonCodec#openIndexed} and
+     * {@link GsonCodec#openOffHeap} separately for each element or range they read.
+     * {@link CodecListener#valueDeduplicated} reports the savings.
+     *
+     * @param maxEntries is the most values each read remembers at once, or 0 (the default) to
+     *        deduplicate nothing.
+     * @return this builder.
+     */
+    public Builder setDeduplicationCacheSize(int maxEntries) {
+      Preconditions.checkArgument(maxEntries >= 0, "maxEntries must not be negative, but was %s",
+          maxEntries);
+      this.deduplicationCacheSize = maxEntries;
+      return this;
+    }
+
+    /**
+     * @param listener receives measurements of everything the codec reads and writes, including
+     *        the time spent in each of its TypeAdapterFactories' adapters.
+     * @return this builder.
+     */
+    public Builder setListener(CodecListener listener) {
+      this.listener = Preconditions.checkNotNull(listener);
+      return this;
+    }
+
+    /**
+     * @return a new codec with this builder's current settings.
+     */
+    public GsonCodec build() {
+      GsonBuilder gsonBuilder = new GsonBuilder();
+      ImmutableList<TypeAdapterFactory> optionalFactories = primitiveBackedNumberLists
+          ? ImmutableList.of(new PrimitiveNumberListTypeAdapterFactory()) : ImmutableList.of();
+      // Gson asks the most recently registered factory first
+      for (TypeAdapterFactory factory : Iterables.concat(GsonUtils.typeAdapterFactories,
+          optionalFactories, extraFactories.build().reverse())) {
+        gsonBuilder.registerTypeAdapterFactory(listener == CodecListener.NONE ? factory
+            : new InstrumentedTypeAdapterFactory(factory, listener));
+      }
+      if (deduplicationCacheSize > 0) {
+        // Asked before every other factory, and never instrumented, since it looks up the adapter
+        // it wraps by identity
+        gsonBuilder.registerTypeAdapterFactory(
+            new DeduplicatingTypeAdapterFactory());
+      }
+      if (serializeNulls) {
+        gsonBuilder.serializeNulls();
+      }
+      return new GsonCodec(gsonBuilder.create(), indent, listener, deduplicationCacheSize);
+    }
+  }
+}
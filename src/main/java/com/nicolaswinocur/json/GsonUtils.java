@@ -16,23 +16,17 @@ package com.nicolaswinocur.json;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.Collection;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import com.google.common.base.Preconditions;
+import java.util.Iterator;
+import java.util.stream.Stream;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapterFactory;
-import com.google.gson.stream.JsonReader;
-import com.google.gson.stream.JsonWriter;
 
 /**
  * Handles registering any necessary json serializers, deserializers, and/or type adapters when
@@ -40,8 +34,6 @@ import com.google.gson.stream.JsonWriter;
  */
 public final class GsonUtils {
 
-  private static final Logger logger = LoggerFactory.getLogger(GsonUtils.class);
-
   /**
    * Intentionally private constructor so people don't try to instantiate what is currently designed
    * as a non-instantiable utility class
@@ -50,22 +42,23 @@ public final class GsonUtils {
 
   /**
    * Set of all possible TypeAdapterFactory classes this util class will try to register with any
-   * Gson object it creates, works with, or returns. New TypeAdapterFactories should get added to
-   * this set if/whenever they are created.
+   * Gson object it creates, works with, or returns (including those of every {@link GsonCodec}).
+   * New TypeAdapterFactories should get added to this set if/whenever they are created.
    */
-  static private final ImmutableSet<TypeAdapterFactory> typeAdapterFactories =
+  static final ImmutableSet<TypeAdapterFactory> typeAdapterFactories =
       ImmutableSet.of(new ImmutableListTypeAdapterFactory(), new ImmutableMapTypeAdapterFactory(),
           new NaturallySortedMapTypeAdapterFactory(), new ImmutableMultimapTypeAdapterFactory(),
-          new ImmutableSetTypeAdapterFactory());
+          new ImmutableSetTypeAdapterFactory(), new ImmutableSortedMapTypeAdapterFactory(),
+          new ImmutableSortedSetTypeAdapterFactory(),
+          new ImmutablePrimitiveArrayTypeAdapterFactory(), new GeneratedTypeAdapterFactory());
 
   /**
    * @return a Gson object which has already been registered with all TypeAdapterFactories known to
-   *         this class.
+   *         this class. The same instance is returned on every call; Gson objects are immutable and
+   *         thread-safe, and sharing one keeps its per-type adapter cache warm.
    */
   public static Gson provideGson() {
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    typeAdapterFactories.forEach(gsonBuilder::registerTypeAdapterFactory);
-    return gsonBuilder.create();
+    return GsonCodec.getDefault().gson();
   }
 
   /**
@@ -77,16 +70,58 @@ public final class GsonUtils {
    */
   public static void writeJsonStream(OutputStream out, Collection<? extends Object> messages)
       throws IOException {
-    Preconditions.checkNotNull(out);
-    Preconditions.checkNotNull(messages);
-    Gson gson = provideGson();
+    GsonCodec.getDefault().writeJsonStream(out, messages);
+  }
+
+  /**
+   * @param out is the output stream to which this class will send serialized data. It is closed
+   *        once the array has been written.
+   * @param messages produces the Objects to write to that output stream, in order. Each is written
+   *        as soon as it's produced, so they never need to be held in memory all at once.
+   * @throws IOException if unable to write to the stream.
+   * @see GsonCodec#writeJsonStream(OutputStream, Iterator)
+   */
+  public static void writeJsonStream(OutputStream out, Iterator<? extends Object> messages)
+      throws IOException {
+    GsonCodec.getDefault().writeJsonStream(out, messages);
+  }
+
+  /**
+   * @param out is the output stream to which this class will send serialized data. It is closed
+   *        once the array has been written.
+   * @param messages produces the Objects to write to that output stream, in encounter order.
+   * @throws IOException if unable to write to the stream.
+   * @see GsonCodec#writeJsonStream(OutputStream, Stream)
+   */
+  public static void writeJsonStream(OutputStream out, Stream<? extends Object> messages)
+      throws IOException {
+    GsonCodec.getDefault().writeJsonStream(out, messages);
+  }
 
-    JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
-    writer.setIndent("  ");
-    writer.beginArray();
-    messages.forEach((message) -> gson.toJson(message, message.getClass(), writer));
-    writer.endArray();
-    writer.close();
+  /**
+   * @param out is the output stream to which this class will send serialized data. It is closed
+   *        once the array has been written.
+   * @param messages is the collection of Objects to write to that output stream. They are
+   *        serialized on {@link java.util.concurrent.ForkJoinPool#commonPool()}, but the bytes
+   *        written are exactly those {@link #writeJsonStream(OutputStream, Collection)} would
+   *        write.
+   * @throws IOException if unable to write to the stream.
+   * @see GsonCodec#writeJsonStreamParallel(OutputStream, Collection, ParallelOptions)
+   */
+  public static void writeJsonStreamParallel(OutputStream out,
+      Collection<? extends Object> messages) throws IOException {
+    GsonCodec.getDefault().writeJsonStreamParallel(out, messages, ParallelOptions.commonPool());
+  }
+
+  /**
+   * @param out is the output stream to which this class will send serialized data. It is closed
+   *        when the returned writer is closed.
+   * @return a push-style sink to which elements can be written one at a time.
+   * @throws IOException if unable to write to the stream.
+   * @see GsonCodec#openJsonWriter(OutputStream)
+   */
+  public static JsonArrayWriter openJsonWriter(OutputStream out) throws IOException {
+    return GsonCodec.getDefault().openJsonWriter(out);
   }
 
   /**
@@ -100,27 +135,234 @@ public final class GsonUtils {
    */
   public static <E extends GsonSerializable> ImmutableCollection<E> readJsonFrom(InputStream in,
       Class<E> type) throws UnsupportedEncodingException {
-    Preconditions.checkNotNull(in);
-    Preconditions.checkNotNull(type);
-    Gson gson = provideGson();
-    ArrayList<E> toReturn = new ArrayList<E>();
-    JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
-    try {
-      reader.beginArray();
-      while (reader.hasNext()) {
-        E latest = gson.fromJson(reader, type);
-
-        /*
-         * If input file is corrupt but error messages thrown aren't sufficient to narrow down
-         * where, can use debug line to get a sense of what's being parsed okay until it hits the
-         * problem.
-         */
-        logger.info("latest serialized object is: " + latest.toString());
-        toReturn.add(latest);
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return ImmutableList.<E>copyOf(toReturn);
+    return GsonCodec.getDefault().readJsonFrom(in, type);
+  }
+
+  /**
+   * @param in is the inputStream holding the serialized array. It is closed when the returned
+   *        iterator is closed.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an iterator which decodes one element at a time rather than collecting them all.
+   * @see GsonCodec#iterateJsonFrom(InputStream, Class)
+   */
+  public static <E extends GsonSerializable> JsonArrayIterator<E> iterateJsonFrom(InputStream in,
+      Class<E> type) {
+    return GsonCodec.getDefault().iterateJsonFrom(in, type);
+  }
+
+  /**
+   * @param in is the inputStream holding the serialized array. It is closed when the returned
+   *        stream is closed.
+   * @param type is the type every element of the array is deserialized as.
+   * @return a sequential Stream which decodes one element at a time rather than collecting them
+   *         all.
+   * @see GsonCodec#streamJsonFrom(InputStream, Class)
+   */
+  public static <E extends GsonSerializable> Stream<E> streamJsonFrom(InputStream in,
+      Class<E> type) {
+    return GsonCodec.getDefault().streamJsonFrom(in, type);
+  }
+
+  /**
+   * @param in is the inputStream holding the serialized array. It is not closed.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an ImmutableList of every element, in order, having bound them on
+   *         {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+   * @throws IOException if unable to read from the stream.
+   * @see GsonCodec#readJsonFromParallel(InputStream, Class, ParallelOptions)
+   */
+  public static <E extends GsonSerializable> ImmutableList<E> readJsonFromParallel(InputStream in,
+      Class<E> type) throws IOException {
+    return GsonCodec.getDefault().readJsonFromParallel(in, type, ParallelOptions.commonPool());
+  }
+
+  /**
+   * @param in is the inputStream holding the serialized array. It is closed once read.
+   * @param type is the type every accepted element of the array is deserialized as.
+   * @param projection chooses the members and elements to bind.
+   * @return an ImmutableList of every accepted element, in order.
+   * @throws IOException if unable to read from the stream.
+   * @see GsonCodec#readJsonFrom(InputStream, Class, ReadProjection)
+   */
+  public static <E extends GsonSerializable> ImmutableList<E> readJsonFrom(InputStream in,
+      Class<E> type, ReadProjection projection) throws IOException {
+    return GsonCodec.getDefault().readJsonFrom(in, type, projection);
+  }
+
+  /**
+   * @param path is the file to write, which is created or truncated first.
+   * @param messages is the collection of Objects to write to that file.
+   * @throws IOException if unable to write to the file.
+   * @see GsonCodec#writeJsonStream(Path, Collection)
+   */
+  public static void writeJsonStream(Path path, Collection<? extends Object> messages)
+      throws IOException {
+    GsonCodec.getDefault().writeJsonStream(path, messages);
+  }
+
+  /**
+   * @param path is the file holding the serialized array, which is read by memory-mapping it.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an ImmutableList of every element, in order.
+   * @throws IOException if unable to read the file.
+   * @see GsonCodec#readJsonFrom(Path, Class)
+   */
+  public static <E extends GsonSerializable> ImmutableList<E> readJsonFrom(Path path,
+      Class<E> type) throws IOException {
+    return GsonCodec.getDefault().readJsonFrom(path, type);
+  }
+
+  /**
+   * @param path is the file to write, which is created or truncated first.
+   * @param messages is the collection of Objects to write to that file.
+   * @return the index which was saved next to the file.
+   * @throws IOException if unable to write either file.
+   * @see GsonCodec#writeIndexedJsonStream(Path, Collection)
+   */
+  public static JsonArrayIndex writeIndexedJsonStream(Path path,
+      Collection<? extends Object> messages) throws IOException {
+    return GsonCodec.getDefault().writeIndexedJsonStream(path, messages);
+  }
+
+  /**
+   * @param path is the file holding the serialized array.
+   * @param type is the type every element of the array is deserialized as.
+   * @return a view of the array which deserializes elements only when asked for them.
+   * @throws IOException if unable to read the file.
+   * @see GsonCodec#openIndexed(Path, Class)
+   */
+  public static <E extends GsonSerializable> IndexedJsonArray<E> openIndexed(Path path,
+      Class<E> type) throws IOException {
+    return GsonCodec.getDefault().openIndexed(path, type);
+  }
+
+  /**
+   * @param path is the file to append to, which is created if it doesn't exist.
+   * @param messages is the collection of Objects to add to the end of that file, one per line.
+   * @throws IOException if unable to write to the file.
+   * @see GsonCodec#appendNdjson(Path, Collection)
+   */
+  public static void appendNdjson(Path path, Collection<? extends Object> messages)
+      throws IOException {
+    GsonCodec.getDefault().appendNdjson(path, messages);
+  }
+
+  /**
+   * @param path is the newline-delimited JSON file to read.
+   * @param type is the type every line is deserialized as.
+   * @param position is the byte offset of the line to start from.
+   * @return a reader which decodes each line as it's reached.
+   * @throws IOException if unable to open the file.
+   * @see GsonCodec#readNdjsonFrom(Path, Class, long)
+   */
+  public static <E extends GsonSerializable> NdjsonReader<E> readNdjsonFrom(Path path,
+      Class<E> type, long position) throws IOException {
+    return GsonCodec.getDefault().readNdjsonFrom(path, type, position);
+  }
+
+  /**
+   * @param out is the output stream to which this class will send serialized data, in a compact
+   *        binary encoding rather than JSON text. It is closed once the array has been written.
+   * @param messages is the collection of Objects to write to that output stream.
+   * @throws IOException if unable to write to the stream.
+   * @see GsonCodec#writeBinaryStream(OutputStream, Collection)
+   */
+  public static void writeBinaryStream(OutputStream out, Collection<? extends Object> messages)
+      throws IOException {
+    GsonCodec.getDefault().writeBinaryStream(out, messages);
+  }
+
+  /**
+   * @param in is the inputStream holding an array written by
+   *        {@link #writeBinaryStream(OutputStream, Collection)}. It is closed once read.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an ImmutableList of every element, in order.
+   * @throws IOException if unable to read from the stream.
+   * @see GsonCodec#readBinaryFrom(InputStream, Class)
+   */
+  public static <E extends GsonSerializable> ImmutableList<E> readBinaryFrom(InputStream in,
+      Class<E> type) throws IOException {
+    return GsonCodec.getDefault().readBinaryFrom(in, type);
+  }
+
+  /**
+   * @param out is the output stream to which this class will send compressed data. It is closed
+   *        once the array has been written.
+   * @param messages is the collection of Objects to write to that output stream.
+   * @throws IOException if unable to write to the stream.
+   * @see GsonCodec#writeGzipJsonStream(OutputStream, Collection, ParallelOptions)
+   */
+  public static void writeGzipJsonStream(OutputStream out, Collection<? extends Object> messages)
+      throws IOException {
+    GsonCodec.getDefault().writeGzipJsonStream(out, messages, ParallelOptions.commonPool());
+  }
+
+  /**
+   * @param in is the inputStream holding a gzip-compressed array. It is closed once read.
+   * @param type is the type every element of the array is deserialized as.
+   * @return an ImmutableList of every element, in order.
+   * @throws IOException if unable to read from the stream.
+   * @see GsonCodec#readGzipJsonFrom(InputStream, Class, ParallelOptions)
+   */
+  public static <E extends GsonSerializable> ImmutableList<E> readGzipJsonFrom(InputStream in,
+      Class<E> type) throws IOException {
+    return GsonCodec.getDefault().readGzipJsonFrom(in, type, ParallelOptions.commonPool());
+  }
+
+  /**
+   * @param out is the output stream to which this class will send the delta. It is closed once
+   *        the delta has been written.
+   * @param base is the snapshot the delta will be applied to.
+   * @param updated is the snapshot the delta turns base into.
+   * @throws IOException if unable to write to the stream.
+   * @see GsonCodec#writeJsonStreamDelta(OutputStream, Collection, Collection)
+   */
+  public static void writeJsonStreamDelta(OutputStream out, Collection<? extends Object> base,
+      Collection<? extends Object> updated) throws IOException {
+    GsonCodec.getDefault().writeJsonStreamDelta(out, base, updated);
+  }
+
+  /**
+   * @param base is the snapshot the first delta was written against.
+   * @param type is the type every changed or added element is deserialized as.
+   * @param deltas hold the deltas to apply, in the order they were written. Each is closed once
+   *        read.
+   * @return an ImmutableList of every element of the resulting snapshot, in order.
+   * @throws IOException if unable to read a delta.
+   * @see GsonCodec#readJsonFromDeltas(Collection, Class, Iterable)
+   */
+  public static <E extends GsonSerializable> ImmutableList<E> readJsonFromDeltas(
+      Collection<? extends E> base, Class<E> type, Iterable<? extends InputStream> deltas)
+      throws IOException {
+    return GsonCodec.getDefault().readJsonFromDeltas(base, type, deltas);
+  }
+
+  /**
+   * @param in is the inputStream holding the serialized array. It is closed once read.
+   * @param type is the type every element of the array is deserialized as.
+   * @param cacheSize is how many of the most recently used elements to keep once deserialized, or
+   *        0 for none.
+   * @return an unmodifiable view of the array, holding its elements' bytes off the heap in a
+   *         temporary file. It should be closed once no longer needed, which deletes the file.
+   * @throws IOException if unable to read from the stream or to write the temporary file.
+   * @see GsonCodec#readJsonOffHeap(InputStream, Class, int)
+   */
+  public static <E extends GsonSerializable> OffHeapJsonList<E> readJsonOffHeap(InputStream in,
+      Class<E> type, int cacheSize) throws IOException {
+    return GsonCodec.getDefault().readJsonOffHeap(in, type, cacheSize);
+  }
+
+  /**
+   * @param path is the file holding the serialized array, which is memory-mapped.
+   * @param type is the type every element of the array is deserialized as.
+   * @param cacheSize is how many of the most recently used elements to keep once deserialized, or
+   *        0 for none.
+   * @return an unmodifiable view of the array. It should be closed once no longer needed.
+   * @throws IOException if unable to read the file.
+   * @see GsonCodec#openOffHeap(Path, Class, int)
+   */
+  public static <E extends GsonSerializable> OffHeapJsonList<E> openOffHeap(Path path,
+      Class<E> type, int cacheSize) throws IOException {
+    return GsonCodec.getDefault().openOffHeap(path, type, cacheSize);
   }
 }
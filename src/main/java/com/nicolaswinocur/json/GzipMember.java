@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import com.google.gson.JsonIOException;
+
+/**
+ * Compresses and decompresses the independent gzip members written by
+ * {@link ParallelGzipOutputStream} and read by {@link ParallelGzipInputStream}.
+ *
+ * <p>Each member is a standard gzip member (RFC 1952), so any gzip reader can read a file of them
+ * as one stream. Like BGZF's, its header carries an extra field giving the size of the whole
+ * compressed member, so that a reader can find where each member ends without decompressing it:
+ * subfield {@code 'J', 'B'}, holding a four-byte little-endian length.
+ */
+final class GzipMember {
+
+  /**
+   * Intentionally private constructor so people don't try to instantiate what is currently designed
+   * as a non-instantiable utility class
+   */
+  private GzipMember() {}
+
+  /** Length of the header written on every member, up to the start of the deflated data. */
+  static final int HEADER_LENGTH = 20;
+  private static final int TRAILER_LENGTH = 8;
+  private static final int FEXTRA = 4;
+  private static final byte[] HEADER_PREFIX = {
+      0x1f, (byte) 0x8b, // gzip magic
+      Deflater.DEFLATED, FEXTRA, // compression method and flags
+      0, 0, 0, 0, // no modification time
+      0, (byte) 0xff, // no extra flags, unknown operating system
+      8, 0, // length of the extra field
+      'J', 'B', 4, 0 // subfield id and length, followed by the member size
+  };
+
+  /**
+   * @param data holds the bytes to compress.
+   * @param length is how many of them, from the start, to compress.
+   * @return a complete gzip member holding those bytes.
+   */
+  static byte[] compress(byte[] data, int length) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    byte[] member = new byte[HEADER_LENGTH + length / 2 + 64];
+    int size = HEADER_LENGTH;
+    try {
+      deflater.setInput(data, 0, length);
+      deflater.finish();
+      while (!deflater.finished()) {
+        if (size == member.length) {
+          member = Arrays.copyOf(member, member.length * 2);
+        }
+        size += deflater.deflate(member, size, member.length - size);
+      }
+    } finally {
+      deflater.end();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, length);
+    member = Arrays.copyOf(member, size + TRAILER_LENGTH);
+    System.arraycopy(HEADER_PREFIX, 0, member, 0, HEADER_PREFIX.length);
+    putInt(member, HEADER_PREFIX.length, member.length);
+    putInt(member, size, (int) crc.getValue());
+    putInt(member, size + 4, length);
+    return member;
+  }
+
+  /**
+   * @param header holds at least the first {@link #HEADER_LENGTH} bytes of a gzip member.
+   * @return the size of the whole member, or -1 if its header isn't one this class writes.
+   */
+  static int memberSize(byte[] header) {
+    for (int i = 0; i < HEADER_PREFIX.length; i++) {
+      // The modification time, extra flags and operating system may be anything
+      if ((i < 4 || i >= 10) && header[i] != HEADER_PREFIX[i]) {
+        return -1;
+      }
+    }
+    int size = getInt(header, HEADER_PREFIX.length);
+    return size >= HEADER_LENGTH + TRAILER_LENGTH ? size : -1;
+  }
+
+  /**
+   * @param member is a complete gzip member with a header this class writes.
+   * @return the bytes it holds.
+   * @throws ZipException if the member is corrupt.
+   */
+  static byte[] decompress(byte[] member) throws ZipException {
+    int trailer = member.length - TRAILER_LENGTH;
+    int length = getInt(member, trailer + 4);
+    if (length < 0) {
+      throw new ZipException("Corrupt GZIP trailer");
+    }
+    byte[] data = new byte[length];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(member, HEADER_LENGTH, trailer - HEADER_LENGTH);
+      int inflated = 0;
+      while (inflated < length) {
+        int read = inflater.inflate(data, inflated, length - inflated);
+        if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new ZipException("Corrupt GZIP member: fewer bytes than its trailer says");
+        }
+        inflated += read;
+      }
+      // The deflated data must end exactly where the trailer starts
+      if (!inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+        throw new ZipException("Corrupt GZIP member: more bytes than its trailer says");
+      }
+      if (!inflater.finished() || inflater.getRemaining() != 0) {
+        throw new ZipException("Corrupt GZIP member");
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
+    } finally {
+      inflater.end();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    if ((int) crc.getValue() != getInt(member, trailer)) {
+      throw new ZipException("Corrupt GZIP trailer");
+    }
+    return data;
+  }
+
+  /**
+   * Waits for a block to be compressed or decompressed, rethrowing whatever went wrong doing so.
+   */
+  static byte[] await(FutureTask<byte[]> task) throws IOException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a block to be compressed");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new JsonIOException(e.getCause());
+    }
+  }
+
+  private static void putInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) value;
+    bytes[offset + 1] = (byte) (value >>> 8);
+    bytes[offset + 2] = (byte) (value >>> 16);
+    bytes[offset + 3] = (byte) (value >>> 24);
+  }
+
+  private static int getInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8
+        | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+  }
+}
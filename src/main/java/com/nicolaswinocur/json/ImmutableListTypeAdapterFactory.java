@@ -17,22 +17,22 @@
 package com.nicolaswinocur.json;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.$Gson$Types;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
- * Serializes and deserializes {@link ImmutableList} instances using an {@link ArrayList} as an
- * intermediary.
+ * Serializes and deserializes {@link ImmutableList} instances element by element: writes iterate
+ * the list itself, and reads add each element straight into an {@link ImmutableList.Builder}, so
+ * no intermediate collection is ever built.
  */
 final class ImmutableListTypeAdapterFactory implements TypeAdapterFactory {
 
@@ -43,25 +43,36 @@ final class ImmutableListTypeAdapterFactory implements TypeAdapterFactory {
       return null;
     }
 
-    com.google.common.reflect.TypeToken<ImmutableList<?>> betterToken =
-        (com.google.common.reflect.TypeToken<ImmutableList<?>>)
-            com.google.common.reflect.TypeToken.of(typeToken.getType());
-    final TypeAdapter<ArrayList<?>> arrayListAdapter =
-        (TypeAdapter<ArrayList<?>>)
-            gson.getAdapter(
-                TypeToken.get(
-                    betterToken.getSupertype(List.class).getSubtype(ArrayList.class).getType()));
+    Type elementType = $Gson$Types.getCollectionElementType(type, typeToken.getRawType());
+    final TypeAdapter<Object> elementAdapter = JsonMaps.valueAdapter(gson, elementType);
     return new TypeAdapter<T>() {
       @Override
       public void write(JsonWriter out, T value) throws IOException {
-        ArrayList<?> arrayList = Lists.newArrayList((List<?>) value);
-        arrayListAdapter.write(out, arrayList);
+        if (value == null) {
+          out.nullValue();
+          return;
+        }
+        ImmutableList<?> list = (ImmutableList<?>) value;
+        out.beginArray();
+        for (int i = 0; i < list.size(); i++) {
+          elementAdapter.write(out, list.get(i));
+        }
+        out.endArray();
       }
 
       @Override
       public T read(JsonReader in) throws IOException {
-        ArrayList<?> arrayList = arrayListAdapter.read(in);
-        return (T) ImmutableList.copyOf(arrayList);
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          return null;
+        }
+        ImmutableList.Builder<Object> builder = ImmutableList.builder();
+        in.beginArray();
+        while (in.hasNext()) {
+          builder.add(elementAdapter.read(in));
+        }
+        in.endArray();
+        return (T) builder.build();
       }
     };
   }
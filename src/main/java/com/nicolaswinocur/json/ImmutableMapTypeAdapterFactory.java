@@ -18,51 +18,60 @@
 package com.nicolaswinocur.json;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Maps;
 import com.google.gson.Gson;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.$Gson$Types;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 /**
- * Serializes and deserializes {@link ImmutableMap} instances using a {@link LinkedHashMap} as an
- * intermediary.
+ * Serializes and deserializes {@link ImmutableMap} instances entry by entry: writes iterate the
+ * map itself, and reads put each entry straight into an {@link ImmutableMap.Builder}, so no
+ * intermediate map is ever built. Both keep the map's iteration order.
  */
 final class ImmutableMapTypeAdapterFactory implements TypeAdapterFactory {
 
-  @SuppressWarnings("unchecked")
   public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
     Type type = typeToken.getType();
     if (typeToken.getRawType() != ImmutableMap.class || !(type instanceof ParameterizedType)) {
       return null;
     }
 
-    com.google.common.reflect.TypeToken<ImmutableMap<?, ?>> betterToken =
-        (com.google.common.reflect.TypeToken<ImmutableMap<?, ?>>)
-            com.google.common.reflect.TypeToken.of(typeToken.getType());
-    final TypeAdapter<LinkedHashMap<?, ?>> linkedHashMapAdapter =
-        (TypeAdapter<LinkedHashMap<?, ?>>)
-            gson.getAdapter(
-                TypeToken.get(
-                    betterToken.getSupertype(Map.class).getSubtype(LinkedHashMap.class).getType()));
+    Type[] keyAndValueTypes = $Gson$Types.getMapKeyAndValueTypes(type, typeToken.getRawType());
+    final TypeAdapter<Object> keyAdapter = JsonMaps.keyAdapter(gson, keyAndValueTypes[0]);
+    final TypeAdapter<Object> valueAdapter = JsonMaps.valueAdapter(gson, keyAndValueTypes[1]);
     return new TypeAdapter<T>() {
       @Override
       public void write(JsonWriter out, T value) throws IOException {
-        LinkedHashMap<?, ?> linkedHashMap = Maps.newLinkedHashMap((Map<?, ?>) value);
-        linkedHashMapAdapter.write(out, linkedHashMap);
+        if (value == null) {
+          out.nullValue();
+          return;
+        }
+        JsonMaps.writeObject(out, ((ImmutableMap<?, ?>) value).entrySet(), valueAdapter);
       }
 
+      @SuppressWarnings("unchecked")
       @Override
       public T read(JsonReader in) throws IOException {
-        LinkedHashMap<?, ?> linkedHashMap = linkedHashMapAdapter.read(in);
-        return (T) ImmutableMap.copyOf(linkedHashMap);
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          return null;
+        }
+        ImmutableMap.Builder<Object, Object> builder = ImmutableMap.builder();
+        JsonMaps.readEntries(in, keyAdapter,
+            (reader, key) -> builder.put(key, valueAdapter.read(reader)));
+        try {
+          return (T) builder.build();
+        } catch (IllegalArgumentException e) {
+          // ImmutableMap.Builder rejects duplicate keys only once it's built
+          throw JsonMaps.duplicateKey(e);
+        }
       }
     };
   }
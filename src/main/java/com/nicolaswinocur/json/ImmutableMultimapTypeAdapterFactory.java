@@ -19,101 +19,148 @@ package com.nicolaswinocur.json;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.SetMultimap;
-import com.google.common.reflect.TypeParameter;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.SortedSetMultimap;
+import com.google.common.collect.TreeMultimap;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
-import java.lang.reflect.ParameterizedType;
-import java.util.List;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
- * Serializes and deserializes {@link ImmutableMultimap} instances using maps of collections as
- * intermediaries.
+ * Serializes and deserializes {@link ImmutableMultimap} instances (and naturally-ordered
+ * {@link SortedSetMultimap}s) as JSON objects mapping each key to an array of its values, the same
+ * wire format a map of collections would produce. Writes go group by group straight from the
+ * multimap, and reads put each value straight into the multimap's builder, so no intermediate map
+ * of collections is ever built.
  */
 final class ImmutableMultimapTypeAdapterFactory implements TypeAdapterFactory {
-  private static <K, V> TypeToken<Map<K, List<V>>> getMapOfListsToken(
-      TypeToken<ListMultimap<K, V>> from) {
-    ParameterizedType rawType = (ParameterizedType) from.getSupertype(ListMultimap.class).getType();
-    @SuppressWarnings("unchecked") // key type is K
-    TypeToken<K> keyType = (TypeToken<K>) TypeToken.of(rawType.getActualTypeArguments()[0]);
-    @SuppressWarnings("unchecked") // value type is V
-    TypeToken<V> valueType = (TypeToken<V>) TypeToken.of(rawType.getActualTypeArguments()[1]);
-    return new TypeToken<Map<K, List<V>>>() {}
-        .where(new TypeParameter<K>() {}, keyType)
-        .where(new TypeParameter<V>() {}, valueType);
+
+  /**
+   * Receives each key/value pair read, in order, and then produces the finished multimap.
+   */
+  private interface MultimapCollector {
+    void put(Object key, Object value);
+
+    Multimap<?, ?> build();
+  }
+
+  private static MultimapCollector collect(
+      final ImmutableMultimap.Builder<Object, Object> builder) {
+    return new MultimapCollector() {
+      @Override
+      public void put(Object key, Object value) {
+        builder.put(key, value);
+      }
+
+      @Override
+      public Multimap<?, ?> build() {
+        return builder.build();
+      }
+    };
   }
 
-  private static <K, V> TypeToken<Map<K, Set<V>>> getMapOfSetsToken(
-      TypeToken<SetMultimap<K, V>> from) {
-    ParameterizedType rawType = (ParameterizedType) from.getSupertype(SetMultimap.class).getType();
-    @SuppressWarnings("unchecked") // key type is K
-    TypeToken<K> keyType = (TypeToken<K>) TypeToken.of(rawType.getActualTypeArguments()[0]);
-    @SuppressWarnings("unchecked") // value type is V
-    TypeToken<V> valueType = (TypeToken<V>) TypeToken.of(rawType.getActualTypeArguments()[1]);
-    return new TypeToken<Map<K, Set<V>>>() {}
-        .where(new TypeParameter<K>() {}, keyType)
-        .where(new TypeParameter<V>() {}, valueType);
+  private static MultimapCollector collect(final Multimap<Object, Object> multimap) {
+    return new MultimapCollector() {
+      @Override
+      public void put(Object key, Object value) {
+        multimap.put(key, value);
+      }
+
+      @Override
+      public Multimap<?, ?> build() {
+        return multimap;
+      }
+    };
+  }
+
+  /**
+   * @return the key or value type of the multimap, widening wildcards to their upper bound the same
+   *         way Gson does for the element types of collections.
+   */
+  private static Type getTypeArgument(TypeToken<?> multimapToken, int index) {
+    Type type = multimapToken.resolveType(Multimap.class.getTypeParameters()[index]).getType();
+    if (type instanceof WildcardType) {
+      type = ((WildcardType) type).getUpperBounds()[0];
+    }
+    return type;
   }
 
   @SuppressWarnings({"unchecked", "rawtypes"})
   public <T> TypeAdapter<T> create(Gson gson, com.google.gson.reflect.TypeToken<T> typeToken) {
-    if (ImmutableListMultimap.class.isAssignableFrom(typeToken.getRawType())) {
-      TypeToken<Map<?, List<?>>> mapToken =
-          getMapOfListsToken((TypeToken) TypeToken.of(typeToken.getType()));
-      final TypeAdapter<Map<?, List<?>>> adapter =
-          (TypeAdapter<Map<?, List<?>>>)
-              gson.getAdapter(com.google.gson.reflect.TypeToken.get(mapToken.getType()));
-      return new TypeAdapter<T>() {
-        @Override
-        public void write(JsonWriter out, T value) throws IOException {
-          ImmutableListMultimap<?, ?> multimap = (ImmutableListMultimap<?, ?>) value;
-          adapter.write(out, (Map) multimap.asMap());
-        }
+    Class<? super T> rawType = typeToken.getRawType();
+    final Supplier<MultimapCollector> collectors;
+    if (ImmutableListMultimap.class.isAssignableFrom(rawType)) {
+      collectors = () -> collect(ImmutableListMultimap.builder());
+    } else if (ImmutableSetMultimap.class.isAssignableFrom(rawType)) {
+      collectors = () -> collect(ImmutableSetMultimap.builder());
+    } else if (rawType == ImmutableMultimap.class) {
+      // ImmutableMultimap.builder() builds an ImmutableListMultimap
+      collectors = () -> collect(ImmutableMultimap.builder());
+    } else if (rawType == SortedSetMultimap.class || rawType == TreeMultimap.class) {
+      collectors = () -> collect((Multimap) TreeMultimap.create());
+    } else {
+      return null;
+    }
 
-        @Override
-        public T read(JsonReader in) throws IOException {
-          Map<?, List<?>> value = adapter.read(in);
-          ImmutableListMultimap.Builder builder = ImmutableListMultimap.builder();
-          for (Entry<?, List<?>> entry : value.entrySet()) {
-            builder.putAll(entry.getKey(), entry.getValue());
-          }
-          return (T) builder.build();
+    TypeToken<?> multimapToken = TypeToken.of(typeToken.getType());
+    final TypeAdapter<Object> keyAdapter =
+        JsonMaps.keyAdapter(gson, getTypeArgument(multimapToken, 0));
+    final TypeAdapter<Object> valueAdapter =
+        JsonMaps.valueAdapter(gson, getTypeArgument(multimapToken, 1));
+    return new TypeAdapter<T>() {
+      @Override
+      public void write(JsonWriter out, T value) throws IOException {
+        if (value == null) {
+          out.nullValue();
+          return;
         }
-      };
-    } else if (ImmutableSetMultimap.class.isAssignableFrom(typeToken.getRawType())) {
-      TypeToken<Map<?, Set<?>>> mapToken =
-          getMapOfSetsToken((TypeToken) TypeToken.of(typeToken.getType()));
-      final TypeAdapter<Map<?, Set<?>>> adapter =
-          (TypeAdapter<Map<?, Set<?>>>)
-              gson.getAdapter(com.google.gson.reflect.TypeToken.get(mapToken.getType()));
-      return new TypeAdapter<T>() {
-        @Override
-        public void write(JsonWriter out, T value) throws IOException {
-          ImmutableSetMultimap<?, ?> multimap = (ImmutableSetMultimap<?, ?>) value;
-          adapter.write(out, (Map) multimap.asMap());
+        // For ImmutableMultimaps asMap() is the backing map itself rather than a copy
+        out.beginObject();
+        for (Map.Entry<?, ? extends Collection<?>> group : ((Multimap<?, ?>) value).asMap()
+            .entrySet()) {
+          out.name(String.valueOf(group.getKey()));
+          out.beginArray();
+          for (Object element : group.getValue()) {
+            valueAdapter.write(out, element);
+          }
+          out.endArray();
         }
+        out.endObject();
+      }
 
-        @Override
-        public T read(JsonReader in) throws IOException {
-          Map<?, Set<?>> value = adapter.read(in);
-          ImmutableSetMultimap.Builder builder = ImmutableSetMultimap.builder();
-          for (Entry<?, Set<?>> entry : value.entrySet()) {
-            builder.putAll(entry.getKey(), entry.getValue());
-          }
-          return (T) builder.build();
+      @Override
+      public T read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          return null;
         }
-      };
-    } else {
-      return null;
-    }
+        final MultimapCollector collector = collectors.get();
+        // A key's values are all in one group, so a key read twice is rejected as a Map would
+        final Set<Object> keys = new HashSet<>();
+        JsonMaps.readEntries(in, keyAdapter, (reader, key) -> {
+          if (!keys.add(key)) {
+            throw JsonMaps.duplicateKey(key);
+          }
+          reader.beginArray();
+          while (reader.hasNext()) {
+            collector.put(key, valueAdapter.read(reader));
+          }
+          reader.endArray();
+        });
+        return (T) collector.build();
+      }
+    };
   }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import com.google.common.primitives.ImmutableDoubleArray;
+import com.google.common.primitives.ImmutableIntArray;
+import com.google.common.primitives.ImmutableLongArray;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Serializes and deserializes Guava's {@link ImmutableIntArray}, {@link ImmutableLongArray} and
+ * {@link ImmutableDoubleArray} as JSON arrays of numbers, reading and writing each element as a
+ * primitive: unlike an {@code ImmutableList<Long>}, no element is ever boxed.
+ */
+final class ImmutablePrimitiveArrayTypeAdapterFactory implements TypeAdapterFactory {
+
+  @SuppressWarnings("unchecked")
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    Class<? super T> rawType = typeToken.getRawType();
+    if (rawType == ImmutableIntArray.class) {
+      return (TypeAdapter<T>) new IntArrayAdapter().nullSafe();
+    }
+    if (rawType == ImmutableLongArray.class) {
+      return (TypeAdapter<T>) new LongArrayAdapter().nullSafe();
+    }
+    if (rawType == ImmutableDoubleArray.class) {
+      return (TypeAdapter<T>) new DoubleArrayAdapter(gson.getAdapter(double.class)).nullSafe();
+    }
+    return null;
+  }
+
+  static ImmutableIntArray readIntArray(JsonReader in) throws IOException {
+    ImmutableIntArray.Builder builder = ImmutableIntArray.builder();
+    in.beginArray();
+    while (in.hasNext()) {
+      try {
+        builder.add(in.nextInt());
+      } catch (NumberFormatException e) {
+        throw new JsonSyntaxException(e);
+      }
+    }
+    in.endArray();
+    return builder.build();
+  }
+
+  static ImmutableLongArray readLongArray(JsonReader in) throws IOException {
+    ImmutableLongArray.Builder builder = ImmutableLongArray.builder();
+    in.beginArray();
+    while (in.hasNext()) {
+      try {
+        builder.add(in.nextLong());
+      } catch (NumberFormatException e) {
+        throw new JsonSyntaxException(e);
+      }
+    }
+    in.endArray();
+    return builder.build();
+  }
+
+  static ImmutableDoubleArray readDoubleArray(JsonReader in) throws IOException {
+    ImmutableDoubleArray.Builder builder = ImmutableDoubleArray.builder();
+    in.beginArray();
+    while (in.hasNext()) {
+      try {
+        builder.add(in.nextDouble());
+      } catch (NumberFormatException e) {
+        throw new JsonSyntaxException(e);
+      }
+    }
+    in.endArray();
+    return builder.build();
+  }
+
+  /**
+   * Writes a finite double as a primitive. NaN and the infinities are left to Gson's own double
+   * adapter, which writes them or refuses to according to
+   * {@link com.google.gson.GsonBuilder#serializeSpecialFloatingPointValues()}.
+   *
+   * @param doubleAdapter is the adapter gson uses for doubles.
+   */
+  static void writeDouble(JsonWriter out, double value, TypeAdapter<Double> doubleAdapter)
+      throws IOException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      doubleAdapter.write(out, value);
+    } else {
+      out.value(value);
+    }
+  }
+
+  private static final class IntArrayAdapter extends TypeAdapter<ImmutableIntArray> {
+    @Override
+    public void write(JsonWriter out, ImmutableIntArray value) throws IOException {
+      out.beginArray();
+      for (int i = 0; i < value.length(); i++) {
+        out.value(value.get(i));
+      }
+      out.endArray();
+    }
+
+    @Override
+    public ImmutableIntArray read(JsonReader in) throws IOException {
+      return readIntArray(in);
+    }
+  }
+
+  private static final class LongArrayAdapter extends TypeAdapter<ImmutableLongArray> {
+    @Override
+    public void write(JsonWriter out, ImmutableLongArray value) throws IOException {
+      out.beginArray();
+      for (int i = 0; i < value.length(); i++) {
+        out.value(value.get(i));
+      }
+      out.endArray();
+    }
+
+    @Override
+    public ImmutableLongArray read(JsonReader in) throws IOException {
+      return readLongArray(in);
+    }
+  }
+
+  private static final class DoubleArrayAdapter extends TypeAdapter<ImmutableDoubleArray> {
+    private final TypeAdapter<Double> doubleAdapter;
+
+    DoubleArrayAdapter(TypeAdapter<Double> doubleAdapter) {
+      this.doubleAdapter = doubleAdapter;
+    }
+
+    @Override
+    public void write(JsonWriter out, ImmutableDoubleArray value) throws IOException {
+      out.beginArray();
+      for (int i = 0; i < value.length(); i++) {
+        writeDouble(out, value.get(i), doubleAdapter);
+      }
+      out.endArray();
+    }
+
+    @Override
+    public ImmutableDoubleArray read(JsonReader in) throws IOException {
+      return readDoubleArray(in);
+    }
+  }
+}
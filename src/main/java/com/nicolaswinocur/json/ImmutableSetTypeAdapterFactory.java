@@ -18,22 +18,22 @@
 package com.nicolaswinocur.json;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.$Gson$Types;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.LinkedHashSet;
-import java.util.Set;
 
 /**
- * Serializes and deserializes {@link ImmutableSet} instances using a {@link LinkedHashSet} as an
- * intermediary.
+ * Serializes and deserializes {@link ImmutableSet} instances element by element: writes iterate
+ * the set itself, and reads add each element straight into an {@link ImmutableSet.Builder}, so no
+ * intermediate collection is ever built. Both keep the set's iteration order.
  */
 final class ImmutableSetTypeAdapterFactory implements TypeAdapterFactory {
 
@@ -44,25 +44,35 @@ final class ImmutableSetTypeAdapterFactory implements TypeAdapterFactory {
       return null;
     }
 
-    com.google.common.reflect.TypeToken<ImmutableSet<?>> betterToken =
-        (com.google.common.reflect.TypeToken<ImmutableSet<?>>)
-            com.google.common.reflect.TypeToken.of(typeToken.getType());
-    final TypeAdapter<LinkedHashSet<?>> linkedHashSetAdapter =
-        (TypeAdapter<LinkedHashSet<?>>)
-            gson.getAdapter(
-                TypeToken.get(
-                    betterToken.getSupertype(Set.class).getSubtype(LinkedHashSet.class).getType()));
+    Type elementType = $Gson$Types.getCollectionElementType(type, typeToken.getRawType());
+    final TypeAdapter<Object> elementAdapter = JsonMaps.valueAdapter(gson, elementType);
     return new TypeAdapter<T>() {
       @Override
       public void write(JsonWriter out, T value) throws IOException {
-        LinkedHashSet<?> linkedHashSet = Sets.newLinkedHashSet((Set<?>) value);
-        linkedHashSetAdapter.write(out, linkedHashSet);
+        if (value == null) {
+          out.nullValue();
+          return;
+        }
+        out.beginArray();
+        for (Object element : (ImmutableSet<?>) value) {
+          elementAdapter.write(out, element);
+        }
+        out.endArray();
       }
 
       @Override
       public T read(JsonReader in) throws IOException {
-        LinkedHashSet<?> linkedHashSet = linkedHashSetAdapter.read(in);
-        return (T) ImmutableSet.copyOf(linkedHashSet);
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          return null;
+        }
+        ImmutableSet.Builder<Object> builder = ImmutableSet.builder();
+        in.beginArray();
+        while (in.hasNext()) {
+          builder.add(elementAdapter.read(in));
+        }
+        in.endArray();
+        return (T) builder.build();
       }
     };
   }
@@ -0,0 +1,79 @@
+/*
+ * Created 2018 by Nicolas Winocur
+ * Largely based on code Copyright (C) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.$Gson$Types;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+/**
+ * Serializes and deserializes {@link ImmutableSortedMap} instances, reading them back with natural
+ * ordering. Entries are written straight from the map, and read straight into an
+ * {@link ImmutableSortedMap.Builder}, whose sort is linear when the entries arrive in order (as
+ * they do for anything this factory wrote).
+ */
+final class ImmutableSortedMapTypeAdapterFactory implements TypeAdapterFactory {
+
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    Type type = typeToken.getType();
+    if (typeToken.getRawType() != ImmutableSortedMap.class
+        || !(type instanceof ParameterizedType)) {
+      return null;
+    }
+
+    Type[] keyAndValueTypes = $Gson$Types.getMapKeyAndValueTypes(type, typeToken.getRawType());
+    final TypeAdapter<Object> keyAdapter = JsonMaps.keyAdapter(gson, keyAndValueTypes[0]);
+    final TypeAdapter<Object> valueAdapter = JsonMaps.valueAdapter(gson, keyAndValueTypes[1]);
+    return new TypeAdapter<T>() {
+      @Override
+      public void write(JsonWriter out, T value) throws IOException {
+        if (value == null) {
+          out.nullValue();
+          return;
+        }
+        JsonMaps.writeObject(out, ((ImmutableSortedMap<?, ?>) value).entrySet(), valueAdapter);
+      }
+
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      @Override
+      public T read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          return null;
+        }
+        ImmutableSortedMap.Builder builder = ImmutableSortedMap.naturalOrder();
+        JsonMaps.readEntries(in, keyAdapter,
+            (reader, key) -> builder.put(key, valueAdapter.read(reader)));
+        try {
+          return (T) builder.build();
+        } catch (IllegalArgumentException e) {
+          throw JsonMaps.duplicateKey(e);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Random access to the elements of a top-level JSON array stored in a file: using a
+ * {@link JsonArrayIndex}, each read maps just the bytes of the elements asked for and deserializes
+ * only those.
+ *
+ * <p>Instances are thread-safe, since each read maps its own view of the file; they should be
+ * closed once no longer needed, which closes the file.
+ *
+ * @see GsonCodec#openIndexed(java.nio.file.Path, Class)
+ */
+public final class IndexedJsonArray<E> implements Closeable {
+
+  private final Gson gson;
+  private final FileChannel channel;
+  private final JsonArrayIndex index;
+  private final Class<E> type;
+  private final CodecListener listener;
+  private final int deduplicationCacheSize;
+
+  IndexedJsonArray(Gson gson, FileChannel channel, JsonArrayIndex index, Class<E> type,
+      CodecListener listener, int deduplicationCacheSize) {
+    this.gson = gson;
+    this.channel = channel;
+    this.index = index;
+    this.type = type;
+    this.listener = listener;
+    this.deduplicationCacheSize = deduplicationCacheSize;
+  }
+
+  /**
+   * @return the index used to find elements, which can be saved with
+   *         {@link JsonArrayIndex#writeTo(java.nio.file.Path)} if it had to be built.
+   */
+  public JsonArrayIndex index() {
+    return index;
+  }
+
+  /**
+   * @return the number of elements in the array.
+   */
+  public int size() {
+    return index.size();
+  }
+
+  /**
+   * @param i is the position of the element within the array.
+   * @return that element, deserialized.
+   * @throws IOException if unable to read the file.
+   * @throws com.google.gson.JsonParseException naming the index of the element if it could not be
+   *         read.
+   */
+  public E get(int i) throws IOException {
+    Preconditions.checkElementIndex(i, index.size());
+    long start = index.start(i);
+    long length = index.end(i) - start;
+    OperationMetrics metrics = new OperationMetrics(listener, i, deduplicationCacheSize);
+    E toReturn = length > ByteBufferReader.MAX_REGION_SIZE
+        ? read(metrics, ByteBufferReader.mapping(channel, start, length))
+        : read(metrics, new ByteBufferReader(map(start, length)));
+    metrics.readFinished(length);
+    return toReturn;
+  }
+
+  /**
+   * @param from is the position of the first element to read.
+   * @param to is the position just past the last element to read.
+   * @return elements {@code [from, to)}, deserialized, in order.
+   * @throws IOException if unable to read the file.
+   * @throws com.google.gson.JsonParseException naming the index of the first element which could
+   *         not be read.
+   */
+  public ImmutableList<E> range(int from, int to) throws IOException {
+    Preconditions.checkPositionIndexes(from, to, index.size());
+    ImmutableList.Builder<E> toReturn = ImmutableList.builderWithExpectedSize(to - from);
+    OperationMetrics metrics = new OperationMetrics(listener, from, deduplicationCacheSize);
+    // Map as many consecutive elements at once as fit in one region, rather than one per element
+    ByteBuffer region = null;
+    long regionStart = 0;
+    long rangeEnd = to > from ? index.end(to - 1) : 0;
+    for (int i = from; i < to; i++) {
+      long start = index.start(i);
+      long end = index.end(i);
+      if (end - start > ByteBufferReader.MAX_REGION_SIZE) {
+        toReturn.add(read(metrics, ByteBufferReader.mapping(channel, start, end - start)));
+        continue;
+      }
+      if (region == null || end > regionStart + region.capacity()) {
+        regionStart = start;
+        region = map(start, Math.min(ByteBufferReader.MAX_REGION_SIZE, rangeEnd - start));
+      }
+      ByteBuffer element = region.duplicate();
+      ((Buffer) element).limit((int) (end - regionStart)).position((int) (start - regionStart));
+      toReturn.add(read(metrics, new ByteBufferReader(element)));
+    }
+    if (to > from) {
+      metrics.readFinished(rangeEnd - index.start(from));
+    }
+    return toReturn.build();
+  }
+
+  private ByteBuffer map(long start, long length) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+  }
+
+  /**
+   * @param metrics counts elements read so far, and so gives the index of this one.
+   */
+  private E read(OperationMetrics metrics, Reader element) {
+    long start = metrics.start();
+    E toReturn;
+    metrics.beginBinding();
+    try {
+      toReturn = gson.fromJson(new JsonReader(element), type);
+    } catch (JsonSyntaxException | JsonIOException e) {
+      metrics.readFailed(e);
+      throw ParallelJsonReader.elementError(metrics.nextIndex(), e);
+    } finally {
+      metrics.endBinding();
+    }
+    metrics.elementRead(type, start);
+    return toReturn;
+  }
+
+  /**
+   * Closes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Wraps a TypeAdapterFactory so that a {@link CodecListener} hears about every adapter it creates
+ * and how long each of those adapters spends reading and writing. Only used by codecs with a
+ * listener other than {@link CodecListener#NONE}, so codecs without one run the factories bare.
+ */
+final class InstrumentedTypeAdapterFactory implements TypeAdapterFactory {
+
+  private final TypeAdapterFactory factory;
+  private final CodecListener listener;
+
+  InstrumentedTypeAdapterFactory(TypeAdapterFactory factory, CodecListener listener) {
+    this.factory = factory;
+    this.listener = listener;
+  }
+
+  public <T> TypeAdapter<T> create(Gson gson, final TypeToken<T> typeToken) {
+    final TypeAdapter<T> delegate = factory.create(gson, typeToken);
+    if (delegate == null) {
+      return null;
+    }
+    listener.adapterCreated(factory, typeToken);
+    return new TypeAdapter<T>() {
+      @Override
+      public void write(JsonWriter out, T value) throws IOException {
+        long start = System.nanoTime();
+        delegate.write(out, value);
+        listener.adapterWritten(factory, typeToken, System.nanoTime() - start);
+      }
+
+      @Override
+      public T read(JsonReader in) throws IOException {
+        long start = System.nanoTime();
+        T toReturn = delegate.read(in);
+        listener.adapterRead(factory, typeToken, System.nanoTime() - start);
+        return toReturn;
+      }
+    };
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import com.google.common.base.Preconditions;
+
+/**
+ * The byte offsets of every element of a top-level JSON array stored in a file, which lets
+ * {@link IndexedJsonArray} deserialize any single element or range of elements without parsing the
+ * ones before it.
+ *
+ * <p>An index is either recorded while the array is written, by
+ * {@link GsonCodec#writeIndexedJsonStream(Path, java.util.Collection)}, or built afterwards by
+ * {@link #build(Path)} in a single scan of the array's bytes. Either way it can be saved as a
+ * sidecar file next to the array, whose name is given by {@link #sidecarFor(Path)}. The sidecar
+ * holds a short header followed by twelve bytes per element; it also records the length and
+ * last-modified time of the array file it describes, so that a sidecar left over from an older
+ * version of the file is noticed by {@link #describes(Path)} rather than trusted.
+ *
+ * <p>Instances are immutable.
+ */
+public final class JsonArrayIndex {
+
+  /** "JAIX" */
+  private static final int MAGIC = 0x4A414958;
+  private static final int VERSION = 2;
+  /** Stands for the last-modified time of an index which wasn't built from a file. */
+  private static final long UNKNOWN_TIME = Long.MIN_VALUE;
+  private static final String SIDECAR_SUFFIX = ".idx";
+
+  private final long dataLength;
+  /** When the array file was last modified, in nanoseconds since the epoch, or UNKNOWN_TIME. */
+  private final long dataModified;
+  private final long[] starts;
+  private final int[] lengths;
+
+  private JsonArrayIndex(long dataLength, long dataModified, long[] starts, int[] lengths) {
+    this.dataLength = dataLength;
+    this.dataModified = dataModified;
+    this.starts = starts;
+    this.lengths = lengths;
+  }
+
+  /**
+   * @param path is a file holding a JSON array.
+   * @return where the index of that file is saved: a file of the same name plus ".idx", in the same
+   *         directory.
+   */
+  public static Path sidecarFor(Path path) {
+    return path.resolveSibling(path.getFileName() + SIDECAR_SUFFIX);
+  }
+
+  /**
+   * Builds an index by scanning a file's bytes once, without deserializing anything.
+   *
+   * @param path is the file holding the serialized array.
+   * @return the index of that array.
+   * @throws IOException if unable to read the file.
+   * @throws com.google.gson.JsonSyntaxException if the file doesn't hold a complete array.
+   */
+  public static JsonArrayIndex build(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return build(channel, path);
+    }
+  }
+
+  /**
+   * Builds an index from an open file. Unlike {@link #build(Path)}, this doesn't know when the file
+   * was last modified, so the index never {@link #describes(Path) describes} it once saved.
+   *
+   * @param channel holds the serialized array, from its start to its end. Neither its position nor
+   *        whether it's open is changed.
+   * @return the index of that array.
+   * @throws IOException if unable to read the file.
+   * @see #build(Path)
+   */
+  public static JsonArrayIndex build(FileChannel channel) throws IOException {
+    return build(channel, null);
+  }
+
+  /**
+   * @param path is the file channel was opened from, or null if not known.
+   */
+  static JsonArrayIndex build(FileChannel channel, Path path) throws IOException {
+    // Taken before scanning, so that the file changing meanwhile makes the index stale
+    long modified = path == null ? UNKNOWN_TIME : lastModified(path);
+    Builder builder = new Builder();
+    long size = channel.size();
+    for (long position = 0; position < size; position += ByteBufferReader.MAX_REGION_SIZE) {
+      builder.scanner.scan(channel.map(FileChannel.MapMode.READ_ONLY, position,
+          Math.min(ByteBufferReader.MAX_REGION_SIZE, size - position)));
+    }
+    return builder.build(modified);
+  }
+
+  /**
+   * @param path is the sidecar file to read, usually {@link #sidecarFor(Path)} of the array file.
+   * @return the index saved in that file.
+   * @throws IOException if unable to read the file, or if it doesn't hold an index.
+   */
+  public static JsonArrayIndex readFrom(Path path) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a JSON array index: " + path);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported JSON array index version " + version + ": " + path);
+      }
+      long dataLength = in.readLong();
+      long dataModified = in.readLong();
+      int size = in.readInt();
+      long[] starts = new long[size];
+      int[] lengths = new int[size];
+      for (int i = 0; i < size; i++) {
+        starts[i] = in.readLong();
+        lengths[i] = in.readInt();
+      }
+      return new JsonArrayIndex(dataLength, dataModified, starts, lengths);
+    }
+  }
+
+  /**
+   * @param path is where to save the index, usually {@link #sidecarFor(Path)} of the array file.
+   *        It is created or truncated first.
+   * @throws IOException if unable to write the file.
+   */
+  public void writeTo(Path path) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(dataLength);
+      out.writeLong(dataModified);
+      out.writeInt(starts.length);
+      for (int i = 0; i < starts.length; i++) {
+        out.writeLong(starts[i]);
+        out.writeInt(lengths[i]);
+      }
+    }
+  }
+
+  /**
+   * @return the number of elements in the array.
+   */
+  public int size() {
+    return starts.length;
+  }
+
+  /**
+   * @return the offset of the first byte of element {@code index}.
+   */
+  public long start(int index) {
+    Preconditions.checkElementIndex(index, starts.length);
+    return starts[index];
+  }
+
+  /**
+   * @return the offset just past the last byte of element {@code index}.
+   */
+  public long end(int index) {
+    Preconditions.checkElementIndex(index, starts.length);
+    return starts[index] + lengths[index];
+  }
+
+  /**
+   * @return the length in bytes of the whole array file this index describes.
+   */
+  public long dataLength() {
+    return dataLength;
+  }
+
+  /**
+   * @param path is a file holding a JSON array.
+   * @return whether this index was built from that file as it is now: whether the file still has
+   *         the length and last-modified time it had then.
+   * @throws IOException if unable to read the file's attributes.
+   */
+  public boolean describes(Path path) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    return dataModified != UNKNOWN_TIME && attributes.size() == dataLength
+        && attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) == dataModified;
+  }
+
+  /**
+   * @return when the file was last modified, in nanoseconds since the epoch.
+   */
+  static long lastModified(Path path) throws IOException {
+    return Files.getLastModifiedTime(path).to(TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Collects element offsets as a {@link JsonArrayScanner} reports them, either from bytes read
+   * back from a file or from bytes on their way to one.
+   */
+  static final class Builder implements JsonArrayScanner.Listener {
+
+    final JsonArrayScanner scanner = new JsonArrayScanner(this);
+    private long[] starts = new long[1024];
+    private int[] lengths = new int[1024];
+    private int size = 0;
+
+    @Override
+    public void element(long index, long start, long end) {
+      if (size == Integer.MAX_VALUE) {
+        throw new IllegalStateException("Too many elements to index: " + index);
+      }
+      if (end - start > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Element " + index + " is too long to index");
+      }
+      if (size == starts.length) {
+        int capacity = (int) Math.min(Integer.MAX_VALUE, starts.length * 2L);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+      }
+      starts[size] = start;
+      lengths[size] = (int) (end - start);
+      size++;
+    }
+
+    /**
+     * @return a channel which scans every byte actually written to {@code channel} before
+     *         returning. Closing it doesn't close {@code channel}.
+     */
+    WritableByteChannel scanning(final WritableByteChannel channel) {
+      return new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+          int from = src.position();
+          int written = channel.write(src);
+          ByteBuffer scanned = src.duplicate();
+          ((Buffer) scanned).limit(from + written).position(from);
+          scanner.scan(scanned);
+          return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+          return channel.isOpen();
+        }
+
+        @Override
+        public void close() {}
+      };
+    }
+
+    /**
+     * @return the index of everything scanned, which must have been a complete array.
+     * @throws com.google.gson.JsonSyntaxException if it wasn't.
+     */
+    JsonArrayIndex build() {
+      return build(UNKNOWN_TIME);
+    }
+
+    /**
+     * @param dataModified is when the file which was scanned was last modified, in nanoseconds
+     *        since the epoch.
+     * @see #build()
+     */
+    JsonArrayIndex build(long dataModified) {
+      scanner.finish();
+      return new JsonArrayIndex(scanner.position(), dataModified, Arrays.copyOf(starts, size),
+          Arrays.copyOf(lengths, size));
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Lazily deserializes the elements of a top-level JSON array one at a time, so that only the
+ * element most recently returned (plus the reader's buffers) needs to be held in memory.
+ *
+ * <p>Since {@link Iterator} methods can't throw checked exceptions, problems reading the underlying
+ * stream surface as {@link JsonIOException} and problems with its content as
+ * {@link JsonSyntaxException}, the same unchecked exceptions {@link Gson#fromJson} uses. Instances
+ * are not thread-safe, and should be closed once no longer needed (closing also closes the
+ * underlying stream).
+ *
+ * <p>An iterator opened with a {@link ReadProjection} only binds the projected members of each
+ * element, and skips past elements the projection's filters reject without binding them at all.
+ *
+ * @param <E> is the type every element of the array is deserialized as.
+ */
+public final class JsonArrayIterator<E> implements Iterator<E>, Closeable {
+
+  private final Gson gson;
+  private final JsonReader reader;
+  private final Class<E> type;
+  private final OperationMetrics metrics;
+  private final LongSupplier bytesRead;
+  private final ReadProjection projection;
+  private final ProjectedJsonReader projected;
+  /** What to bind the next element from, once a projection has accepted it. */
+  private JsonReader selected;
+  private boolean started = false;
+  private boolean finished = false;
+
+  /**
+   * @param bytesRead gives the number of bytes read from the underlying stream so far. It's only
+   *        called if {@code metrics} is enabled.
+   */
+  JsonArrayIterator(Gson gson, JsonReader reader, Class<E> type, OperationMetrics metrics,
+      LongSupplier bytesRead) {
+    this(gson, reader, type, metrics, bytesRead, null);
+  }
+
+  /**
+   * @param bytesRead gives the number of bytes read from the underlying stream so far. It's only
+   *        called if {@code metrics} is enabled.
+   * @param projection chooses the members and elements to bind, or is null to bind them all.
+   */
+  JsonArrayIterator(Gson gson, JsonReader reader, Class<E> type, OperationMetrics metrics,
+      LongSupplier bytesRead, ReadProjection projection) {
+    this.gson = gson;
+    this.reader = reader;
+    this.type = type;
+    this.metrics = metrics;
+    this.bytesRead = bytesRead;
+    this.projection = projection;
+    this.projected = projection == null ? null : new ProjectedJsonReader(reader, projection::keeps);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (selected != null) {
+      return true;
+    }
+    if (finished) {
+      return false;
+    }
+    try {
+      if (!started) {
+        reader.beginArray();
+        started = true;
+      }
+      while (reader.hasNext()) {
+        if (projection == null) {
+          return true;
+        }
+        selected = projection.select(reader, projected);
+        if (selected != null) {
+          return true;
+        }
+        metrics.elementSkipped();
+      }
+      reader.endArray();
+      finished = true;
+      reportFinished();
+      return false;
+    } catch (MalformedJsonException | IllegalStateException e) {
+      metrics.readFailed(e);
+      throw new JsonSyntaxException(e);
+    } catch (IOException e) {
+      metrics.readFailed(e);
+      throw new JsonIOException(e);
+    }
+  }
+
+  @Override
+  public E next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    long start = metrics.start();
+    E toReturn;
+    metrics.beginBinding();
+    try {
+      JsonReader element = selected == null ? reader : selected;
+      selected = null;
+      toReturn = gson.fromJson(element, type);
+    } catch (RuntimeException e) {
+      metrics.readFailed(e);
+      throw e;
+    } finally {
+      metrics.endBinding();
+    }
+    metrics.elementRead(type, start);
+    return toReturn;
+  }
+
+  private void reportFinished() {
+    if (metrics.enabled()) {
+      metrics.readFinished(bytesRead.getAsLong());
+    }
+  }
+
+  /**
+   * @return a sequential Stream over the remaining elements. Closing the stream closes this
+   *         iterator.
+   */
+  public Stream<E> stream() {
+    return StreamSupport
+        .stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+        .onClose(() -> {
+          try {
+            close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  @Override
+  public void close() throws IOException {
+    finished = true;
+    reportFinished();
+    reader.close();
+  }
+}
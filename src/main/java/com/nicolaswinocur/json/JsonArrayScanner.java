@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Finds where each element of a top-level JSON array starts and ends, in one pass over its UTF-8
+ * bytes and without decoding or binding anything. Every byte JSON gives structural meaning to is
+ * ASCII, and every byte of a multi-byte UTF-8 sequence is not, so no character decoding is needed
+ * to do this.
+ *
+ * <p>Input may be handed over in as many pieces as is convenient; offsets reported to the
+ * {@link Listener} count bytes from the start of the first piece. The scanner only needs to tell
+ * elements apart, not validate them, so anything it lets through that isn't actually valid JSON
+ * will be rejected later by whatever binds the element. Instances are not thread-safe.
+ */
+final class JsonArrayScanner {
+
+  /**
+   * Receives the boundaries of each element, in order, as soon as its last byte has been scanned.
+   */
+  interface Listener {
+    /**
+     * @param index is the element's position within the array.
+     * @param start is the offset of the element's first byte.
+     * @param end is the offset just past the element's last byte.
+     */
+    void element(long index, long start, long end);
+  }
+
+  private static final int BEFORE_ARRAY = 0;
+  private static final int BEFORE_ELEMENT = 1;
+  private static final int BEFORE_FIRST_ELEMENT = 2;
+  private static final int IN_NESTED = 3;
+  private static final int IN_STRING = 4;
+  private static final int IN_LITERAL = 5;
+  private static final int AFTER_ELEMENT = 6;
+  private static final int AFTER_ARRAY = 7;
+
+  private final Listener listener;
+  private int state = BEFORE_ARRAY;
+  /** Nesting depth of objects and arrays within the current element. */
+  private int depth;
+  /** The quote character which will end the string currently being scanned. */
+  private int quote;
+  private boolean escaped;
+  private long position;
+  private long elementStart = -1;
+  private long elementCount;
+
+  JsonArrayScanner(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @return the offset of the first byte of the element currently being scanned, or the offset of
+   *         the next byte to be scanned if the scanner is between elements. Bytes before this
+   *         offset which have already been reported to the listener are never needed again.
+   */
+  long retainFrom() {
+    return elementStart >= 0 ? elementStart : position;
+  }
+
+  /**
+   * @return the offset of the next byte to be scanned.
+   */
+  long position() {
+    return position;
+  }
+
+  /**
+   * @return the number of elements reported so far.
+   */
+  long elementCount() {
+    return elementCount;
+  }
+
+  /**
+   * @return whether the closing bracket of the array has been scanned.
+   */
+  boolean isFinished() {
+    return state == AFTER_ARRAY;
+  }
+
+  /**
+   * Scans {@code length} bytes of {@code bytes} starting from {@code offset}.
+   */
+  void scan(byte[] bytes, int offset, int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      step(bytes[i]);
+    }
+  }
+
+  /**
+   * Scans the remaining bytes of {@code buffer}, advancing its position to its limit.
+   */
+  void scan(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      scan(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      ((Buffer) buffer).position(buffer.limit());
+    } else {
+      while (buffer.hasRemaining()) {
+        step(buffer.get());
+      }
+    }
+  }
+
+  /**
+   * Checks that the whole array has been seen, once there is no more input to scan.
+   *
+   * @throws JsonSyntaxException if it hasn't.
+   */
+  void finish() {
+    if (state != AFTER_ARRAY) {
+      throw syntaxError(state == BEFORE_ARRAY ? "Expected BEGIN_ARRAY but input ended"
+          : "Unterminated array");
+    }
+  }
+
+  private void step(byte b) {
+    switch (state) {
+      case IN_STRING:
+        if (escaped) {
+          escaped = false;
+        } else if (b == '\\') {
+          escaped = true;
+        } else if (b == quote) {
+          if (depth == 0) {
+            endElement(position + 1);
+            state = AFTER_ELEMENT;
+          } else {
+            state = IN_NESTED;
+          }
+        }
+        break;
+      case IN_NESTED:
+        if (b == '"' || b == '\'') {
+          quote = b;
+          state = IN_STRING;
+        } else if (b == '{' || b == '[') {
+          depth++;
+        } else if (b == '}' || b == ']') {
+          if (--depth == 0) {
+            endElement(position + 1);
+            state = AFTER_ELEMENT;
+          }
+        }
+        break;
+      case IN_LITERAL:
+        if (b == ',' || b == ']' || isWhitespace(b)) {
+          endElement(position);
+          state = AFTER_ELEMENT;
+          step(b);
+          return; // position already advanced by the recursive call
+        }
+        break;
+      case BEFORE_ELEMENT:
+      case BEFORE_FIRST_ELEMENT:
+        if (isWhitespace(b)) {
+          break;
+        }
+        if (b == ']') {
+          if (state == BEFORE_ELEMENT) {
+            throw syntaxError("Expected an element after ','");
+          }
+          state = AFTER_ARRAY;
+          break;
+        }
+        if (b == ',') {
+          throw syntaxError("Expected an element but was ','");
+        }
+        elementStart = position;
+        if (b == '{' || b == '[') {
+          depth = 1;
+          state = IN_NESTED;
+        } else if (b == '"' || b == '\'') {
+          depth = 0;
+          quote = b;
+          state = IN_STRING;
+        } else {
+          state = IN_LITERAL;
+        }
+        break;
+      case AFTER_ELEMENT:
+        if (b == ',') {
+          state = BEFORE_ELEMENT;
+        } else if (b == ']') {
+          state = AFTER_ARRAY;
+        } else if (!isWhitespace(b)) {
+          throw syntaxError("Expected ',' or ']' after an element");
+        }
+        break;
+      case BEFORE_ARRAY:
+        if (b == '[') {
+          state = BEFORE_FIRST_ELEMENT;
+        } else if (!isWhitespace(b) && !isByteOrderMark(b)) {
+          throw syntaxError("Expected BEGIN_ARRAY");
+        }
+        break;
+      default: // AFTER_ARRAY: like JsonReader, ignore whatever follows the array
+        break;
+    }
+    position++;
+  }
+
+  private void endElement(long end) {
+    listener.element(elementCount++, elementStart, end);
+    elementStart = -1;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  /** Matches any byte of the UTF-8 encoded byte order mark, EF BB BF. */
+  private static boolean isByteOrderMark(byte b) {
+    return b == (byte) 0xEF || b == (byte) 0xBB || b == (byte) 0xBF;
+  }
+
+  private JsonSyntaxException syntaxError(String message) {
+    return new JsonSyntaxException(
+        message + " at byte offset " + position + " (element " + elementCount + ")");
+  }
+}
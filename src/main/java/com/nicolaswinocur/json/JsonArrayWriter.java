@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.function.LongSupplier;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A push-style sink which writes each object handed to it as the next element of a top-level JSON
+ * array, so that elements can be written as they're produced rather than collected first. The
+ * array is opened when the writer is created and closed by {@link #close()}, which also closes the
+ * underlying stream.
+ *
+ * <p>Instances are not thread-safe.
+ */
+public final class JsonArrayWriter implements Closeable, Flushable {
+
+  private final Gson gson;
+  private final JsonWriter writer;
+  private final OperationMetrics metrics;
+  private final LongSupplier bytesWritten;
+
+  /**
+   * @param bytesWritten gives the number of bytes written to the underlying stream so far. It's
+   *        only called if {@code metrics} is enabled.
+   */
+  JsonArrayWriter(Gson gson, JsonWriter writer, OperationMetrics metrics,
+      LongSupplier bytesWritten) throws IOException {
+    this.gson = gson;
+    this.writer = writer;
+    this.metrics = metrics;
+    this.bytesWritten = bytesWritten;
+    writer.beginArray();
+  }
+
+  /**
+   * @param message is the object to append to the array. It's serialized according to its runtime
+   *        class.
+   * @return this writer.
+   * @throws IOException if unable to write to the stream.
+   */
+  public JsonArrayWriter write(Object message) throws IOException {
+    long start = metrics.start();
+    try {
+      if (message == null) {
+        writer.nullValue();
+      } else {
+        gson.toJson(message, message.getClass(), writer);
+      }
+    } catch (IOException | RuntimeException e) {
+      metrics.writeFailed(e);
+      throw e;
+    }
+    metrics.elementWritten(message == null ? null : message.getClass(), start);
+    return this;
+  }
+
+  /**
+   * Pushes everything written so far through to the underlying stream.
+   *
+   * @throws IOException if unable to write to the stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    writer.flush();
+  }
+
+  /**
+   * Closes the array and the underlying stream.
+   *
+   * @throws IOException if unable to write to the stream.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      writer.endArray();
+    } finally {
+      writer.close();
+    }
+    if (metrics.enabled()) {
+      metrics.writeFinished(bytesWritten.getAsLong());
+    }
+  }
+}
@@ -0,0 +1,687 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Computes and applies the differences between two JSON trees, so that a snapshot can be stored
+ * as the changes since an earlier one rather than in full.
+ *
+ * <p>A delta is itself a JSON object, whose {@code "op"} member says what kind it is:
+ * <ul>
+ * <li>{@code "keep"}: the value is unchanged.
+ * <li>{@code "replace"}: the value is replaced by {@code "value"}.
+ * <li>{@code "object"}: the value is an object whose {@code "remove"} members are removed, whose
+ * {@code "set"} members are given new values (or added) and whose {@code "patch"} members are
+ * changed by a nested delta. An added member is placed after the member {@code "after"} names for
+ * it, or first if that's null; if that doesn't reproduce the new order (because surviving members
+ * were reordered), {@code "order"} lists every member's name in order instead.
+ * <li>{@code "array"}: the value is an array whose {@code "patch"} elements, keyed by index, are
+ * changed by a nested delta, and each of whose {@code "splice"} entries, {@code [at, remove,
+ * [inserted...]]}, replaces {@code remove} elements starting at index {@code at} with the inserted
+ * ones. Splices are in increasing order of index, and every index is into the base array.
+ * </ul>
+ * Element and member order is always reproduced exactly.
+ */
+final class JsonDelta {
+
+  /**
+   * Intentionally private constructor so people don't try to instantiate what is currently designed
+   * as a non-instantiable utility class
+   */
+  private JsonDelta() {}
+
+  static final String OP = "op";
+  static final String KEEP = "keep";
+  static final String REPLACE = "replace";
+  static final String OBJECT = "object";
+  static final String ARRAY = "array";
+
+  /** Most insertions and removals diffed between two matching elements before pairing them up. */
+  static final int MAX_EDITS = 1024;
+
+  /**
+   * @return a delta which turns {@code base} into {@code updated}.
+   */
+  static JsonObject diff(JsonElement base, JsonElement updated) {
+    if (sameInOrder(base, updated)) {
+      return op(KEEP);
+    }
+    if (base.isJsonObject() && updated.isJsonObject()) {
+      return diffObjects(base.getAsJsonObject(), updated.getAsJsonObject());
+    }
+    if (base.isJsonArray() && updated.isJsonArray()) {
+      return diffArrays(asList(base.getAsJsonArray()), asList(updated.getAsJsonArray()),
+          Function.identity(), InOrder::new);
+    }
+    JsonObject delta = op(REPLACE);
+    delta.add("value", updated);
+    return delta;
+  }
+
+  private static JsonObject diffObjects(JsonObject base, JsonObject updated) {
+    JsonObject delta = op(OBJECT);
+    JsonArray remove = new JsonArray();
+    JsonObject set = new JsonObject();
+    JsonObject patch = new JsonObject();
+    JsonObject after = new JsonObject();
+    List<String> surviving = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> entry : base.entrySet()) {
+      JsonElement updatedValue = updated.get(entry.getKey());
+      if (updatedValue == null) {
+        remove.add(entry.getKey());
+        continue;
+      }
+      surviving.add(entry.getKey());
+      if (sameInOrder(entry.getValue(), updatedValue)) {
+        continue;
+      }
+      JsonObject nested = diff(entry.getValue(), updatedValue);
+      if (nested.get(OP).getAsString().equals(REPLACE)) {
+        set.add(entry.getKey(), updatedValue);
+      } else {
+        patch.add(entry.getKey(), nested);
+      }
+    }
+    // Placing each added member after its predecessor only works if the others kept their order
+    boolean reordered = false;
+    int survivor = 0;
+    String previous = null;
+    for (Map.Entry<String, JsonElement> entry : updated.entrySet()) {
+      if (!base.has(entry.getKey())) {
+        set.add(entry.getKey(), entry.getValue());
+        after.add(entry.getKey(),
+            previous == null ? JsonNull.INSTANCE : new JsonPrimitive(previous));
+      } else if (!entry.getKey().equals(surviving.get(survivor++))) {
+        reordered = true;
+      }
+      previous = entry.getKey();
+    }
+    addIfNotEmpty(delta, "remove", remove);
+    addIfNotEmpty(delta, "set", set);
+    addIfNotEmpty(delta, "patch", patch);
+    addIfNotEmpty(delta, "after", after);
+    if (reordered) {
+      JsonArray order = new JsonArray();
+      for (String name : updated.keySet()) {
+        order.add(name);
+      }
+      delta.add("order", order);
+    }
+    return delta;
+  }
+
+  /**
+   * Computes the delta between two lists of values, treating values as unchanged if they're the
+   * same instance or have equal keys. Unchanged elements at the start and end are kept without
+   * building their trees; the elements in between are diffed by {@link EditScript} on their keys
+   * alone, so an element added or removed in the middle doesn't shift everything after it into the
+   * delta. Removals next to insertions are paired up into nested deltas, so that an element which
+   * changed is patched rather than written in full. Trees are only built for those pairs and for
+   * inserted elements, and aren't kept.
+   *
+   * @param tree gives the tree of a value of either list.
+   * @param key gives a value of either list a key which equals another's exactly when their trees
+   *        would be written as the same JSON.
+   */
+  static <T> JsonObject diffArrays(List<T> base, List<T> updated, Function<T, JsonElement> tree,
+      Function<T, ?> key) {
+    int prefix = 0;
+    int limit = Math.min(base.size(), updated.size());
+    while (prefix < limit && same(base.get(prefix), updated.get(prefix), key)) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < limit - prefix && same(base.get(base.size() - 1 - suffix),
+        updated.get(updated.size() - 1 - suffix), key)) {
+      suffix++;
+    }
+    if (prefix == base.size() && prefix == updated.size()) {
+      return op(KEEP);
+    }
+    List<T> baseMiddle = base.subList(prefix, base.size() - suffix);
+    List<T> updatedMiddle = updated.subList(prefix, updated.size() - suffix);
+    JsonObject patch = new JsonObject();
+    JsonArray splices = new JsonArray();
+    byte[] script = new EditScript<>(baseMiddle, updatedMiddle, key).compute();
+    int x = 0;
+    int y = 0;
+    int i = 0;
+    while (i < script.length) {
+      if (script[i] == MATCH) {
+        x++;
+        y++;
+        i++;
+        continue;
+      }
+      int removed = 0;
+      int inserted = 0;
+      for (; i < script.length && script[i] != MATCH; i++) {
+        if (script[i] == REMOVE) {
+          removed++;
+        } else {
+          inserted++;
+        }
+      }
+      // Pairs which nest no smaller delta than a replacement are spliced instead, with any
+      // neighbouring ones
+      int paired = Math.min(removed, inserted);
+      int spliceAt = -1;
+      JsonArray insert = new JsonArray();
+      for (int j = 0; j < paired; j++) {
+        JsonObject nested =
+            diff(tree.apply(baseMiddle.get(x + j)), tree.apply(updatedMiddle.get(y + j)));
+        if (nested.get(OP).getAsString().equals(REPLACE)) {
+          if (spliceAt < 0) {
+            spliceAt = prefix + x + j;
+          }
+          insert.add(nested.get("value"));
+          continue;
+        }
+        if (spliceAt >= 0) {
+          addSplice(splices, spliceAt, insert.size(), insert);
+          spliceAt = -1;
+          insert = new JsonArray();
+        }
+        patch.add(Integer.toString(prefix + x + j), nested);
+      }
+      int replaced = insert.size();
+      if (removed != inserted && spliceAt < 0) {
+        spliceAt = prefix + x + paired;
+      }
+      for (int j = y + paired; j < y + inserted; j++) {
+        insert.add(tree.apply(updatedMiddle.get(j)));
+      }
+      if (spliceAt >= 0) {
+        addSplice(splices, spliceAt, replaced + removed - paired, insert);
+      }
+      x += removed;
+      y += inserted;
+    }
+    JsonObject delta = op(ARRAY);
+    addIfNotEmpty(delta, "patch", patch);
+    addIfNotEmpty(delta, "splice", splices);
+    return delta;
+  }
+
+  private static void addSplice(JsonArray splices, int at, int remove, JsonArray insert) {
+    JsonArray splice = new JsonArray();
+    splice.add(at);
+    splice.add(remove);
+    splice.add(insert);
+    splices.add(splice);
+  }
+
+  private static final byte MATCH = 0;
+  private static final byte REMOVE = 1;
+  private static final byte INSERT = 2;
+
+  /**
+   * Finds which elements of two lists match, and so which were removed or inserted. Elements with
+   * a key found exactly once in each list are matched first, keeping the longest run of such
+   * matches which is in the same order in both lists, as patience diff does. The gaps between
+   * them, which are usually short, are then diffed with Myers' O((N+M)D) algorithm. Since that's
+   * quadratic in the number of edits D, a gap needing more than {@link #MAX_EDITS} has its elements
+   * paired up in order instead.
+   */
+  private static final class EditScript<T> {
+    private final Object[] baseKeys;
+    private final Object[] updatedKeys;
+    private final int[] baseHashes;
+    private final int[] updatedHashes;
+    private final ByteArrayOutputStream script = new ByteArrayOutputStream();
+
+    EditScript(List<T> base, List<T> updated, Function<T, ?> key) {
+      this.baseKeys = keys(base, key);
+      this.updatedKeys = keys(updated, key);
+      this.baseHashes = hashes(baseKeys);
+      this.updatedHashes = hashes(updatedKeys);
+    }
+
+    /**
+     * @return the moves which turn base into updated.
+     */
+    byte[] compute() {
+      int[] anchors = anchors();
+      int x = 0;
+      int y = 0;
+      for (int i = 0; i < anchors.length; i += 2) {
+        diffGap(x, anchors[i], y, anchors[i + 1]);
+        script.write(MATCH);
+        x = anchors[i] + 1;
+        y = anchors[i + 1] + 1;
+      }
+      diffGap(x, baseKeys.length, y, updatedKeys.length);
+      return script.toByteArray();
+    }
+
+    private static <T> Object[] keys(List<T> values, Function<T, ?> key) {
+      Object[] keys = new Object[values.size()];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = key.apply(values.get(i));
+      }
+      return keys;
+    }
+
+    private static int[] hashes(Object[] keys) {
+      int[] hashes = new int[keys.length];
+      for (int i = 0; i < hashes.length; i++) {
+        hashes[i] = keys[i].hashCode();
+      }
+      return hashes;
+    }
+
+    /**
+     * @return the indexes of each element which is unique in both lists, as pairs of a base index
+     *         followed by an updated index, for the longest run of them in increasing order.
+     */
+    private int[] anchors() {
+      Map<Integer, Integer> unique = new HashMap<>();
+      for (int j = 0; j < updatedHashes.length; j++) {
+        unique.merge(updatedHashes[j], j, (a, b) -> -1);
+      }
+      Map<Integer, Integer> baseUnique = new HashMap<>();
+      for (int i = 0; i < baseHashes.length; i++) {
+        baseUnique.merge(baseHashes[i], i, (a, b) -> -1);
+      }
+      // Longest increasing subsequence of the updated indexes, by patience sorting
+      int[] baseIndexes = new int[baseHashes.length];
+      int[] updatedIndexes = new int[baseHashes.length];
+      int[] previous = new int[baseHashes.length];
+      int[] pileTops = new int[baseHashes.length];
+      int candidates = 0;
+      int piles = 0;
+      for (int i = 0; i < baseHashes.length; i++) {
+        Integer j = unique.get(baseHashes[i]);
+        if (j == null || j < 0 || baseUnique.get(baseHashes[i]) != i
+            || !baseKeys[i].equals(updatedKeys[j])) {
+          continue;
+        }
+        int low = 0;
+        int high = piles;
+        while (low < high) {
+          int middle = (low + high) >>> 1;
+          if (updatedIndexes[pileTops[middle]] < j) {
+            low = middle + 1;
+          } else {
+            high = middle;
+          }
+        }
+        baseIndexes[candidates] = i;
+        updatedIndexes[candidates] = j;
+        previous[candidates] = low > 0 ? pileTops[low - 1] : -1;
+        pileTops[low] = candidates++;
+        piles = Math.max(piles, low + 1);
+      }
+      int[] anchors = new int[2 * piles];
+      for (int c = piles > 0 ? pileTops[piles - 1] : -1, a = anchors.length; c >= 0;
+          c = previous[c]) {
+        anchors[--a] = updatedIndexes[c];
+        anchors[--a] = baseIndexes[c];
+      }
+      return anchors;
+    }
+
+    private void diffGap(int baseFrom, int baseTo, int updatedFrom, int updatedTo) {
+      byte[] moves = baseFrom == baseTo || updatedFrom == updatedTo ? null
+          : myers(baseFrom, baseTo - baseFrom, updatedFrom, updatedTo - updatedFrom);
+      if (moves == null) {
+        for (int i = baseFrom; i < baseTo; i++) {
+          script.write(REMOVE);
+        }
+        for (int j = updatedFrom; j < updatedTo; j++) {
+          script.write(INSERT);
+        }
+      } else {
+        script.write(moves, 0, moves.length);
+      }
+    }
+
+    /**
+     * @return the moves which turn n elements of base from x0 into m elements of updated from y0,
+     *         or null if there are more than {@link #MAX_EDITS} of them which aren't matches.
+     */
+    private byte[] myers(int x0, int n, int y0, int m) {
+      int max = Math.min(n + m, MAX_EDITS);
+      int offset = max + 1;
+      // The furthest x reached on each diagonal k = x - y, before each round of d edits
+      int[] v = new int[2 * max + 3];
+      List<int[]> trace = new ArrayList<>();
+      for (int d = 0; d <= max; d++) {
+        trace.add(v.clone());
+        for (int k = -d; k <= d; k += 2) {
+          int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ? v[offset + k + 1]
+              : v[offset + k - 1] + 1;
+          int y = x - k;
+          while (x < n && y < m && baseHashes[x0 + x] == updatedHashes[y0 + y]
+              && baseKeys[x0 + x].equals(updatedKeys[y0 + y])) {
+            x++;
+            y++;
+          }
+          v[offset + k] = x;
+          if (x >= n && y >= m) {
+            return backtrack(trace, d, n, m, offset);
+          }
+        }
+      }
+      return null;
+    }
+
+    private static byte[] backtrack(List<int[]> trace, int edits, int n, int m, int offset) {
+      byte[] moves = new byte[n + m - (n + m - edits) / 2];
+      int i = moves.length;
+      int x = n;
+      int y = m;
+      for (int d = edits; d > 0; d--) {
+        int[] v = trace.get(d);
+        int k = x - y;
+        int previousK =
+            k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ? k + 1 : k - 1;
+        int previousX = v[offset + previousK];
+        int previousY = previousX - previousK;
+        while (x > previousX && y > previousY) {
+          moves[--i] = MATCH;
+          x--;
+          y--;
+        }
+        if (x == previousX) {
+          moves[--i] = INSERT;
+          y--;
+        } else {
+          moves[--i] = REMOVE;
+          x--;
+        }
+      }
+      while (i > 0) {
+        moves[--i] = MATCH;
+      }
+      return moves;
+    }
+  }
+
+  private static <T> boolean same(T base, T updated, Function<T, ?> key) {
+    return base == updated || key.apply(base).equals(key.apply(updated));
+  }
+
+  /** A tree as a key, which equals another's exactly when {@link #sameInOrder} holds. */
+  private static final class InOrder {
+    private final JsonElement tree;
+
+    InOrder(JsonElement tree) {
+      this.tree = tree;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof InOrder && sameInOrder(tree, ((InOrder) other).tree);
+    }
+
+    @Override
+    public int hashCode() {
+      // Consistent with sameInOrder, which implies equals
+      return tree.hashCode();
+    }
+  }
+
+  /**
+   * @return whether two trees would be written as exactly the same JSON: equal, listing their
+   *         objects' members in the same order (which {@link JsonObject#equals} ignores), and
+   *         holding primitives of the same kind and text (where {@link JsonPrimitive#equals}
+   *         compares numbers by value, so 1 would match 1.0).
+   */
+  static boolean sameInOrder(JsonElement a, JsonElement b) {
+    if (a.isJsonObject() && b.isJsonObject()) {
+      Set<Map.Entry<String, JsonElement>> membersA = a.getAsJsonObject().entrySet();
+      Set<Map.Entry<String, JsonElement>> membersB = b.getAsJsonObject().entrySet();
+      if (membersA.size() != membersB.size()) {
+        return false;
+      }
+      Iterator<Map.Entry<String, JsonElement>> iteratorB = membersB.iterator();
+      for (Map.Entry<String, JsonElement> memberA : membersA) {
+        Map.Entry<String, JsonElement> memberB = iteratorB.next();
+        if (!memberA.getKey().equals(memberB.getKey())
+            || !sameInOrder(memberA.getValue(), memberB.getValue())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (a.isJsonArray() && b.isJsonArray()) {
+      JsonArray arrayA = a.getAsJsonArray();
+      JsonArray arrayB = b.getAsJsonArray();
+      if (arrayA.size() != arrayB.size()) {
+        return false;
+      }
+      for (int i = 0; i < arrayA.size(); i++) {
+        if (!sameInOrder(arrayA.get(i), arrayB.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (a.isJsonPrimitive() && b.isJsonPrimitive()) {
+      JsonPrimitive primitiveA = a.getAsJsonPrimitive();
+      JsonPrimitive primitiveB = b.getAsJsonPrimitive();
+      return primitiveA.isNumber() == primitiveB.isNumber()
+          && primitiveA.isString() == primitiveB.isString()
+          && primitiveA.isBoolean() == primitiveB.isBoolean()
+          && primitiveA.getAsString().equals(primitiveB.getAsString());
+    }
+    return a.isJsonNull() && b.isJsonNull();
+  }
+
+  /**
+   * @return the result of applying {@code delta} to {@code base}, which may be modified and
+   *         returned, rather than copied.
+   * @throws JsonSyntaxException if the delta is malformed, or doesn't fit base.
+   */
+  static JsonElement apply(JsonElement base, JsonObject delta) {
+    switch (opOf(delta)) {
+      case KEEP:
+        return base;
+      case REPLACE:
+        JsonElement value = delta.get("value");
+        return value == null ? JsonNull.INSTANCE : value;
+      case OBJECT:
+        if (!base.isJsonObject()) {
+          throw doesNotApply("an object delta", base);
+        }
+        return applyToObject(base.getAsJsonObject(), delta);
+      case ARRAY:
+        if (!base.isJsonArray()) {
+          throw doesNotApply("an array delta", base);
+        }
+        List<JsonElement> elements = asList(base.getAsJsonArray());
+        applyToList(elements, delta, JsonDelta::apply, Function.identity());
+        JsonArray toReturn = new JsonArray();
+        for (JsonElement element : elements) {
+          toReturn.add(element);
+        }
+        return toReturn;
+      default:
+        throw new JsonSyntaxException("Unknown delta op: " + delta.get(OP));
+    }
+  }
+
+  private static JsonObject applyToObject(JsonObject base, JsonObject delta) {
+    Map<String, JsonElement> members = new LinkedHashMap<>();
+    for (Map.Entry<String, JsonElement> entry : base.entrySet()) {
+      members.put(entry.getKey(), entry.getValue());
+    }
+    for (JsonElement name : array(delta, "remove")) {
+      if (members.remove(name.getAsString()) == null) {
+        throw doesNotApply("removal of missing member " + name, base);
+      }
+    }
+    for (Map.Entry<String, JsonElement> entry : object(delta, "patch").entrySet()) {
+      JsonElement value = members.get(entry.getKey());
+      if (value == null) {
+        throw doesNotApply("patch of missing member " + entry.getKey(), base);
+      }
+      members.put(entry.getKey(), apply(value, entry.getValue().getAsJsonObject()));
+    }
+    JsonObject after = object(delta, "after");
+    List<String> surviving = new ArrayList<>(members.keySet());
+    // Each member's predecessor is unique, so at most one added member follows any other
+    Map<String, String> next = new HashMap<>();
+    String first = null;
+    for (Map.Entry<String, JsonElement> entry : object(delta, "set").entrySet()) {
+      if (members.put(entry.getKey(), entry.getValue()) == null) {
+        JsonElement previous = after.get(entry.getKey());
+        if (previous == null || previous.isJsonNull()) {
+          first = entry.getKey();
+        } else {
+          next.put(previous.getAsString(), entry.getKey());
+        }
+      }
+    }
+    List<String> order = new ArrayList<>(members.size());
+    if (delta.has("order")) {
+      for (JsonElement name : array(delta, "order")) {
+        order.add(name.getAsString());
+      }
+    } else {
+      for (String name = first; name != null; name = next.get(name)) {
+        order.add(name);
+      }
+      for (String name : surviving) {
+        order.add(name);
+        for (String added = next.get(name); added != null; added = next.get(added)) {
+          order.add(added);
+        }
+      }
+    }
+    JsonObject toReturn = new JsonObject();
+    for (String name : order) {
+      JsonElement value = members.get(name);
+      if (value == null) {
+        throw doesNotApply("missing member " + name, base);
+      }
+      toReturn.add(name, value);
+    }
+    if (toReturn.size() != members.size()) {
+      throw new JsonSyntaxException("Delta's order doesn't name every member");
+    }
+    return toReturn;
+  }
+
+  /**
+   * Applies an array delta to a list in place.
+   *
+   * @param patcher applies a nested delta to one of the list's values.
+   * @param inserter turns an inserted element into a value for the list.
+   * @throws JsonSyntaxException if the delta is malformed, or doesn't fit the list.
+   */
+  static <T> void applyToList(List<T> list, JsonObject delta,
+      BiFunction<T, JsonObject, T> patcher, Function<JsonElement, T> inserter) {
+    String op = opOf(delta);
+    if (op.equals(KEEP)) {
+      return;
+    }
+    if (!op.equals(ARRAY)) {
+      throw new JsonSyntaxException("Expected an array delta but was " + op);
+    }
+    for (Map.Entry<String, JsonElement> entry : object(delta, "patch").entrySet()) {
+      int index = Integer.parseInt(entry.getKey());
+      if (index < 0 || index >= list.size()) {
+        throw new JsonSyntaxException(
+            "Delta patches index " + index + " of an array of " + list.size());
+      }
+      list.set(index, patcher.apply(list.get(index), entry.getValue().getAsJsonObject()));
+    }
+    JsonArray splices = array(delta, "splice");
+    // Splices are in order, and index the base, so applying the last first keeps the rest valid
+    int end = list.size();
+    for (int i = splices.size() - 1; i >= 0; i--) {
+      JsonArray splice = splices.get(i).getAsJsonArray();
+      int at = splice.get(0).getAsInt();
+      int remove = splice.get(1).getAsInt();
+      if (at < 0 || remove < 0 || at + remove > end) {
+        throw new JsonSyntaxException("Delta splices [" + at + ", " + (at + remove)
+            + ") of an array of " + list.size());
+      }
+      List<T> inserted = new ArrayList<>();
+      for (JsonElement element : splice.get(2).getAsJsonArray()) {
+        inserted.add(inserter.apply(element));
+      }
+      List<T> replaced = list.subList(at, at + remove);
+      replaced.clear();
+      replaced.addAll(inserted);
+      end = at;
+    }
+  }
+
+  private static String opOf(JsonObject delta) {
+    JsonElement op = delta.get(OP);
+    if (op == null || !op.isJsonPrimitive()) {
+      throw new JsonSyntaxException("Not a delta: " + delta);
+    }
+    return op.getAsString();
+  }
+
+  private static JsonSyntaxException doesNotApply(String what, JsonElement base) {
+    String kind = base.isJsonObject() ? "an object"
+        : base.isJsonArray() ? "an array" : base.isJsonNull() ? "null" : "a primitive";
+    return new JsonSyntaxException(
+        "Delta doesn't apply to this base: " + what + " in " + kind);
+  }
+
+  private static JsonObject op(String op) {
+    JsonObject delta = new JsonObject();
+    delta.addProperty(OP, op);
+    return delta;
+  }
+
+  private static void addIfNotEmpty(JsonObject delta, String name, JsonElement value) {
+    if (value.isJsonObject() ? value.getAsJsonObject().size() > 0
+        : value.getAsJsonArray().size() > 0) {
+      delta.add(name, value);
+    }
+  }
+
+  private static JsonObject object(JsonObject delta, String name) {
+    JsonElement value = delta.get(name);
+    return value == null ? new JsonObject() : value.getAsJsonObject();
+  }
+
+  private static JsonArray array(JsonObject delta, String name) {
+    JsonElement value = delta.get(name);
+    return value == null ? new JsonArray() : value.getAsJsonArray();
+  }
+
+  private static List<JsonElement> asList(JsonArray array) {
+    List<JsonElement> list = new ArrayList<>(array.size());
+    for (JsonElement element : array) {
+      list.add(element);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.internal.JsonReaderInternalAccess;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Reads and writes map-shaped JSON the same way Gson's own MapTypeAdapterFactory does, but
+ * directly from and into whatever structure the calling adapter is working with, so that adapters
+ * for Guava's maps and multimaps don't need an intermediate {@link java.util.LinkedHashMap}.
+ */
+final class JsonMaps {
+
+  /**
+   * Intentionally private constructor so people don't try to instantiate what is designed as a
+   * non-instantiable utility class
+   */
+  private JsonMaps() {}
+
+  /**
+   * @return the adapter Gson's MapTypeAdapterFactory would use to read keys of the given type.
+   */
+  @SuppressWarnings("unchecked")
+  static TypeAdapter<Object> keyAdapter(Gson gson, Type keyType) {
+    return (TypeAdapter<Object>) ((keyType == boolean.class || keyType == Boolean.class)
+        ? TypeAdapters.BOOLEAN_AS_STRING
+        : gson.getAdapter(TypeToken.get(keyType)));
+  }
+
+  /**
+   * @return the adapter Gson's collection and map adapters would use for elements or values of the
+   *         given declared type, which picks a more specific adapter from each value's runtime type
+   *         where there is one.
+   */
+  @SuppressWarnings("unchecked")
+  static TypeAdapter<Object> valueAdapter(Gson gson, Type valueType) {
+    return new TypeAdapterRuntimeTypeWrapper<Object>(gson,
+        (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(valueType)), valueType);
+  }
+
+  /**
+   * Writes entries as a JSON object whose names are {@code String.valueOf(key)}, which is how Gson
+   * writes maps unless complex map key serialization has been enabled (it never is for Gson
+   * objects built by {@link GsonCodec}).
+   */
+  static <V> void writeObject(JsonWriter out, Iterable<? extends Map.Entry<?, ? extends V>> entries,
+      TypeAdapter<? super V> valueAdapter) throws IOException {
+    out.beginObject();
+    for (Map.Entry<?, ? extends V> entry : entries) {
+      out.name(String.valueOf(entry.getKey()));
+      valueAdapter.write(out, entry.getValue());
+    }
+    out.endObject();
+  }
+
+  /**
+   * @param e is the exception an immutable map's builder threw because the same key was put twice.
+   * @return the exception Gson's MapTypeAdapterFactory would have thrown for the same input.
+   */
+  static JsonSyntaxException duplicateKey(IllegalArgumentException e) {
+    return new JsonSyntaxException("duplicate key: " + e.getMessage(), e);
+  }
+
+  /**
+   * @param key was read twice for the same map.
+   * @return the exception Gson's MapTypeAdapterFactory would have thrown for the same input.
+   */
+  static JsonSyntaxException duplicateKey(Object key) {
+    return new JsonSyntaxException("duplicate key: " + key);
+  }
+
+  /**
+   * Reads the value of a single map entry, given its already-read key.
+   */
+  interface EntryReader {
+    void read(JsonReader in, Object key) throws IOException;
+  }
+
+  /**
+   * Reads every entry of either a JSON object or an array of two-element key/value arrays (the two
+   * forms Gson's MapTypeAdapterFactory accepts), reading each key with {@code keyAdapter} and then
+   * leaving {@code valueReader} to consume its value, in the order the entries appear. The caller
+   * is responsible for checking for {@link JsonToken#NULL} first, and for rejecting duplicate keys
+   * if that matters to it.
+   */
+  static void readEntries(JsonReader in, TypeAdapter<?> keyAdapter, EntryReader valueReader)
+      throws IOException {
+    if (in.peek() == JsonToken.BEGIN_ARRAY) {
+      in.beginArray();
+      while (in.hasNext()) {
+        in.beginArray(); // entry array
+        valueReader.read(in, keyAdapter.read(in));
+        in.endArray();
+      }
+      in.endArray();
+    } else {
+      in.beginObject();
+      while (in.hasNext()) {
+        // JsonReaderInternalAccess only knows JsonReader's own internal state
+        if (in instanceof BinaryJsonReader) {
+          ((BinaryJsonReader) in).promoteNameToValue();
+        } else if (in instanceof ProjectedJsonReader) {
+          ((ProjectedJsonReader) in).promoteNameToValue();
+        } else {
+          JsonReaderInternalAccess.INSTANCE.promoteNameToValue(in);
+        }
+        valueReader.read(in, keyAdapter.read(in));
+      }
+      in.endObject();
+    }
+  }
+}
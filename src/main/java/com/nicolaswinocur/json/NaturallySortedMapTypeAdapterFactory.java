@@ -21,19 +21,31 @@ import com.google.common.collect.Maps;
 import com.google.gson.Gson;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.$Gson$Types;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
- * Serializes and deserializes {@link SortedMap} instances using a {@link TreeMap} with natural
- * ordering as an intermediary.
+ * Serializes and deserializes {@link SortedMap} instances, reading them back as a {@link TreeMap}
+ * with natural ordering. Maps are written straight from their own (already sorted) entry set.
+ * When read, entries which arrive in order (as they do for anything this factory wrote) are
+ * bulk-loaded into the TreeMap in linear time; otherwise they're put one at a time. Null values
+ * are kept, as they are by Gson's own map adapter.
  */
 final class NaturallySortedMapTypeAdapterFactory implements TypeAdapterFactory {
 
@@ -41,33 +53,126 @@ final class NaturallySortedMapTypeAdapterFactory implements TypeAdapterFactory {
   private static final ImmutableSet<Class<? extends SortedMap>> CLASSES =
       ImmutableSet.of(SortedMap.class, TreeMap.class);
 
-  @SuppressWarnings("unchecked")
   public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
     Type type = typeToken.getType();
     if (!CLASSES.contains(typeToken.getRawType()) || !(type instanceof ParameterizedType)) {
       return null;
     }
 
-    com.google.common.reflect.TypeToken<SortedMap<?, ?>> betterToken =
-        (com.google.common.reflect.TypeToken<SortedMap<?, ?>>)
-            com.google.common.reflect.TypeToken.of(typeToken.getType());
-    final TypeAdapter<Map<?, ?>> mapAdapter =
-        (TypeAdapter<Map<?, ?>>)
-            gson.getAdapter(TypeToken.get(betterToken.getSupertype(Map.class).getType()));
+    Type[] keyAndValueTypes = $Gson$Types.getMapKeyAndValueTypes(type, typeToken.getRawType());
+    final TypeAdapter<Object> keyAdapter = JsonMaps.keyAdapter(gson, keyAndValueTypes[0]);
+    final TypeAdapter<Object> valueAdapter = JsonMaps.valueAdapter(gson, keyAndValueTypes[1]);
     return new TypeAdapter<T>() {
       @Override
       public void write(JsonWriter out, T value) throws IOException {
-        TreeMap<?, ?> treeMap = Maps.newTreeMap((SortedMap<?, ?>) value);
-        mapAdapter.write(out, treeMap);
+        if (value == null) {
+          out.nullValue();
+          return;
+        }
+        JsonMaps.writeObject(out, ((SortedMap<?, ?>) value).entrySet(), valueAdapter);
       }
 
-      @SuppressWarnings("rawtypes")
+      @SuppressWarnings({"unchecked", "rawtypes"})
       @Override
       public T read(JsonReader in) throws IOException {
-        TreeMap treeMap = Maps.newTreeMap();
-        treeMap.putAll(mapAdapter.read(in));
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          return null;
+        }
+        List<Map.Entry<Object, Object>> entries = new ArrayList<>();
+        JsonMaps.readEntries(in, keyAdapter,
+            (reader, key) -> entries.add(Maps.immutableEntry(key, valueAdapter.read(reader))));
+        if (inOrder(entries)) {
+          // TreeMap's SortedMap constructor builds its tree in linear time
+          return (T) new TreeMap(new SortedEntries(entries));
+        }
+        TreeMap treeMap = new TreeMap();
+        for (Map.Entry<Object, Object> entry : entries) {
+          int size = treeMap.size();
+          treeMap.put(entry.getKey(), entry.getValue());
+          if (treeMap.size() == size) {
+            throw JsonMaps.duplicateKey(entry.getKey());
+          }
+        }
         return (T) treeMap;
       }
     };
   }
+
+  /**
+   * @return whether every key is strictly greater than the one before it, in natural order.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static boolean inOrder(List<Map.Entry<Object, Object>> entries) {
+    for (int i = 1; i < entries.size(); i++) {
+      if (((Comparable) entries.get(i - 1).getKey()).compareTo(entries.get(i).getKey()) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Entries already in natural order, as just enough of a SortedMap for TreeMap's constructor,
+   * which only asks for its size, comparator and entries. Unlike an ImmutableSortedMap, it holds
+   * null values.
+   */
+  private static final class SortedEntries extends AbstractMap<Object, Object>
+      implements SortedMap<Object, Object> {
+    private final List<Map.Entry<Object, Object>> entries;
+
+    SortedEntries(List<Map.Entry<Object, Object>> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public int size() {
+      return entries.size();
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+      return new AbstractSet<Map.Entry<Object, Object>>() {
+        @Override
+        public Iterator<Map.Entry<Object, Object>> iterator() {
+          return entries.iterator();
+        }
+
+        @Override
+        public int size() {
+          return entries.size();
+        }
+      };
+    }
+
+    @Override
+    public Comparator<? super Object> comparator() {
+      return null;
+    }
+
+    @Override
+    public SortedMap<Object, Object> subMap(Object fromKey, Object toKey) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedMap<Object, Object> headMap(Object toKey) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedMap<Object, Object> tailMap(Object fromKey) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object firstKey() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object lastKey() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Lazily deserializes the lines of a newline-delimited JSON (NDJSON) file one at a time, starting
+ * from any line boundary. Blank lines are skipped.
+ *
+ * <p>There are two ways to read:
+ * <ul>
+ * <li>As an {@link Iterator}, which stops at the current end of the file and treats a final line
+ * with no '\n' after it as complete, the way a finished file should be read.
+ * <li>With {@link #poll()} or {@link #poll(long, TimeUnit)}, which only ever return lines that have
+ * been completely written, and which will see lines appended after the end of the file was first
+ * reached. This is how a file that is still being written to should be followed. Since they return
+ * null when there is no such line yet, they reject a line holding JSON {@code null}, which
+ * {@link NdjsonWriter} never writes.
+ * </ul>
+ *
+ * <p>{@link #position()} gives the byte offset of the next line to be read; passing it to
+ * {@link GsonCodec#readNdjsonFrom(java.nio.file.Path, Class, long)} later resumes reading from
+ * there. A line which can't be deserialized is still consumed before the exception naming its
+ * offset is thrown, so that reading can carry on with the following line.
+ *
+ * <p>Since {@link Iterator} methods can't throw checked exceptions, the iterator methods report
+ * problems reading the file as {@link JsonIOException}. Instances are not thread-safe, and should
+ * be closed once no longer needed (closing also closes the file).
+ *
+ * @param <E> is the type every line is deserialized as.
+ */
+public final class NdjsonReader<E> implements Iterator<E>, Closeable {
+
+  /** Number of bytes read from the file at a time. */
+  private static final int CHUNK_SIZE = 64 * 1024;
+  /** How long {@link #poll(long, TimeUnit)} waits before checking the file for new lines again. */
+  private static final long POLL_INTERVAL_MILLIS = 50;
+
+  private final Gson gson;
+  private final FileChannel channel;
+  private final Class<E> type;
+  private final OperationMetrics metrics;
+  private final long startPosition;
+
+  /** Bytes read from the file but not yet consumed; buffer[0] is at offset bufferStart. */
+  private byte[] buffer = new byte[CHUNK_SIZE];
+  private int bufferLength = 0;
+  private long bufferStart;
+  /** Start of the next unread line, and end of it once found, within the buffer. */
+  private int lineStart = 0;
+  private int lineEnd = -1;
+  /** Where to carry on looking for the next '\n' within the buffer. */
+  private int scanFrom = 0;
+  private boolean lineTerminated = false;
+
+  NdjsonReader(Gson gson, FileChannel channel, Class<E> type, long position,
+      OperationMetrics metrics) {
+    this.gson = gson;
+    this.channel = channel;
+    this.type = type;
+    this.bufferStart = position;
+    this.startPosition = position;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return the byte offset of the start of the next line to be read.
+   */
+  public long position() {
+    return bufferStart + lineStart;
+  }
+
+  @Override
+  public boolean hasNext() {
+    try {
+      return lineEnd >= 0 || findLine(true);
+    } catch (IOException e) {
+      throw new JsonIOException(e);
+    }
+  }
+
+  @Override
+  public E next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return consumeLine(true);
+  }
+
+  /**
+   * @return the next completely written line, deserialized; or null if the end of the file has
+   *         been reached and no further line has been completed since.
+   * @throws IOException if unable to read the file, or if it has been truncated to before the
+   *         current position.
+   * @throws JsonSyntaxException if the line can't be deserialized, or deserializes to null.
+   */
+  public E poll() throws IOException {
+    if (lineEnd >= 0 && !lineTerminated) {
+      lineEnd = -1;
+    }
+    if (lineEnd < 0 && !findLine(false)) {
+      return null;
+    }
+    return consumeLine(false);
+  }
+
+  /**
+   * @param timeout is how long to wait for another line to be completed, if there isn't one yet.
+   * @param unit is the unit of {@code timeout}.
+   * @return the next completely written line, deserialized; or null if none was completed in time.
+   * @throws IOException if unable to read the file, or if it has been truncated to before the
+   *         current position.
+   * @throws InterruptedIOException if interrupted while waiting.
+   * @throws JsonSyntaxException if the line can't be deserialized, or deserializes to null.
+   */
+  public E poll(long timeout, TimeUnit unit) throws IOException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (true) {
+      E toReturn = poll();
+      long remaining = deadline - System.nanoTime();
+      if (toReturn != null || remaining <= 0) {
+        return toReturn;
+      }
+      try {
+        Thread.sleep(Math.min(POLL_INTERVAL_MILLIS, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for another line");
+      }
+    }
+  }
+
+  /**
+   * Finds the end of the next non-blank line, reading more of the file as needed.
+   *
+   * @param acceptUnterminated is whether a line cut short by the end of the file counts.
+   * @return whether a line was found.
+   */
+  private boolean findLine(boolean acceptUnterminated) throws IOException {
+    while (true) {
+      for (int i = scanFrom; i < bufferLength; i++) {
+        if (buffer[i] != '\n') {
+          continue;
+        }
+        if (isBlank(lineStart, i)) {
+          lineStart = i + 1;
+          continue;
+        }
+        scanFrom = i + 1;
+        lineEnd = i;
+        lineTerminated = true;
+        return true;
+      }
+      scanFrom = bufferLength;
+      if (fill()) {
+        continue;
+      }
+      if (acceptUnterminated && !isBlank(lineStart, bufferLength)) {
+        lineEnd = bufferLength;
+        lineTerminated = false;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @return whether any more bytes were read.
+   */
+  private boolean fill() throws IOException {
+    if (lineStart > 0 && (lineStart == bufferLength || bufferLength == buffer.length)) {
+      System.arraycopy(buffer, lineStart, buffer, 0, bufferLength - lineStart);
+      bufferStart += lineStart;
+      bufferLength -= lineStart;
+      scanFrom -= lineStart;
+      lineStart = 0;
+    }
+    if (bufferLength == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    long filePosition = bufferStart + bufferLength;
+    int read = channel.read(ByteBuffer.wrap(buffer, bufferLength, buffer.length - bufferLength),
+        filePosition);
+    if (read > 0) {
+      bufferLength += read;
+      return true;
+    }
+    if (channel.size() < filePosition) {
+      throw new IOException("File was truncated to " + channel.size()
+          + " bytes, before the current position " + filePosition);
+    }
+    return false;
+  }
+
+  private boolean isBlank(int from, int to) {
+    for (int i = from; i < to; i++) {
+      byte b = buffer[i];
+      if (b != ' ' && b != '\t' && b != '\r') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param nullable is whether a line holding JSON {@code null} can be returned.
+   */
+  private E consumeLine(boolean nullable) {
+    int start = lineStart;
+    int end = lineEnd;
+    long offset = bufferStart + start;
+    lineStart = lineTerminated ? end + 1 : end;
+    scanFrom = Math.max(scanFrom, lineStart);
+    lineEnd = -1;
+    long startNanos = metrics.start();
+    E toReturn;
+    metrics.beginBinding();
+    try {
+      toReturn = gson.fromJson(
+          new JsonReader(new ByteBufferReader(ByteBuffer.wrap(buffer, start, end - start))), type);
+    } catch (JsonParseException e) {
+      String message = "Failed to read line at byte offset " + offset + ": " + e.getMessage();
+      JsonParseException toThrow = e instanceof JsonIOException ? new JsonIOException(message, e)
+          : new JsonSyntaxException(message, e);
+      metrics.readFailed(toThrow);
+      throw toThrow;
+    } finally {
+      metrics.endBinding();
+    }
+    if (toReturn == null && !nullable) {
+      JsonSyntaxException toThrow =
+          new JsonSyntaxException("Null line at byte offset " + offset + " can't be polled");
+      metrics.readFailed(toThrow);
+      throw toThrow;
+    }
+    metrics.elementRead(type, startNanos);
+    return toReturn;
+  }
+
+  /**
+   * @return a sequential Stream over the remaining lines, as the iterator sees them. Closing the
+   *         stream closes this reader.
+   */
+  public Stream<E> stream() {
+    return StreamSupport
+        .stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+        .onClose(() -> {
+          try {
+            close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  @Override
+  public void close() throws IOException {
+    metrics.readFinished(position() - startPosition);
+    channel.close();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.LongSupplier;
+import com.google.common.base.Preconditions;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A push-style sink which writes each object handed to it as one line of newline-delimited JSON
+ * (NDJSON): the object serialized without any indentation, followed by a '\n'. Unlike a JSON
+ * array, there is nothing to close at the end, so a file written this way can later be appended to
+ * without rewriting what's already there.
+ *
+ * <p>Instances are not thread-safe. Closing the writer closes the underlying stream.
+ *
+ * @see GsonCodec#appendNdjson(java.nio.file.Path)
+ */
+public final class NdjsonWriter implements Closeable, Flushable {
+
+  private final Gson gson;
+  private final Writer out;
+  private final JsonWriter writer;
+  private final OperationMetrics metrics;
+  private final LongSupplier bytesWritten;
+
+  /**
+   * @param bytesWritten gives the number of bytes written to the underlying stream so far. It's
+   *        only called if {@code metrics} is enabled.
+   */
+  NdjsonWriter(Gson gson, Writer out, OperationMetrics metrics, LongSupplier bytesWritten) {
+    this.gson = gson;
+    this.out = out;
+    this.metrics = metrics;
+    this.bytesWritten = bytesWritten;
+    this.writer = new JsonWriter(out);
+    // Every line is another top-level value, which only a lenient JsonWriter allows
+    writer.setLenient(true);
+  }
+
+  /**
+   * @param message is the object to write as the next line. It's serialized according to its
+   *        runtime class. It can't be null, since {@link NdjsonReader#poll()} uses null to mean
+   *        that no further line has been written yet.
+   * @return this writer.
+   * @throws IOException if unable to write to the stream.
+   */
+  public NdjsonWriter write(Object message) throws IOException {
+    Preconditions.checkNotNull(message, "NDJSON lines can't be null");
+    long start = metrics.start();
+    try {
+      gson.toJson(message, message.getClass(), writer);
+      out.write('\n');
+    } catch (IOException | RuntimeException e) {
+      metrics.writeFailed(e);
+      throw e;
+    }
+    metrics.elementWritten(message.getClass(), start);
+    return this;
+  }
+
+  /**
+   * Pushes every line written so far through to the underlying stream, so that readers of the
+   * same file can see them.
+   *
+   * @throws IOException if unable to write to the stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Closes the underlying stream.
+   *
+   * @throws IOException if unable to write to the stream.
+   */
+  @Override
+  public void close() throws IOException {
+    // JsonWriter itself buffers nothing, and would reject closing a file with no lines
+    out.close();
+    if (metrics.enabled()) {
+      metrics.writeFinished(bytesWritten.getAsLong());
+    }
+  }
+}
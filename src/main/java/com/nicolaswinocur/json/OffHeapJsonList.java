@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import com.google.common.base.Preconditions;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * An unmodifiable List of the elements of a top-level JSON array, which keeps only their raw bytes,
+ * outside the Java heap, and deserializes an element each time it's asked for. The bytes are held
+ * in a memory-mapped file: either the one the array was read from, or a temporary file an array
+ * read from a stream was copied into. The operating system pages the file in and out as needed,
+ * and mappings don't count towards {@code -XX:MaxDirectMemorySize}. A {@link JsonArrayIndex} says
+ * where each element starts and ends. Arrays larger than the heap can be read this way, and since
+ * the heap only ever holds the index and whichever elements are in use, reading them doesn't fill
+ * it with long-lived objects for the garbage collector to trace.
+ *
+ * <p>Optionally, a bounded number of the most recently used elements are kept once deserialized,
+ * so that repeatedly getting the same few elements doesn't deserialize them every time. Without
+ * that cache every {@link #get(int)} returns a new instance, so elements should not be compared by
+ * identity.
+ *
+ * <p>Instances are thread-safe. They should be closed once no longer needed, which closes the file,
+ * deleting it if it was a temporary copy, and releases the mappings for the garbage collector to
+ * free; any later {@link #get(int)} throws IllegalStateException.
+ *
+ * @see GsonCodec#readJsonOffHeap(InputStream, Class, int)
+ * @see GsonCodec#openOffHeap(java.nio.file.Path, Class, int)
+ */
+public final class OffHeapJsonList<E> extends AbstractList<E> implements RandomAccess, Closeable {
+
+  private final Gson gson;
+  private final Class<E> type;
+  private final CodecListener listener;
+  private final int deduplicationCacheSize;
+  private final JsonArrayIndex index;
+  private final int regionShift;
+  private final FileChannel channel;
+  private final Map<Integer, E> cache;
+  /** Region r holds bytes {@code [r << regionShift, (r + 1) << regionShift)} of the array. */
+  private volatile ByteBuffer[] regions;
+
+  private OffHeapJsonList(Gson gson, Class<E> type, CodecListener listener,
+      int deduplicationCacheSize, JsonArrayIndex index, ByteBuffer[] regions, int regionShift,
+      FileChannel channel, final int cacheSize) {
+    this.gson = gson;
+    this.type = type;
+    this.listener = listener;
+    this.deduplicationCacheSize = deduplicationCacheSize;
+    this.index = index;
+    this.regions = regions;
+    this.regionShift = regionShift;
+    this.channel = channel;
+    this.cache = cacheSize == 0 ? null : new LinkedHashMap<Integer, E>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, E> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  /**
+   * Copies an array into a temporary file, finding where each element starts and ends on the way,
+   * but without deserializing anything, then maps that file. The file is deleted when the returned
+   * list is closed.
+   *
+   * @param in holds the serialized array. It is closed once the array has been read.
+   * @throws IOException if unable to read from the stream or to write the file.
+   * @throws JsonSyntaxException if the stream doesn't hold a complete array.
+   */
+  static <E> OffHeapJsonList<E> copying(Gson gson, InputStream in, Class<E> type,
+      CodecListener listener, int deduplicationCacheSize, int cacheSize) throws IOException {
+    // Closing the channel, as the list does when it's closed, deletes the file
+    FileChannel channel = FileChannel.open(Files.createTempFile("offheap", ".json"),
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    try {
+      JsonArrayIndex.Builder builder = new JsonArrayIndex.Builder();
+      byte[] chunk = new byte[GsonCodec.BUFFER_SIZE];
+      try (InputStream closing = in) {
+        int read;
+        while (!builder.scanner.isFinished() && (read = closing.read(chunk)) >= 0) {
+          builder.scanner.scan(chunk, 0, read);
+          ByteBuffer bytes = ByteBuffer.wrap(chunk, 0, read);
+          while (bytes.hasRemaining()) {
+            channel.write(bytes);
+          }
+        }
+      }
+      return mapping(gson, channel, builder.build(), type, listener, deduplicationCacheSize,
+          cacheSize);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Maps a file holding an array, in regions of {@link ByteBufferReader#MAX_REGION_SIZE} bytes.
+   *
+   * @param channel holds the serialized array, from its start to its end. It is closed when the
+   *        returned list is.
+   * @param index says where each element of the array starts and ends.
+   * @throws IOException if unable to map the file.
+   */
+  static <E> OffHeapJsonList<E> mapping(Gson gson, FileChannel channel, JsonArrayIndex index,
+      Class<E> type, CodecListener listener, int deduplicationCacheSize, int cacheSize)
+      throws IOException {
+    long size = channel.size();
+    long regionSize = ByteBufferReader.MAX_REGION_SIZE;
+    ByteBuffer[] regions = new ByteBuffer[(int) ((size + regionSize - 1) / regionSize)];
+    for (int r = 0; r < regions.length; r++) {
+      long start = r * regionSize;
+      regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+          Math.min(regionSize, size - start));
+    }
+    return new OffHeapJsonList<E>(gson, type, listener, deduplicationCacheSize, index, regions,
+        Long.numberOfTrailingZeros(regionSize), channel, cacheSize);
+  }
+
+  /**
+   * @return the index used to find elements.
+   */
+  public JsonArrayIndex index() {
+    return index;
+  }
+
+  @Override
+  public int size() {
+    return index.size();
+  }
+
+  /**
+   * @param i is the position of the element within the array.
+   * @return that element, taken from the cache or else deserialized.
+   * @throws IllegalStateException if this list has been closed.
+   * @throws com.google.gson.JsonParseException naming the index of the element if it could not be
+   *         read.
+   */
+  @Override
+  public E get(int i) {
+    Preconditions.checkElementIndex(i, index.size());
+    if (cache != null) {
+      synchronized (cache) {
+        E cached = cache.get(i);
+        if (cached != null) {
+          return cached;
+        }
+      }
+    }
+    E toReturn = read(i);
+    if (cache != null && toReturn != null) {
+      synchronized (cache) {
+        cache.put(i, toReturn);
+      }
+    }
+    return toReturn;
+  }
+
+  private E read(int i) {
+    ByteBuffer[] regions = this.regions;
+    Preconditions.checkState(regions != null, "List has been closed");
+    long start = index.start(i);
+    long end = index.end(i);
+    int region = (int) (start >>> regionShift);
+    int offset = (int) (start - ((long) region << regionShift));
+    ByteBuffer element;
+    if (offset + (end - start) <= regions[region].limit()) {
+      element = regions[region].duplicate();
+      ((Buffer) element).limit(offset + (int) (end - start)).position(offset);
+    } else {
+      // Rare, since regions are far larger than most elements, so just copy it back together
+      element = ByteBuffer.allocate((int) (end - start));
+      while (element.hasRemaining()) {
+        ByteBuffer piece = regions[region++].duplicate();
+        ((Buffer) piece).position(offset);
+        if (piece.remaining() > element.remaining()) {
+          ((Buffer) piece).limit(offset + element.remaining());
+        }
+        element.put(piece);
+        offset = 0;
+      }
+      ((Buffer) element).flip();
+    }
+    OperationMetrics metrics = new OperationMetrics(listener, i, deduplicationCacheSize);
+    long startNanos = metrics.start();
+    E toReturn;
+    metrics.beginBinding();
+    try {
+      toReturn = gson.fromJson(new JsonReader(new ByteBufferReader(element)), type);
+    } catch (JsonSyntaxException | JsonIOException e) {
+      metrics.readFailed(e);
+      throw ParallelJsonReader.elementError(i, e);
+    } finally {
+      metrics.endBinding();
+    }
+    metrics.elementRead(type, startNanos);
+    metrics.readFinished(end - start);
+    return toReturn;
+  }
+
+  /**
+   * Releases the mappings and empties the cache, then closes the file, deleting it if it was a
+   * temporary copy.
+   */
+  @Override
+  public void close() throws IOException {
+    regions = null;
+    if (cache != null) {
+      synchronized (cache) {
+        cache.clear();
+      }
+    }
+    channel.close();
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+/**
+ * Counts the elements of a single read or write and passes measurements of them on to a
+ * {@link CodecListener}. When the listener is {@link CodecListener#NONE}, nothing but the count is
+ * kept and the clock is never read.
+ *
+ * <p>Each instance also holds the {@link Deduplicator} shared by the elements of its operation, if
+ * the codec deduplicates, since it's the one object every read creates once for all its elements.
+ * It's made available to the codec's adapters only between {@link #beginBinding()} and
+ * {@link #endBinding()}.
+ *
+ * <p>Instances are not thread-safe; an operation which works on several threads keeps one per
+ * batch of elements, or calls the listener itself.
+ */
+final class OperationMetrics {
+
+  /** The deduplicator of the operation binding values on each thread, while one is. */
+  private static final ThreadLocal<Deduplicator> BINDING = new ThreadLocal<>();
+
+  private final CodecListener listener;
+  private final boolean enabled;
+  private final long firstIndex;
+  private final int deduplicationCacheSize;
+  private long elements = 0;
+  private boolean finished = false;
+  private Deduplicator deduplicator;
+  /** What BINDING held on this thread before {@link #beginBinding()}. */
+  private Deduplicator outerBinding;
+
+  /**
+   * @param listener receives the measurements.
+   * @param firstIndex is the index of the first element this instance will see.
+   * @param deduplicationCacheSize is the size of the deduplicator to share between the values
+   *        this operation reads, or 0 if the codec doesn't deduplicate.
+   */
+  OperationMetrics(CodecListener listener, long firstIndex, int deduplicationCacheSize) {
+    this.listener = listener;
+    this.enabled = listener != CodecListener.NONE;
+    this.firstIndex = firstIndex;
+    this.deduplicationCacheSize = deduplicationCacheSize;
+  }
+
+  OperationMetrics(CodecListener listener, long firstIndex) {
+    this(listener, firstIndex, 0);
+  }
+
+  OperationMetrics(CodecListener listener) {
+    this(listener, 0, 0);
+  }
+
+  /**
+   * @return whether measurements are being passed on, and so whether it's worth counting bytes.
+   */
+  boolean enabled() {
+    return enabled;
+  }
+
+  /**
+   * @return the number of elements seen so far.
+   */
+  long elements() {
+    return elements;
+  }
+
+  /**
+   * @return the index of the next element.
+   */
+  long nextIndex() {
+    return firstIndex + elements;
+  }
+
+  /**
+   * @return a timestamp to pass to {@link #elementRead} or {@link #elementWritten} once the
+   *         element is done.
+   */
+  long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * If the codec deduplicates, makes the values bound on this thread share instances with equal
+   * values this operation has already read, until {@link #endBinding()}; otherwise does nothing.
+   * Must be followed by endBinding() in a finally block, so that the deduplicator isn't left on
+   * the thread however binding ends.
+   */
+  void beginBinding() {
+    if (deduplicationCacheSize > 0) {
+      if (deduplicator == null) {
+        deduplicator = new Deduplicator(listener, deduplicationCacheSize);
+      }
+      outerBinding = BINDING.get();
+      BINDING.set(deduplicator);
+    }
+  }
+
+  /**
+   * Undoes {@link #beginBinding()}.
+   */
+  void endBinding() {
+    if (deduplicationCacheSize > 0) {
+      if (outerBinding == null) {
+        BINDING.remove();
+      } else {
+        BINDING.set(outerBinding);
+        outerBinding = null;
+      }
+    }
+  }
+
+  /**
+   * @return the deduplicator of the operation binding values on this thread, or null if none is,
+   *         such as when Gson is used directly rather than through a codec.
+   */
+  static Deduplicator currentDeduplicator() {
+    return BINDING.get();
+  }
+
+  void elementRead(Class<?> type, long start) {
+    elements++;
+    if (enabled) {
+      listener.elementRead(type, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Counts an element which was read but deliberately not bound, such as one a
+   * {@link ReadProjection} rejected, so that the indexes of later elements stay right.
+   */
+  void elementSkipped() {
+    elements++;
+  }
+
+  void elementWritten(Class<?> type, long start) {
+    elements++;
+    if (enabled) {
+      listener.elementWritten(type, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Reports that the next element couldn't be read.
+   */
+  void readFailed(Exception cause) {
+    listener.readFailed(nextIndex(), cause);
+  }
+
+  /**
+   * Reports that the next element couldn't be written.
+   */
+  void writeFailed(Exception cause) {
+    listener.writeFailed(nextIndex(), cause);
+  }
+
+  /**
+   * Reports the totals of a read, unless they've already been reported.
+   */
+  void readFinished(long bytes) {
+    if (!finished) {
+      finished = true;
+      listener.readFinished(elements, bytes);
+    }
+  }
+
+  /**
+   * Reports the totals of a write, unless they've already been reported.
+   */
+  void writeFinished(long bytes) {
+    if (!finished) {
+      finished = true;
+      listener.writeFinished(elements, bytes);
+    }
+  }
+}
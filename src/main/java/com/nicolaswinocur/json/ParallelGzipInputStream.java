@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPInputStream;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+/**
+ * An InputStream which decompresses gzip on several threads at once, ahead of whoever reads from
+ * it, so that decompression overlaps with parsing what was decompressed.
+ *
+ * <p>Only the gzip members written by {@link ParallelGzipOutputStream} record their compressed
+ * size, which is what lets their compressed bytes be read without decompressing them first. From
+ * the first member which doesn't onwards, such as in a file written by
+ * {@link java.util.zip.GZIPOutputStream}, the rest of the stream is decompressed on the calling
+ * thread instead, as GZIPInputStream would.
+ *
+ * <p>At most {@link ParallelOptions#parallelism()} times two members are held in memory at once.
+ * Instances are not thread-safe.
+ */
+public final class ParallelGzipInputStream extends InputStream {
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final InputStream in;
+  private final ParallelOptions options;
+  private final ArrayDeque<FutureTask<byte[]>> inFlight = new ArrayDeque<>();
+  /** Whether the last member which can be decompressed in parallel has been read from in. */
+  private boolean readAllMembers = false;
+  /** Decompresses whatever follows the last such member, if anything does. */
+  private InputStream sequential;
+  private byte[] block = EMPTY;
+  private int position = 0;
+  private boolean closed = false;
+
+  /**
+   * @param in supplies the compressed bytes. It is closed when this stream is closed.
+   * @param options gives the executor to decompress on, and how many members to decompress ahead.
+   */
+  public ParallelGzipInputStream(InputStream in, ParallelOptions options) {
+    this.in = Preconditions.checkNotNull(in);
+    this.options = Preconditions.checkNotNull(options);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkPositionIndexes(off, off + len, b.length);
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    while (position == block.length) {
+      if (!nextBlock()) {
+        return sequential != null ? sequential.read(b, off, len) : -1;
+      }
+    }
+    int copied = Math.min(len, block.length - position);
+    System.arraycopy(block, position, b, off, copied);
+    position += copied;
+    return copied;
+  }
+
+  @Override
+  public int available() throws IOException {
+    if (position < block.length) {
+      return block.length - position;
+    }
+    return sequential != null && inFlight.isEmpty() ? sequential.available() : 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (FutureTask<byte[]> task : inFlight) {
+      task.cancel(true);
+    }
+    inFlight.clear();
+    block = EMPTY;
+    if (sequential != null) {
+      sequential.close();
+    } else {
+      in.close();
+    }
+  }
+
+  /**
+   * Moves on to the next decompressed member, keeping enough others decompressing behind it.
+   *
+   * @return whether there was one.
+   */
+  private boolean nextBlock() throws IOException {
+    submitMembers();
+    if (inFlight.isEmpty()) {
+      return false;
+    }
+    block = GzipMember.await(inFlight.removeFirst());
+    position = 0;
+    submitMembers();
+    return true;
+  }
+
+  private void submitMembers() throws IOException {
+    while (!readAllMembers && inFlight.size() < options.maxBatchesInFlight()) {
+      byte[] member = readMember();
+      if (member == null) {
+        readAllMembers = true;
+      } else {
+        FutureTask<byte[]> task = new FutureTask<>(() -> GzipMember.decompress(member));
+        inFlight.addLast(task);
+        options.executor().execute(task);
+      }
+    }
+  }
+
+  /**
+   * @return the next member's compressed bytes, or null if the stream ended or the next member
+   *         doesn't record its size, in which case {@link #sequential} will read the rest.
+   */
+  private byte[] readMember() throws IOException {
+    byte[] header = new byte[GzipMember.HEADER_LENGTH];
+    int read = ByteStreams.read(in, header, 0, header.length);
+    if (read == 0) {
+      in.close();
+      return null;
+    }
+    int size = read == header.length ? GzipMember.memberSize(header) : -1;
+    if (size < 0) {
+      sequential = new GZIPInputStream(
+          new SequenceInputStream(new ByteArrayInputStream(header, 0, read), in));
+      return null;
+    }
+    byte[] member = new byte[size];
+    System.arraycopy(header, 0, member, 0, header.length);
+    if (ByteStreams.read(in, member, header.length, size - header.length)
+        < size - header.length) {
+      throw new EOFException("Unexpected end of gzip member");
+    }
+    return member;
+  }
+}
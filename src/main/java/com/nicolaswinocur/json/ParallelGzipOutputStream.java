@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.FutureTask;
+import com.google.common.base.Preconditions;
+
+/**
+ * An OutputStream which gzip-compresses what's written to it on several threads at once.
+ *
+ * <p>Bytes are gathered into blocks, each of which is compressed on the options' executor into a
+ * gzip member of its own; the calling thread writes the members out in order. A file of several
+ * members is still a single valid gzip stream, readable by {@link java.util.zip.GZIPInputStream}
+ * or any gzip tool, at the cost of compressing slightly worse than one member would, since no
+ * block can refer back to the bytes of the one before it. {@link ParallelGzipInputStream} can also
+ * decompress such a file in parallel.
+ *
+ * <p>At most {@link ParallelOptions#parallelism()} times two blocks are held in memory at once.
+ * Instances are not thread-safe.
+ */
+public final class ParallelGzipOutputStream extends OutputStream {
+
+  /** Default number of uncompressed bytes in each block. */
+  public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+
+  private final OutputStream out;
+  private final ParallelOptions options;
+  private final int blockSize;
+  private final ArrayDeque<FutureTask<byte[]>> inFlight = new ArrayDeque<>();
+  private byte[] block;
+  private int blockLength = 0;
+  private boolean wroteAnyMember = false;
+  private boolean closed = false;
+
+  /**
+   * @param out receives the compressed bytes. It is closed when this stream is closed.
+   * @param options gives the executor to compress on, and how many blocks to compress at once.
+   */
+  public ParallelGzipOutputStream(OutputStream out, ParallelOptions options) {
+    this(out, options, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * @param out receives the compressed bytes. It is closed when this stream is closed.
+   * @param options gives the executor to compress on, and how many blocks to compress at once.
+   * @param blockSize is the number of uncompressed bytes in each block. Larger blocks compress
+   *        slightly better, smaller ones use less memory.
+   */
+  public ParallelGzipOutputStream(OutputStream out, ParallelOptions options, int blockSize) {
+    Preconditions.checkArgument(blockSize > 0, "blockSize must be positive, but was %s",
+        blockSize);
+    this.out = Preconditions.checkNotNull(out);
+    this.options = Preconditions.checkNotNull(options);
+    this.blockSize = blockSize;
+    this.block = new byte[blockSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    checkOpen();
+    if (blockLength == blockSize) {
+      submitBlock();
+    }
+    block[blockLength++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkPositionIndexes(off, off + len, b.length);
+    checkOpen();
+    while (len > 0) {
+      if (blockLength == blockSize) {
+        submitBlock();
+      }
+      int copied = Math.min(len, blockSize - blockLength);
+      System.arraycopy(b, off, block, blockLength, copied);
+      blockLength += copied;
+      off += copied;
+      len -= copied;
+    }
+  }
+
+  /**
+   * Compresses and writes out everything written so far, then flushes the underlying stream. The
+   * bytes buffered so far become a block of their own, so flushing often compresses worse.
+   */
+  @Override
+  public void flush() throws IOException {
+    checkOpen();
+    submitBlock();
+    while (!inFlight.isEmpty()) {
+      writeOldestMember();
+    }
+    out.flush();
+  }
+
+  /**
+   * Compresses and writes out everything written so far, then closes the underlying stream.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    boolean succeeded = false;
+    try {
+      submitBlock();
+      while (!inFlight.isEmpty()) {
+        writeOldestMember();
+      }
+      if (!wroteAnyMember) {
+        // A gzip stream holds at least one member, even when it's empty
+        out.write(GzipMember.compress(block, 0));
+      }
+      succeeded = true;
+    } finally {
+      if (!succeeded) {
+        for (FutureTask<byte[]> task : inFlight) {
+          task.cancel(true);
+        }
+      }
+      out.close();
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private void submitBlock() throws IOException {
+    if (blockLength == 0) {
+      return;
+    }
+    while (inFlight.size() >= options.maxBatchesInFlight()) {
+      writeOldestMember();
+    }
+    final byte[] data = block;
+    final int length = blockLength;
+    FutureTask<byte[]> task = new FutureTask<>(() -> GzipMember.compress(data, length));
+    inFlight.addLast(task);
+    options.executor().execute(task);
+    block = new byte[blockSize];
+    blockLength = 0;
+  }
+
+  private void writeOldestMember() throws IOException {
+    out.write(GzipMember.await(inFlight.removeFirst()));
+    wroteAnyMember = true;
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Deserializes the elements of a top-level JSON array on several threads at once. The calling
+ * thread reads the input and finds where each element starts and ends with a
+ * {@link JsonArrayScanner}; each batch of elements is then copied out and bound by a worker, and
+ * the batches' results are collected in their original order. Only a bounded number of batches is
+ * ever buffered, so memory use doesn't grow with the size of the input beyond the results
+ * themselves.
+ */
+final class ParallelJsonReader<E> {
+
+  /** Number of bytes read from the input at a time. */
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private final Gson gson;
+  private final Class<E> type;
+  private final ParallelOptions options;
+  private final CodecListener listener;
+  private final int deduplicationCacheSize;
+  private final ArrayDeque<FutureTask<List<E>>> inFlight = new ArrayDeque<>();
+  private final ImmutableList.Builder<E> results = ImmutableList.builder();
+
+  /** Input bytes not yet handed to a worker; buffer[0] is at offset bufferStart of the input. */
+  private byte[] buffer = new byte[CHUNK_SIZE * 2];
+  private int bufferLength = 0;
+  private long bufferStart = 0;
+
+  /** Boundaries of elements which have been scanned but not yet handed to a worker. */
+  private long[] starts = new long[ParallelOptions.DEFAULT_BATCH_SIZE];
+  private long[] ends = new long[ParallelOptions.DEFAULT_BATCH_SIZE];
+  private int pendingHead = 0;
+  private int pendingTail = 0;
+  private long submittedCount = 0;
+
+  private ParallelJsonReader(Gson gson, Class<E> type, ParallelOptions options,
+      CodecListener listener, int deduplicationCacheSize) {
+    this.gson = gson;
+    this.type = type;
+    this.options = options;
+    this.listener = listener;
+    this.deduplicationCacheSize = deduplicationCacheSize;
+  }
+
+  /**
+   * @return every element of the array read from {@code in}, in order.
+   * @throws IOException if unable to read from the stream.
+   * @throws JsonParseException naming the index of the first element which could not be read.
+   */
+  static <E> ImmutableList<E> read(Gson gson, InputStream in, Class<E> type,
+      ParallelOptions options, CodecListener listener, int deduplicationCacheSize)
+      throws IOException {
+    return new ParallelJsonReader<E>(gson, type, options, listener, deduplicationCacheSize)
+        .readAll(in);
+  }
+
+  private ImmutableList<E> readAll(InputStream in) throws IOException {
+    JsonArrayScanner scanner = new JsonArrayScanner(this::addPending);
+    boolean succeeded = false;
+    try {
+      while (!scanner.isFinished()) {
+        makeRoom(scanner.retainFrom());
+        int read = in.read(buffer, bufferLength, buffer.length - bufferLength);
+        if (read < 0) {
+          break;
+        }
+        scan(scanner, read);
+        bufferLength += read;
+        while (pendingTail - pendingHead >= options.batchSize()) {
+          submitBatch(options.batchSize());
+        }
+      }
+      scan(scanner, -1);
+      if (pendingTail > pendingHead) {
+        submitBatch(pendingTail - pendingHead);
+      }
+      while (!inFlight.isEmpty()) {
+        collectOldestBatch();
+      }
+      succeeded = true;
+      listener.readFinished(submittedCount, scanner.position());
+      return results.build();
+    } finally {
+      if (!succeeded) {
+        for (FutureTask<List<E>> task : inFlight) {
+          task.cancel(true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Scans the {@code length} bytes just read into the end of the buffer or, if {@code length} is
+   * negative, checks that the input is complete.
+   */
+  private void scan(JsonArrayScanner scanner, int length) {
+    try {
+      if (length < 0) {
+        scanner.finish();
+      } else {
+        scanner.scan(buffer, bufferLength, length);
+      }
+    } catch (JsonSyntaxException e) {
+      listener.readFailed(scanner.elementCount(), e);
+      throw e;
+    }
+  }
+
+  private void addPending(long index, long start, long end) {
+    if (pendingTail == starts.length) {
+      if (pendingHead > 0) {
+        System.arraycopy(starts, pendingHead, starts, 0, pendingTail - pendingHead);
+        System.arraycopy(ends, pendingHead, ends, 0, pendingTail - pendingHead);
+        pendingTail -= pendingHead;
+        pendingHead = 0;
+      } else {
+        starts = Arrays.copyOf(starts, starts.length * 2);
+        ends = Arrays.copyOf(ends, ends.length * 2);
+      }
+    }
+    starts[pendingTail] = start;
+    ends[pendingTail] = end;
+    pendingTail++;
+  }
+
+  /**
+   * Ensures there's room for at least one more chunk at the end of the buffer, first by discarding
+   * bytes no longer needed and then, if that isn't enough, by growing it.
+   */
+  private void makeRoom(long scannerRetainFrom) {
+    if (buffer.length - bufferLength >= CHUNK_SIZE) {
+      return;
+    }
+    long retainFrom = pendingTail > pendingHead ? starts[pendingHead] : scannerRetainFrom;
+    int discard = (int) (retainFrom - bufferStart);
+    if (discard > 0) {
+      System.arraycopy(buffer, discard, buffer, 0, bufferLength - discard);
+      bufferLength -= discard;
+      bufferStart = retainFrom;
+    }
+    if (buffer.length - bufferLength < CHUNK_SIZE) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + CHUNK_SIZE));
+    }
+  }
+
+  private void submitBatch(int count) throws IOException {
+    // Keeping the separators between elements and wrapping them all in brackets turns the batch
+    // into a JSON array of its own.
+    int from = (int) (starts[pendingHead] - bufferStart);
+    int to = (int) (ends[pendingHead + count - 1] - bufferStart);
+    final byte[] batch = new byte[to - from + 2];
+    batch[0] = '[';
+    System.arraycopy(buffer, from, batch, 1, to - from);
+    batch[batch.length - 1] = ']';
+    final int batchCount = count;
+    final long firstIndex = submittedCount;
+    pendingHead += count;
+    submittedCount += count;
+
+    while (inFlight.size() >= options.maxBatchesInFlight()) {
+      collectOldestBatch();
+    }
+    FutureTask<List<E>> task = new FutureTask<>(() -> bindBatch(batch, batchCount, firstIndex));
+    inFlight.addLast(task);
+    options.executor().execute(task);
+  }
+
+  private List<E> bindBatch(byte[] batch, int count, long firstIndex) {
+    List<E> bound = new ArrayList<>(count);
+    JsonReader reader = new JsonReader(
+        new InputStreamReader(new ByteArrayInputStream(batch), StandardCharsets.UTF_8));
+    OperationMetrics metrics = new OperationMetrics(listener, firstIndex, deduplicationCacheSize);
+    metrics.beginBinding();
+    try {
+      reader.beginArray();
+      for (int i = 0; i < count; i++) {
+        long start = metrics.start();
+        bound.add(gson.fromJson(reader, type));
+        metrics.elementRead(type, start);
+      }
+      return bound;
+    } catch (IOException e) {
+      metrics.readFailed(e);
+      throw elementError(metrics.nextIndex(), new JsonSyntaxException(e));
+    } catch (RuntimeException e) {
+      metrics.readFailed(e);
+      throw elementError(metrics.nextIndex(), e);
+    } finally {
+      metrics.endBinding();
+    }
+  }
+
+  private void collectOldestBatch() throws IOException {
+    FutureTask<List<E>> task = inFlight.removeFirst();
+    try {
+      results.addAll(task.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a batch to be read");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new JsonIOException(e.getCause());
+    }
+  }
+
+  /**
+   * @return an exception of the same kind Gson would have thrown, but naming the element's index.
+   */
+  static JsonParseException elementError(long index, RuntimeException cause) {
+    String message = "Failed to read element " + index + ": " + cause.getMessage();
+    return cause instanceof JsonIOException ? new JsonIOException(message, cause)
+        : new JsonSyntaxException(message, cause);
+  }
+}
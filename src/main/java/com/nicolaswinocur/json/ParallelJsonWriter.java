@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Serializes the elements of a top-level JSON array on several threads at once, producing exactly
+ * the bytes {@link GsonCodec#writeJsonStream(OutputStream, Iterator)} would.
+ *
+ * <p>Each worker writes its batch as a complete array of its own, using the codec's settings, so
+ * that every element is indented for the same depth it will have in the final output. Stripping
+ * that array's brackets leaves just the elements and the separators between them, which the
+ * calling thread then stitches together in order, with a comma between batches.
+ */
+final class ParallelJsonWriter {
+
+  private final GsonCodec codec;
+  private final ParallelOptions options;
+  private final ArrayDeque<FutureTask<byte[]>> inFlight = new ArrayDeque<>();
+  /** Bytes JsonWriter writes after the last element of a non-empty array. */
+  private final byte[] suffix;
+  private boolean wroteAnyBatch = false;
+  private long submittedCount = 0;
+  private long bytesWritten = 0;
+
+  private ParallelJsonWriter(GsonCodec codec, ParallelOptions options) {
+    this.codec = codec;
+    this.options = options;
+    this.suffix = (codec.indent().isEmpty() ? "]" : "\n]").getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes every element {@code messages} produces to {@code out}, then closes it.
+   *
+   * @throws IOException if unable to write to the stream.
+   */
+  static void write(GsonCodec codec, OutputStream out, Iterator<?> messages,
+      ParallelOptions options) throws IOException {
+    new ParallelJsonWriter(codec, options).writeAll(out, messages);
+  }
+
+  private void writeAll(OutputStream out, Iterator<?> messages) throws IOException {
+    boolean succeeded = false;
+    try {
+      out.write('[');
+      while (messages.hasNext()) {
+        List<Object> batch = new ArrayList<>(options.batchSize());
+        while (batch.size() < options.batchSize() && messages.hasNext()) {
+          batch.add(messages.next());
+        }
+        while (inFlight.size() >= options.maxBatchesInFlight()) {
+          writeOldestBatch(out);
+        }
+        final long firstIndex = submittedCount;
+        submittedCount += batch.size();
+        FutureTask<byte[]> task = new FutureTask<>(() -> encodeBatch(batch, firstIndex));
+        inFlight.addLast(task);
+        options.executor().execute(task);
+      }
+      while (!inFlight.isEmpty()) {
+        writeOldestBatch(out);
+      }
+      if (wroteAnyBatch) {
+        out.write(suffix);
+        bytesWritten += suffix.length + 1;
+      } else {
+        out.write(']');
+        bytesWritten += 2;
+      }
+      succeeded = true;
+    } finally {
+      if (!succeeded) {
+        for (FutureTask<byte[]> task : inFlight) {
+          task.cancel(true);
+        }
+      }
+      out.close();
+    }
+    codec.listener().writeFinished(submittedCount, bytesWritten);
+  }
+
+  /**
+   * @return the UTF-8 encoded elements of the batch and the separators between them, exactly as
+   *         they would appear inside the complete array.
+   */
+  private byte[] encodeBatch(List<Object> batch, long firstIndex) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    JsonWriter writer =
+        codec.newJsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+    Gson gson = codec.gson();
+    OperationMetrics metrics = new OperationMetrics(codec.listener(), firstIndex);
+    writer.beginArray();
+    for (Object message : batch) {
+      long start = metrics.start();
+      try {
+        if (message == null) {
+          writer.nullValue();
+        } else {
+          gson.toJson(message, message.getClass(), writer);
+        }
+      } catch (IOException | RuntimeException e) {
+        metrics.writeFailed(e);
+        throw e;
+      }
+      metrics.elementWritten(message == null ? null : message.getClass(), start);
+    }
+    writer.endArray();
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  private void writeOldestBatch(OutputStream out) throws IOException {
+    FutureTask<byte[]> task = inFlight.removeFirst();
+    byte[] encoded;
+    try {
+      encoded = task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a batch to be written");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new JsonIOException(e.getCause());
+    }
+    if (wroteAnyBatch) {
+      out.write(',');
+    }
+    // Drop the batch's own opening bracket and closing suffix
+    out.write(encoded, 1, encoded.length - 1 - suffix.length);
+    bytesWritten += encoded.length - suffix.length - (wroteAnyBatch ? 0 : 1);
+    wroteAnyBatch = true;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import com.google.common.base.Preconditions;
+
+/**
+ * Settings for the parallel read and write paths of {@link GsonCodec}: which executor runs the
+ * work, how many elements make up each unit of work, and how many units may be in flight at once.
+ * The number of units in flight also bounds how much input or output is buffered in memory.
+ *
+ * <p>Instances are immutable. The executor is only ever submitted to, never shut down.
+ */
+public final class ParallelOptions {
+
+  /** Default number of elements handed to a worker at a time. */
+  static final int DEFAULT_BATCH_SIZE = 256;
+
+  private final Executor executor;
+  private final int parallelism;
+  private final int batchSize;
+
+  private ParallelOptions(Executor executor, int parallelism, int batchSize) {
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * @return options which run work on {@link ForkJoinPool#commonPool()}, with as many workers as
+   *         it has, and default batches.
+   */
+  public static ParallelOptions commonPool() {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    return new ParallelOptions(pool, pool.getParallelism(), DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param executor runs the work. It could be a {@link ForkJoinPool} or any other executor.
+   * @param parallelism is the number of workers which should be kept busy at once. Twice this many
+   *        batches may be buffered, so that a worker is never left waiting for its next batch.
+   * @param batchSize is the number of elements handed to a worker at a time. Larger batches cost
+   *        less coordination but buffer more data.
+   * @return options with those settings.
+   */
+  public static ParallelOptions of(Executor executor, int parallelism, int batchSize) {
+    Preconditions.checkNotNull(executor);
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive: %s", parallelism);
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive: %s", batchSize);
+    return new ParallelOptions(executor, parallelism, batchSize);
+  }
+
+  /**
+   * @return the executor work is submitted to.
+   */
+  public Executor executor() {
+    return executor;
+  }
+
+  /**
+   * @return the number of workers which should be kept busy at once.
+   */
+  public int parallelism() {
+    return parallelism;
+  }
+
+  /**
+   * @return the number of elements handed to a worker at a time.
+   */
+  public int batchSize() {
+    return batchSize;
+  }
+
+  /**
+   * @return the most batches which may have been submitted but not yet consumed at once.
+   */
+  int maxBatchesInFlight() {
+    return parallelism * 2;
+  }
+}
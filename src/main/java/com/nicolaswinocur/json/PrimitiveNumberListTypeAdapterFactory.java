@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.$Gson$Types;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Deserializes values declared as {@code List<Integer>}, {@code List<Long>} or
+ * {@code List<Double>} into the {@code asList()} view of an {@code ImmutableIntArray},
+ * {@code ImmutableLongArray} or {@code ImmutableDoubleArray}, so that a large series of numbers is
+ * held as one primitive array rather than one boxed object per element. Elements are only boxed
+ * when they're read from the list.
+ *
+ * <p>This is opt-in, through {@link GsonCodec.Builder#setPrimitiveBackedNumberLists(boolean)},
+ * because the lists it returns are immutable and can't hold nulls: a null element fails to
+ * deserialize rather than becoming a null in the list.
+ */
+final class PrimitiveNumberListTypeAdapterFactory implements TypeAdapterFactory {
+
+  private enum Kind {
+    INT, LONG, DOUBLE
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    Type type = typeToken.getType();
+    if (typeToken.getRawType() != List.class || !(type instanceof ParameterizedType)) {
+      return null;
+    }
+    Type elementType = $Gson$Types.getCollectionElementType(type, List.class);
+    final Kind kind;
+    if (elementType == Integer.class) {
+      kind = Kind.INT;
+    } else if (elementType == Long.class) {
+      kind = Kind.LONG;
+    } else if (elementType == Double.class) {
+      kind = Kind.DOUBLE;
+    } else {
+      return null;
+    }
+    final TypeAdapter<Double> doubleAdapter =
+        kind == Kind.DOUBLE ? gson.getAdapter(double.class) : null;
+    TypeAdapter<List<? extends Number>> adapter = new TypeAdapter<List<? extends Number>>() {
+      @Override
+      public void write(JsonWriter out, List<? extends Number> value) throws IOException {
+        out.beginArray();
+        for (Number element : value) {
+          if (element == null) {
+            out.nullValue();
+          } else if (kind == Kind.DOUBLE) {
+            ImmutablePrimitiveArrayTypeAdapterFactory.writeDouble(out, element.doubleValue(),
+                doubleAdapter);
+          } else {
+            out.value(element.longValue());
+          }
+        }
+        out.endArray();
+      }
+
+      @Override
+      public List<? extends Number> read(JsonReader in) throws IOException {
+        switch (kind) {
+          case INT:
+            return ImmutablePrimitiveArrayTypeAdapterFactory.readIntArray(in).asList();
+          case LONG:
+            return ImmutablePrimitiveArrayTypeAdapterFactory.readLongArray(in).asList();
+          default:
+            return ImmutablePrimitiveArrayTypeAdapterFactory.readDoubleArray(in).asList();
+        }
+      }
+    };
+    return (TypeAdapter<T>) adapter.nullSafe();
+  }
+}
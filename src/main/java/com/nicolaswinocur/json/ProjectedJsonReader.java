@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import com.google.gson.JsonElement;
+import com.google.gson.internal.bind.JsonTreeReader;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads object elements of a top-level array straight from the array's reader, hiding the members
+ * a {@link ReadProjection} doesn't keep, so that each element can be bound without first being
+ * copied. Members which the projection already had to read, to test them with its filters, are
+ * replayed from their trees before the rest. An instance reads one element at a time, from when
+ * {@link #start} is called until the element has been read to its end.
+ *
+ * <p>Instances are not thread-safe.
+ */
+final class ProjectedJsonReader extends JsonReader {
+
+  /**
+   * What the superclass reads: the start of an object with endless members. Gson's own Map adapter
+   * reads each key by asking {@code com.google.gson.internal.JsonReaderInternalAccess} to promote
+   * the next name to a value, which only works on JsonReader's own internal state. That state is
+   * kept just past the start of a name, which the promotion turns into the start of a string, so
+   * that the promotion can be noticed and applied to the name actually being read. This package's
+   * own map adapters call {@link #promoteNameToValue()} instead.
+   */
+  private static final class EndlessObject extends Reader {
+    private static final String MEMBER = "\"\":0,";
+    private int position = -1;
+
+    @Override
+    public int read(char[] buffer, int offset, int count) {
+      for (int i = offset; i < offset + count; i++) {
+        buffer[i] = position < 0 ? '{' : MEMBER.charAt(position);
+        position = (position + 1) % MEMBER.length();
+      }
+      return count;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private final JsonReader in;
+  private final Predicate<String> keeps;
+  private Iterator<Map.Entry<String, JsonElement>> replayed;
+  /** Name of the first kept member which isn't replayed, read from {@code in} before its value. */
+  private String pendingName;
+  /** Where the current member's value is read from, or null between members. */
+  private JsonReader value;
+  /** 0 outside the element, 1 between its members, and more inside a member's value. */
+  private int depth = 0;
+  private boolean finished = true;
+  /** A name promoted to a string value, until that value is read. */
+  private String promotedName;
+
+  /**
+   * @param in is the array's reader.
+   * @param keeps says whether a member is projected.
+   */
+  ProjectedJsonReader(JsonReader in, Predicate<String> keeps) {
+    super(new EndlessObject());
+    this.in = in;
+    this.keeps = keeps;
+    try {
+      super.beginObject();
+      super.peek();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Starts reading the next element.
+   *
+   * @param replayed are the members to read before {@code pendingName}, with their values.
+   * @param pendingName is the name of the next member to read from the array's reader, which has
+   *        read the element up to and including that name, and no further.
+   * @return this reader.
+   */
+  ProjectedJsonReader start(List<Map.Entry<String, JsonElement>> replayed, String pendingName) {
+    this.replayed = replayed.iterator();
+    this.pendingName = pendingName;
+    value = null;
+    promotedName = null;
+    depth = 0;
+    finished = false;
+    return this;
+  }
+
+  /**
+   * Reads the next name as a string value instead, as JsonReaderInternalAccess does for a
+   * JsonReader.
+   */
+  void promoteNameToValue() throws IOException {
+    promotedName = depth == 1 && value == null ? nextName() : valueReader().nextName();
+  }
+
+  /**
+   * Notices whether Gson's Map adapter has promoted a name through JsonReaderInternalAccess, and if
+   * so promotes the name actually being read.
+   */
+  private void checkPromoted() throws IOException {
+    if (super.peek() == JsonToken.STRING) {
+      // Get past the empty string and its value, to the start of the next name
+      super.nextString();
+      super.skipValue();
+      super.peek();
+      promoteNameToValue();
+    }
+  }
+
+  /**
+   * @return the promoted name, which has now been read, or null if there isn't one.
+   */
+  private String takePromotedName() throws IOException {
+    checkPromoted();
+    String toReturn = promotedName;
+    promotedName = null;
+    return toReturn;
+  }
+
+  /**
+   * @return whether there's another kept member, after skipping those which aren't kept.
+   */
+  private boolean findMember() throws IOException {
+    if (replayed.hasNext() || pendingName != null) {
+      return true;
+    }
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (keeps.test(name)) {
+        pendingName = name;
+        return true;
+      }
+      in.skipValue();
+    }
+    return false;
+  }
+
+  /**
+   * @return the reader of the value about to be read.
+   * @throws IllegalStateException if no member's value is being read, or a promoted name is.
+   */
+  private JsonReader valueReader() throws IOException {
+    checkPromoted();
+    if (value == null || promotedName != null) {
+      throw new IllegalStateException("Unexpected " + peek() + atPath());
+    }
+    return value;
+  }
+
+  /** Called once a value has been read with {@link #valueReader()}. */
+  private void valueRead() {
+    if (depth == 1) {
+      value = null;
+    }
+  }
+
+  private String atPath() {
+    return " at path " + getPath();
+  }
+
+  @Override
+  public JsonToken peek() throws IOException {
+    checkPromoted();
+    if (promotedName != null) {
+      return JsonToken.STRING;
+    }
+    if (depth == 0) {
+      return finished ? JsonToken.END_DOCUMENT : JsonToken.BEGIN_OBJECT;
+    }
+    if (value != null) {
+      return value.peek();
+    }
+    return findMember() ? JsonToken.NAME : JsonToken.END_OBJECT;
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    JsonToken next = peek();
+    return next != JsonToken.END_OBJECT && next != JsonToken.END_ARRAY
+        && next != JsonToken.END_DOCUMENT;
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    checkPromoted();
+    if (depth == 0 && !finished && promotedName == null) {
+      // The array's reader is already past the element's start
+      depth = 1;
+      return;
+    }
+    valueReader().beginObject();
+    depth++;
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    checkPromoted();
+    if (depth == 1 && value == null && promotedName == null) {
+      if (findMember()) {
+        throw new IllegalStateException("Expected END_OBJECT but was NAME" + atPath());
+      }
+      in.endObject();
+      depth = 0;
+      finished = true;
+      return;
+    }
+    valueReader().endObject();
+    depth--;
+    valueRead();
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    valueReader().beginArray();
+    depth++;
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    valueReader().endArray();
+    depth--;
+    valueRead();
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    checkPromoted();
+    if (depth != 1 || value != null || promotedName != null) {
+      return valueReader().nextName();
+    }
+    if (!findMember()) {
+      throw new IllegalStateException("Expected a name but was END_OBJECT" + atPath());
+    }
+    if (replayed.hasNext()) {
+      Map.Entry<String, JsonElement> member = replayed.next();
+      value = new JsonTreeReader(member.getValue());
+      return member.getKey();
+    }
+    String name = pendingName;
+    pendingName = null;
+    value = in;
+    return name;
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    String promoted = takePromotedName();
+    if (promoted != null) {
+      return promoted;
+    }
+    String toReturn = valueReader().nextString();
+    valueRead();
+    return toReturn;
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    boolean toReturn = valueReader().nextBoolean();
+    valueRead();
+    return toReturn;
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    valueReader().nextNull();
+    valueRead();
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    String promoted = takePromotedName();
+    if (promoted != null) {
+      return Double.parseDouble(promoted);
+    }
+    double toReturn = valueReader().nextDouble();
+    valueRead();
+    return toReturn;
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    String promoted = takePromotedName();
+    if (promoted != null) {
+      return Long.parseLong(promoted);
+    }
+    long toReturn = valueReader().nextLong();
+    valueRead();
+    return toReturn;
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    String promoted = takePromotedName();
+    if (promoted != null) {
+      return Integer.parseInt(promoted);
+    }
+    int toReturn = valueReader().nextInt();
+    valueRead();
+    return toReturn;
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    if (takePromotedName() != null) {
+      return;
+    }
+    if (depth == 0 && !finished) {
+      while (in.hasNext()) {
+        in.nextName();
+        in.skipValue();
+      }
+      in.endObject();
+      finished = true;
+    } else if (depth == 1 && value == null) {
+      nextName();
+    } else {
+      valueReader().skipValue();
+      valueRead();
+    }
+  }
+
+  @Override
+  public String getPath() {
+    return in.getPath();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + atPath();
+  }
+
+  /**
+   * Leaves the array's reader open, for the rest of the array.
+   */
+  @Override
+  public void close() {}
+}
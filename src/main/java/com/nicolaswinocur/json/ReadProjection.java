@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.internal.bind.JsonTreeReader;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Chooses which members of each element of a top-level array are bound, and which elements are
+ * bound at all, so that reads which only need a few fields of wide records, or only some of the
+ * records, don't pay for deserializing the rest.
+ *
+ * <p>Members are named as they appear in the JSON, which is the field's name unless it's
+ * annotated with {@link com.google.gson.annotations.SerializedName}. Each element's members are
+ * read in a single pass: the values of members which are neither projected nor filtered on are
+ * skipped with {@link JsonReader#skipValue()}, without building anything from them, and once a
+ * filter rejects an element the rest of it is skipped the same way. Only filtered members are
+ * parsed into a {@link JsonElement} for their filters to test. Once every filter has passed an
+ * element, it's bound straight from the input, through a reader which hides the members that
+ * weren't projected; only an element with a projected member before a filtered one has its
+ * projected members copied as compact JSON text first, to bind from once the filters have passed
+ * it. Only elements which pass every filter are bound, from their projected members alone; fields
+ * which weren't projected keep whatever value the class gives them when a member is absent. A
+ * filter only tests the first member of its name.
+ *
+ * <p>Instances are immutable, and thread-safe as long as their filters are.
+ *
+ * @see GsonCodec#readJsonFrom(java.io.InputStream, Class, ReadProjection)
+ */
+public final class ReadProjection {
+
+  private final ImmutableSet<String> fields;
+  private final ImmutableMap<String, Predicate<? super JsonElement>> filters;
+
+  private ReadProjection(ImmutableSet<String> fields,
+      ImmutableMap<String, Predicate<? super JsonElement>> filters) {
+    this.fields = fields;
+    this.filters = filters;
+  }
+
+  /**
+   * @return a new builder for a projection which, until told otherwise, keeps every member of
+   *         every element.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the names of the members bound, or an empty set if every member is.
+   */
+  public ImmutableSet<String> fields() {
+    return fields;
+  }
+
+  boolean keeps(String name) {
+    return fields.isEmpty() || fields.contains(name);
+  }
+
+  /**
+   * Reads the next value, which should be an element of the array, as far as needed to test it
+   * with the filters.
+   *
+   * @param in is the array's reader.
+   * @param projected reads elements from {@code in} for this projection.
+   * @return a reader to bind the element from, or null if a filter rejected the element, which
+   *         has then been read to its end. Once every filter has tested its member, the element is
+   *         read straight from {@code in}, with the members which aren't projected hidden; if a
+   *         projected member comes before a filtered one, the element's projected members are
+   *         copied as JSON text instead. An element which isn't an object is read from {@code in}
+   *         as it is.
+   * @throws IOException if unable to read the element.
+   */
+  JsonReader select(JsonReader in, ProjectedJsonReader projected) throws IOException {
+    if (in.peek() != JsonToken.BEGIN_OBJECT) {
+      // Has no members, so leave it to be bound (or to fail to be) as it is
+      if (acceptsMissing(ImmutableSet.of())) {
+        return in;
+      }
+      in.skipValue();
+      return null;
+    }
+    Set<String> tested = filters.isEmpty() ? ImmutableSet.of() : new HashSet<>();
+    // Projected members read to test them, before any member which is only projected
+    List<Map.Entry<String, JsonElement>> leading = new ArrayList<>();
+    StringWriter text = null;
+    JsonWriter out = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      Predicate<? super JsonElement> filter = filters.get(name);
+      if (filter == null && !keeps(name)) {
+        in.skipValue();
+        continue;
+      }
+      if (filter == null && out == null) {
+        if (tested.size() == filters.size()) {
+          return projected.start(leading, name);
+        }
+        // A later member may yet be rejected, so bind from a copy of the projected members
+        text = new StringWriter();
+        out = new JsonWriter(text);
+        // A member explicitly set to null is bound as one
+        out.setSerializeNulls(true);
+        out.beginObject();
+        for (Map.Entry<String, JsonElement> member : leading) {
+          out.name(member.getKey());
+          TypeAdapters.JSON_ELEMENT.write(out, member.getValue());
+        }
+      }
+      if (filter == null) {
+        // Only filtered members need a tree; the rest are copied straight through
+        out.name(name);
+        copyValue(in, out);
+        continue;
+      }
+      JsonElement value = TypeAdapters.JSON_ELEMENT.read(in);
+      tested.add(name);
+      if (!filter.test(value)) {
+        while (in.hasNext()) {
+          in.nextName();
+          in.skipValue();
+        }
+        in.endObject();
+        return null;
+      }
+      if (keeps(name) && out == null) {
+        leading.add(Maps.immutableEntry(name, value));
+      } else if (keeps(name)) {
+        out.name(name);
+        TypeAdapters.JSON_ELEMENT.write(out, value);
+      }
+    }
+    in.endObject();
+    if (!acceptsMissing(tested)) {
+      return null;
+    }
+    if (out != null) {
+      out.endObject();
+      return new JsonReader(new StringReader(text.toString()));
+    }
+    JsonObject element = new JsonObject();
+    for (Map.Entry<String, JsonElement> member : leading) {
+      element.add(member.getKey(), member.getValue());
+    }
+    return new JsonTreeReader(element);
+  }
+
+  /**
+   * Copies the next value, token by token, without building anything from it. Numbers keep their
+   * original text.
+   */
+  private static void copyValue(JsonReader in, JsonWriter out) throws IOException {
+    int depth = 0;
+    do {
+      switch (in.peek()) {
+        case BEGIN_ARRAY:
+          in.beginArray();
+          out.beginArray();
+          depth++;
+          break;
+        case END_ARRAY:
+          in.endArray();
+          out.endArray();
+          depth--;
+          break;
+        case BEGIN_OBJECT:
+          in.beginObject();
+          out.beginObject();
+          depth++;
+          break;
+        case END_OBJECT:
+          in.endObject();
+          out.endObject();
+          depth--;
+          break;
+        case NAME:
+          out.name(in.nextName());
+          break;
+        case STRING:
+          out.value(in.nextString());
+          break;
+        case NUMBER:
+          out.jsonValue(in.nextString());
+          break;
+        case BOOLEAN:
+          out.value(in.nextBoolean());
+          break;
+        case NULL:
+          in.nextNull();
+          out.nullValue();
+          break;
+        default:
+          throw new MalformedJsonException("Unexpected " + in.peek() + " at " + in.getPath());
+      }
+    } while (depth > 0);
+  }
+
+  /**
+   * @param present names the filtered members which the element had.
+   * @return whether the filters of every other member accept {@link JsonNull#INSTANCE}, which
+   *         stands in for a missing member.
+   */
+  private boolean acceptsMissing(Set<String> present) {
+    for (Map.Entry<String, Predicate<? super JsonElement>> filter : filters.entrySet()) {
+      if (!present.contains(filter.getKey()) && !filter.getValue().test(JsonNull.INSTANCE)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Collects the members and filters of a {@link ReadProjection}. Builders are not thread-safe.
+   */
+  public static final class Builder {
+
+    private final ImmutableSet.Builder<String> fields = ImmutableSet.builder();
+    private final Map<String, Predicate<? super JsonElement>> filters = new LinkedHashMap<>();
+
+    private Builder() {}
+
+    /**
+     * @param names are members to bind. Once any member has been named, only named members are
+     *        bound.
+     * @return this builder.
+     */
+    public Builder fields(String... names) {
+      for (String name : names) {
+        fields.add(Preconditions.checkNotNull(name));
+      }
+      return this;
+    }
+
+    /**
+     * Only binds elements whose member of the given name passes the filter. A filter is tested
+     * with the member's raw value, or with {@link JsonNull#INSTANCE} if the element doesn't have
+     * that member. Filtering on a member doesn't also bind it, unless it's projected too.
+     *
+     * @param name is the member to test.
+     * @param filter is the test. If a member already has a filter, an element must pass both.
+     * @return this builder.
+     */
+    public Builder filter(String name, Predicate<? super JsonElement> filter) {
+      Preconditions.checkNotNull(name);
+      Preconditions.checkNotNull(filter);
+      Predicate<? super JsonElement> existing = filters.get(name);
+      filters.put(name, existing == null ? filter
+          : (Predicate<JsonElement>) value -> existing.test(value) && filter.test(value));
+      return this;
+    }
+
+    /**
+     * @return a new projection with this builder's current members and filters.
+     */
+    public ReadProjection build() {
+      return new ReadProjection(fields.build(), ImmutableMap.copyOf(filters));
+    }
+  }
+}
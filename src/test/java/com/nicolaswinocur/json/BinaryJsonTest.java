@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.junit.Test;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.primitives.ImmutableLongArray;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+public class BinaryJsonTest {
+
+  @Test
+  public void everyTokenTypeRoundTrips() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+      writer.setSerializeNulls(true);
+      writer.beginObject();
+      writer.name("null").nullValue();
+      writer.name("true").value(true);
+      writer.name("false").value(false);
+      writer.name("longs").beginArray();
+      writer.value(0).value(-1).value(Long.MIN_VALUE).value(Long.MAX_VALUE);
+      writer.endArray();
+      writer.name("double").value(0.1);
+      writer.name("float").value(1.5);
+      writer.name("number").value(new BigDecimal("123456789012345678901234567890.5"));
+      writer.name("string").value("café 😀 \"quoted\"\n");
+      writer.name("empty").value("");
+      writer.name("object").beginObject();
+      writer.name("string").value("nested");
+      writer.endObject();
+      writer.endObject();
+    }
+
+    try (JsonReader reader = new BinaryJsonReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+      reader.beginObject();
+      assertEquals("null", reader.nextName());
+      assertEquals(JsonToken.NULL, reader.peek());
+      reader.nextNull();
+      assertEquals("true", reader.nextName());
+      assertTrue(reader.nextBoolean());
+      assertEquals("false", reader.nextName());
+      assertFalse(reader.nextBoolean());
+      assertEquals("longs", reader.nextName());
+      reader.beginArray();
+      assertEquals(0, reader.nextLong());
+      assertEquals(-1, reader.nextLong());
+      assertEquals(Long.MIN_VALUE, reader.nextLong());
+      assertEquals(Long.MAX_VALUE, reader.nextLong());
+      assertFalse(reader.hasNext());
+      reader.endArray();
+      assertEquals("double", reader.nextName());
+      assertEquals(JsonToken.NUMBER, reader.peek());
+      assertEquals(Double.doubleToLongBits(0.1), Double.doubleToLongBits(reader.nextDouble()));
+      assertEquals("float", reader.nextName());
+      assertEquals(Double.doubleToLongBits(1.5), Double.doubleToLongBits(reader.nextDouble()));
+      assertEquals("number", reader.nextName());
+      assertEquals(JsonToken.NUMBER, reader.peek());
+      assertEquals("123456789012345678901234567890.5", reader.nextString());
+      assertEquals("string", reader.nextName());
+      assertEquals("café 😀 \"quoted\"\n", reader.nextString());
+      assertEquals("empty", reader.nextName());
+      assertEquals("", reader.nextString());
+      assertEquals("object", reader.nextName());
+      reader.beginObject();
+      // Written the second time as a reference to the dictionary
+      assertEquals("string", reader.nextName());
+      assertEquals("nested", reader.nextString());
+      reader.endObject();
+      reader.endObject();
+      assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+    }
+  }
+
+  @Test
+  public void doublesNarrowToFloatsOnlyWhenExact() throws IOException {
+    // Magic, tag, then four bytes for a float or eight for a double
+    assertEquals(9, encodedLength(1.5));
+    assertEquals(9, encodedLength(-0.0));
+    assertEquals(9, encodedLength((double) Float.MAX_VALUE));
+    assertEquals(13, encodedLength(0.1));
+    assertEquals(13, encodedLength(Double.MAX_VALUE));
+    assertEquals(13, encodedLength(Double.MIN_VALUE));
+
+    for (double value : new double[] {1.5, -0.0, Float.MAX_VALUE, Float.MIN_VALUE, 0.1,
+        Double.MAX_VALUE, Double.MIN_VALUE, 1e300, -123456.789}) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+        writer.value(value);
+      }
+      try (JsonReader reader =
+          new BinaryJsonReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+        assertEquals(Double.doubleToLongBits(value), Double.doubleToLongBits(reader.nextDouble()));
+      }
+    }
+  }
+
+  @Test
+  public void floatsReadBackAsTheirJsonText() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+      writer.value(Float.valueOf(0.1f));
+    }
+    try (JsonReader reader = new BinaryJsonReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertEquals(Double.doubleToLongBits(0.1), Double.doubleToLongBits(reader.nextDouble()));
+    }
+  }
+
+  @Test
+  public void nameDictionaryOverflowsIntoLiterals() throws IOException {
+    int count = BinaryFormat.MAX_NAMES + 100;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+      writer.beginArray();
+      // The second object refers back to names the first one put in the dictionary, and repeats
+      // those which didn't fit as literals
+      for (int pass = 0; pass < 2; pass++) {
+        writer.beginObject();
+        for (int i = 0; i < count; i++) {
+          writer.name("name" + i).value(i + pass);
+        }
+        writer.endObject();
+      }
+      writer.endArray();
+    }
+
+    try (JsonReader reader = new BinaryJsonReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+      reader.beginArray();
+      for (int pass = 0; pass < 2; pass++) {
+        reader.beginObject();
+        for (int i = 0; i < count; i++) {
+          assertEquals("name" + i, reader.nextName());
+          assertEquals(i + pass, reader.nextInt());
+        }
+        reader.endObject();
+      }
+      reader.endArray();
+    }
+  }
+
+  @Test
+  public void valuesConvertLikeJsonReader() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+      writer.beginArray().value(42).value(2.5).value("17").endArray();
+    }
+    try (JsonReader reader = new BinaryJsonReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+      reader.beginArray();
+      assertEquals("42", reader.nextString());
+      assertEquals("2.5", reader.nextString());
+      assertEquals(17, reader.nextInt());
+      reader.endArray();
+    }
+  }
+
+  @Test
+  public void codecRoundTripMatchesJson() throws IOException {
+    List<Element> elements = ImmutableList.of(Element.sample(0), Element.sample(1), new Element());
+    GsonCodec codec = GsonCodec.getCompact();
+
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    codec.writeBinaryStream(binary, elements);
+    ImmutableList<Element> read =
+        codec.readBinaryFrom(new ByteArrayInputStream(binary.toByteArray()), Element.class);
+
+    assertEquals(codec.gson().toJson(elements), codec.gson().toJson(read));
+  }
+
+  @Test
+  public void gsonMapAdapterReadsOnceEnabled() throws IOException {
+    BinaryJsonReader.enableGsonMapAdapter();
+    // Calling it again changes nothing
+    BinaryJsonReader.enableGsonMapAdapter();
+    PlainMap plain = new PlainMap();
+    plain.map = new LinkedHashMap<>();
+    plain.map.put("b", 2);
+    plain.map.put("a", 1);
+
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    GsonCodec.getCompact().writeBinaryStream(binary, ImmutableList.of(plain));
+    PlainMap read = GsonCodec.getCompact()
+        .readBinaryFrom(new ByteArrayInputStream(binary.toByteArray()), PlainMap.class).get(0);
+
+    assertEquals(Arrays.asList("b", "a"), ImmutableList.copyOf(read.map.keySet()));
+    assertEquals(plain.map, read.map);
+  }
+
+  @Test(expected = EOFException.class)
+  public void truncatedInputIsRejected() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+      writer.beginArray().value("truncated").endArray();
+    }
+    byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+    try (JsonReader reader = new BinaryJsonReader(new ByteArrayInputStream(truncated))) {
+      reader.beginArray();
+      reader.nextString();
+    }
+  }
+
+  private static int encodedLength(double value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+      writer.value(value);
+    }
+    return bytes.size();
+  }
+
+  static final class Element implements GsonSerializable {
+    String name;
+    long id;
+    double ratio;
+    boolean active;
+    ImmutableList<String> tags;
+    ImmutableSet<Integer> codes;
+    ImmutableMap<String, Double> weights;
+    ImmutableSortedMap<Integer, String> byRank;
+    SortedMap<String, Long> totals;
+    ImmutableListMultimap<String, Integer> groups;
+    ImmutableLongArray samples;
+    BigDecimal amount;
+
+    static Element sample(int seed) {
+      Element toReturn = new Element();
+      toReturn.name = "element " + seed;
+      toReturn.id = Long.MAX_VALUE - seed;
+      toReturn.ratio = 0.1 * (seed + 1);
+      toReturn.active = seed % 2 == 0;
+      toReturn.tags = ImmutableList.of("x", "y" + seed);
+      toReturn.codes = ImmutableSet.of(3, 1, seed);
+      toReturn.weights = ImmutableMap.of("w", 1.5, "z", -seed / 3.0);
+      toReturn.byRank = ImmutableSortedMap.of(2, "second", 1, "first");
+      toReturn.totals = new TreeMap<>(ImmutableMap.of("b", 2L, "a", (long) seed));
+      toReturn.groups = ImmutableListMultimap.of("g", 1, "g", 2, "h", seed);
+      toReturn.samples = ImmutableLongArray.of(Long.MIN_VALUE, 0, seed);
+      toReturn.amount = new BigDecimal("0.30000000000000000001").add(BigDecimal.valueOf(seed));
+      return toReturn;
+    }
+  }
+
+  static final class PlainMap implements GsonSerializable {
+    Map<String, Integer> map;
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.reflect.TypeToken;
+
+public class JsonDeltaTest {
+
+  private final GsonCodec codec = GsonCodec.getCompact();
+
+  @Test
+  public void chainReproducesFullWrites() throws IOException {
+    Random random = new Random(1);
+    List<Element> base = elements(0, 500);
+    List<Element> snapshot = base;
+    List<InputStream> deltas = new ArrayList<>();
+    for (int step = 0; step < 20; step++) {
+      List<Element> updated = new ArrayList<>(snapshot);
+      for (int edit = random.nextInt(10); edit >= 0; edit--) {
+        int at = random.nextInt(updated.size());
+        switch (random.nextInt(4)) {
+          case 0:
+            updated.remove(at);
+            break;
+          case 1:
+            updated.add(at, Element.of(1000 * (step + 1) + edit));
+            break;
+          case 2:
+            updated.set(at, updated.get(at).changed(step));
+            break;
+          default:
+            Collections.swap(updated, at, random.nextInt(updated.size()));
+        }
+      }
+      deltas.add(new ByteArrayInputStream(delta(snapshot, updated)));
+      snapshot = updated;
+    }
+
+    assertArrayEquals(full(snapshot), full(codec.readJsonFromDeltas(base, Element.class, deltas)));
+  }
+
+  @Test
+  public void unchangedElementsAreTheBaseInstances() throws IOException {
+    List<Element> base = elements(0, 100);
+    List<Element> updated = new ArrayList<>(base);
+    updated.set(50, base.get(50).changed(1));
+    updated.add(0, Element.of(-1));
+
+    List<Element> read = applied(base, updated);
+    assertSame(base.get(0), read.get(1));
+    assertSame(base.get(49), read.get(50));
+    assertSame(base.get(99), read.get(100));
+    assertEquals(base.get(50).changed(1).counts, read.get(51).counts);
+  }
+
+  @Test
+  public void reorders() throws IOException {
+    List<Element> base = elements(0, 200);
+    List<Element> reversed = new ArrayList<>(base);
+    Collections.reverse(reversed);
+    assertArrayEquals(full(reversed), full(applied(base, reversed)));
+
+    List<Element> rotated = new ArrayList<>(base);
+    Collections.rotate(rotated, 17);
+    assertArrayEquals(full(rotated), full(applied(base, rotated)));
+
+    // Equal elements, so only some of them can be matched up
+    List<Element> repeated = new ArrayList<>(base.subList(0, 10));
+    repeated.addAll(Collections.nCopies(20, Element.of(3)));
+    List<Element> shuffled = new ArrayList<>(repeated);
+    Collections.shuffle(shuffled, new Random(2));
+    assertArrayEquals(full(shuffled), full(applied(repeated, shuffled)));
+  }
+
+  @Test
+  public void gapsOverMaxEdits() throws IOException {
+    int count = 3 * JsonDelta.MAX_EDITS;
+    List<Element> base = elements(0, count);
+    List<Element> updated = new ArrayList<>(base);
+    // Every other element of the middle changes, with no unique match between them to anchor on
+    for (int i = 10; i < count - 10; i += 2) {
+      updated.set(i, Element.of(-i));
+    }
+    updated.add(count / 2, Element.of(-1));
+    assertArrayEquals(full(updated), full(applied(base, updated)));
+
+    List<Element> replaced = new ArrayList<>(base.subList(0, 5));
+    replaced.addAll(elements(count, 2 * count));
+    replaced.addAll(base.subList(count - 5, count));
+    assertArrayEquals(full(replaced), full(applied(base, replaced)));
+  }
+
+  @Test
+  public void equalSnapshotsKeepEverything() throws IOException {
+    assertEquals("{\"op\":\"keep\"}",
+        new String(delta(elements(0, 10), elements(0, 10)), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void emptySnapshots() throws IOException {
+    List<Element> base = elements(0, 10);
+    List<Element> empty = ImmutableList.of();
+    assertArrayEquals(full(empty), full(applied(base, empty)));
+    assertArrayEquals(full(base), full(applied(empty, base)));
+  }
+
+  @Test
+  public void valueDeltaKeepsOrderAndNulls() throws IOException {
+    Type type = new TypeToken<ImmutableMap<String, Element>>() {}.getType();
+    ImmutableMap<String, Element> base =
+        ImmutableMap.of("a", Element.of(1), "b", Element.of(2), "c", Element.of(3));
+    ImmutableMap<String, Element> updated =
+        ImmutableMap.of("c", Element.of(3), "a", Element.of(1).changed(5), "d", Element.of(4));
+
+    ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    codec.writeJsonDelta(delta, base, updated, type);
+    ImmutableMap<String, Element> read = codec.applyJsonDeltas(base, type,
+        ImmutableList.of(new ByteArrayInputStream(delta.toByteArray())));
+
+    assertEquals(codec.gson().toJson(updated, type), codec.gson().toJson(read, type));
+    assertTrue(read.get("a").name == null);
+  }
+
+  private byte[] delta(List<Element> base, List<Element> updated) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.writeJsonStreamDelta(out, base, updated);
+    return out.toByteArray();
+  }
+
+  private List<Element> applied(List<Element> base, List<Element> updated) throws IOException {
+    return codec.readJsonFromDeltas(base, Element.class,
+        ImmutableList.of(new ByteArrayInputStream(delta(base, updated))));
+  }
+
+  private byte[] full(List<Element> snapshot) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.writeJsonStream(out, snapshot);
+    return out.toByteArray();
+  }
+
+  private static List<Element> elements(int from, int to) {
+    List<Element> toReturn = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      toReturn.add(Element.of(i));
+    }
+    return toReturn;
+  }
+
+  static final class Element implements GsonSerializable {
+    int id;
+    String name;
+    ImmutableList<String> tags;
+    ImmutableMap<String, Integer> counts;
+
+    static Element of(int id) {
+      Element toReturn = new Element();
+      toReturn.id = id;
+      toReturn.name = "element " + id;
+      toReturn.tags = ImmutableList.of("t" + id % 3, "t" + id % 5);
+      toReturn.counts = ImmutableMap.of("x", id, "y", id % 7);
+      return toReturn;
+    }
+
+    /**
+     * @return a copy without a name, and counting {@code count} once more.
+     */
+    Element changed(int count) {
+      Map<String, Integer> changed = new LinkedHashMap<>(counts);
+      changed.merge("z" + count, 1, Integer::sum);
+      Element toReturn = new Element();
+      toReturn.id = id;
+      toReturn.tags = tags;
+      toReturn.counts = ImmutableMap.copyOf(changed);
+      return toReturn;
+    }
+  }
+}
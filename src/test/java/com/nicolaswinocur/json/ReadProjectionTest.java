@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018 Nicolas Winocur
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nicolaswinocur.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.annotations.SerializedName;
+
+public class ReadProjectionTest {
+
+  private final GsonCodec codec = GsonCodec.getCompact();
+
+  @Test
+  public void keepingEverythingMatchesAFullRead() throws IOException {
+    List<Element> elements = elements(50);
+    byte[] json = json(elements);
+
+    List<Element> read = codec.readJsonFrom(new ByteArrayInputStream(json), Element.class,
+        ReadProjection.builder().build());
+    assertEquals(codec.gson().toJson(elements), codec.gson().toJson(read));
+  }
+
+  @Test
+  public void bindsOnlyProjectedMembers() throws IOException {
+    List<Element> read = codec.readJsonFrom(new ByteArrayInputStream(json(elements(10))),
+        Element.class, ReadProjection.builder().fields("id", "n", "byName").build());
+
+    assertEquals(10, read.size());
+    Element element = read.get(3);
+    assertEquals(3, element.id);
+    assertEquals("name 3", element.name);
+    assertEquals(ImmutableMap.of("x", 3, "y", 4), element.byName);
+    assertNull(element.kind);
+    assertNull(element.byCode);
+    assertNull(element.counts);
+    assertEquals(-1, element.score, 0);
+  }
+
+  @Test
+  public void filtersBeforeProjectedMembers() throws IOException {
+    // kind comes first, so elements are bound straight from the input once it has passed them
+    List<Element> read = codec.readJsonFrom(new ByteArrayInputStream(json(elements(30))),
+        Element.class, ReadProjection.builder().fields("id", "byCode", "counts")
+            .filter("kind", kind -> kind.getAsString().equals("even")).build());
+
+    assertEquals(15, read.size());
+    for (int i = 0; i < read.size(); i++) {
+      Element element = read.get(i);
+      assertEquals(2 * i, element.id);
+      assertEquals(ImmutableMap.of(2 * i, "code " + 2 * i), element.byCode);
+      assertEquals(counts(2 * i), element.counts);
+      assertNull(element.name);
+    }
+  }
+
+  @Test
+  public void filtersAfterProjectedMembers() throws IOException {
+    // score comes after the projected members, which are copied until it has been tested
+    List<Element> read = codec.readJsonFrom(new ByteArrayInputStream(json(elements(30))),
+        Element.class, ReadProjection.builder().fields("id", "byName", "counts", "score")
+            .filter("score", score -> score.getAsDouble() >= 10).build());
+
+    assertEquals(10, read.size());
+    assertEquals(20, read.get(0).id);
+    assertEquals(ImmutableMap.of("x", 20, "y", 21), read.get(0).byName);
+    assertEquals(counts(20), read.get(0).counts);
+    assertEquals(10, read.get(0).score, 0);
+  }
+
+  @Test
+  public void projectedFilteredMembersAreBound() throws IOException {
+    List<Element> read = codec.readJsonFrom(new ByteArrayInputStream(json(elements(30))),
+        Element.class, ReadProjection.builder().fields("kind", "counts")
+            .filter("kind", kind -> kind.getAsString().equals("odd"))
+            .filter("counts", counts -> counts.getAsJsonObject().size() > 1).build());
+
+    assertEquals(7, read.size());
+    assertEquals("odd", read.get(0).kind);
+    assertEquals(counts(3), read.get(0).counts);
+  }
+
+  @Test
+  public void filterOnlyKeepsEveryMember() throws IOException {
+    List<Element> elements = elements(20);
+    List<Element> read = codec.readJsonFrom(new ByteArrayInputStream(json(elements)),
+        Element.class, ReadProjection.builder()
+            .filter("id", id -> id.getAsInt() % 5 == 0).build());
+
+    assertEquals(codec.gson().toJson(ImmutableList.of(elements.get(0), elements.get(5),
+        elements.get(10), elements.get(15))), codec.gson().toJson(read));
+  }
+
+  @Test
+  public void missingMembersAreFilteredAsNull() throws IOException {
+    String json = "[{\"id\":1},{\"id\":2,\"n\":\"two\"},null,{\"id\":3,\"n\":null}]";
+    List<Element> read = new ArrayList<>();
+    codec.iterateJsonFrom(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+        Element.class, ReadProjection.builder().fields("id")
+            .filter("n", name -> name.isJsonNull()).build())
+        .forEachRemaining(read::add);
+
+    assertEquals(3, read.size());
+    assertEquals(1, read.get(0).id);
+    assertNull(read.get(1));
+    assertEquals(3, read.get(2).id);
+  }
+
+  @Test(expected = JsonSyntaxException.class)
+  public void badProjectedMembersFail() throws IOException {
+    String json = "[{\"kind\":\"even\",\"id\":\"zz\"}]";
+    codec.readJsonFrom(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+        Element.class, ReadProjection.builder().fields("id").filter("kind", kind -> true).build());
+  }
+
+  private byte[] json(List<Element> elements) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.writeJsonStream(out, elements);
+    return out.toByteArray();
+  }
+
+  private static List<Element> elements(int count) {
+    List<Element> toReturn = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Element element = new Element();
+      element.kind = i % 2 == 0 ? "even" : "odd";
+      element.id = i;
+      element.name = "name " + i;
+      element.byName = ImmutableMap.of("x", i, "y", i + 1);
+      element.byCode = new LinkedHashMap<>();
+      element.byCode.put(i, "code " + i);
+      element.counts = counts(i);
+      element.score = i / 2.0;
+      toReturn.add(element);
+    }
+    return toReturn;
+  }
+
+  private static Map<String, List<Integer>> counts(int i) {
+    Map<String, List<Integer>> toReturn = new LinkedHashMap<>();
+    for (int j = 0; j < i % 4; j++) {
+      toReturn.put("count " + j, ImmutableList.of(i, j));
+    }
+    return toReturn;
+  }
+
+  static final class Element implements GsonSerializable {
+    String kind;
+    int id;
+    @SerializedName("n")
+    String name;
+    ImmutableMap<String, Integer> byName;
+    Map<Integer, String> byCode;
+    Map<String, List<Integer>> counts;
+    double score = -1;
+  }
+}